@@ -0,0 +1,23 @@
+package com.timebusker.phoenix.dialect;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Merges detached instances of the annotated entity without reading their row first.
+ * <p>
+ * Hibernate selects the row of a detached entity to decide between an insert and an update,
+ * but both end up as the same Phoenix UPSERT. A blind merge writes the detached state as is:
+ * the returned instance is managed and every column is written on flush, and the lifecycle
+ * callbacks see the write as a persist. Instances already in the persistence context are merged
+ * as usual.
+ * <p>
+ * Only applies to unversioned entities, as the version of a detached instance can only be
+ * checked against its row.
+ */
+@Target(ElementType.TYPE)
+@Retention(RetentionPolicy.RUNTIME)
+public @interface BlindMerge {
+}
@@ -0,0 +1,16 @@
+package com.timebusker.phoenix.dialect;
+
+/**
+ * Notified of every chunk of rows removed by a chunked bulk HQL delete.
+ *
+ * @see PhoenixDialect#DELETE_CHUNK_ROWS
+ */
+public interface BulkDeleteListener {
+
+    /**
+     * @param entityName the entity deleted from
+     * @param rows the rows deleted by the chunk
+     * @param totalRows the rows deleted by the statement so far
+     */
+    void chunkDeleted(String entityName, int rows, long totalRows);
+}
@@ -0,0 +1,24 @@
+package com.timebusker.phoenix.dialect;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Inherited;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Inserts the annotated entity (and its subclasses) with a single
+ * {@code UPSERT ... ON DUPLICATE KEY IGNORE}, so persisting an instance never overwrites an
+ * existing row, including a row inserted by a concurrent transaction.
+ * <p>
+ * Phoenix reports one row written for every atomic upsert, whether the row was written or
+ * ignored, so persisting the instance of an existing row does not fail: the existing row is kept
+ * as is, and the persisted instance does not reflect it. The inserts are generated by the Phoenix
+ * persisters, which are assigned to the annotated entities automatically. Cannot be combined with
+ * {@link BlindMerge}, whose writes must overwrite the existing rows.
+ */
+@Target(ElementType.TYPE)
+@Retention(RetentionPolicy.RUNTIME)
+@Inherited
+public @interface InsertIfAbsent {
+}
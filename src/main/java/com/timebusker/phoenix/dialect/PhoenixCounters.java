@@ -0,0 +1,175 @@
+package com.timebusker.phoenix.dialect;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import javax.persistence.EntityManager;
+
+import org.hibernate.MappingException;
+import org.hibernate.engine.jdbc.spi.JdbcCoordinator;
+import org.hibernate.engine.spi.SessionImplementor;
+import org.hibernate.persister.entity.AbstractEntityPersister;
+import org.hibernate.persister.entity.EntityPersister;
+import org.hibernate.type.Type;
+
+/**
+ * Increments numeric entity attributes atomically on the server, with a single
+ * {@code UPSERT ... ON DUPLICATE KEY UPDATE c = c + ?} instead of a read-modify-write cycle
+ * through the entity:
+ * <pre>
+ *     PhoenixCounters.increment(em, PageView.class, url, "views", 1);
+ *
+ *     try (PhoenixCounters.Batch batch = PhoenixCounters.batch(em)) {
+ *         for (String url : urls) {
+ *             batch.increment(PageView.class, url, "views", 1);
+ *         }
+ *     }
+ * </pre>
+ * The increments are part of the current transaction, and like any Phoenix mutation they are
+ * sent to the server on commit. A missing row is created with the increment as its value.
+ * <p>
+ * Managed instances of the entity are not refreshed, while second-level cache entries of the
+ * incremented rows are evicted.
+ */
+public final class PhoenixCounters {
+
+    private static final StatementCache<String, String> INCREMENTS = new StatementCache<>(
+            Integer.getInteger(PhoenixDialect.REWRITE_CACHE_SIZE, PhoenixDialect.DEFAULT_REWRITE_CACHE_SIZE));
+
+    private PhoenixCounters() {
+    }
+
+    /**
+     * Increments the attribute of the entity with the given identifier.
+     */
+    public static void increment(EntityManager em, Class<?> entityClass, Object id, String attribute, Number delta) {
+        try (Batch batch = batch(em)) {
+            batch.increment(entityClass, id, attribute, delta);
+        }
+    }
+
+    /**
+     * Returns a batch of increments, executed when it is closed.
+     */
+    public static Batch batch(EntityManager em) {
+        return new Batch(em.unwrap(SessionImplementor.class));
+    }
+
+    /**
+     * A JDBC batch per incremented attribute.
+     */
+    public static final class Batch implements AutoCloseable {
+
+        private final SessionImplementor session;
+        private final Map<String, PreparedStatement> statements = new LinkedHashMap<>();
+
+        private Batch(SessionImplementor session) {
+            this.session = session;
+        }
+
+        public Batch increment(Class<?> entityClass, Object id, String attribute, Number delta) {
+            EntityPersister persister = session.getFactory().getMetamodel().entityPersister(entityClass);
+            Type type = persister.getPropertyType(attribute);
+            String sql = incrementString(persister, attribute, type);
+            try {
+                PreparedStatement statement = statements.get(sql);
+                if (statement == null) {
+                    statement = session.getJdbcCoordinator().getStatementPreparer().prepareStatement(sql);
+                    statements.put(sql, statement);
+                }
+                Object value = toType(delta, type.getReturnedClass());
+                persister.getIdentifierType().nullSafeSet(statement, id, 1, session);
+                int index = 1 + persister.getIdentifierType().getColumnSpan(session.getFactory());
+                type.nullSafeSet(statement, value, index, session);
+                type.nullSafeSet(statement, value, index + 1, session);
+                statement.addBatch();
+            } catch (SQLException e) {
+                throw session.getJdbcServices().getSqlExceptionHelper().convert(e,
+                        "could not increment " + persister.getEntityName() + "." + attribute, sql);
+            }
+
+            if (persister.hasCache()) {
+                session.getFactory().getCache().evict(entityClass, id);
+            }
+            return this;
+        }
+
+        /**
+         * Executes the pending increments. Does not commit them.
+         */
+        @Override
+        public void close() {
+            JdbcCoordinator jdbc = session.getJdbcCoordinator();
+            try {
+                for (Map.Entry<String, PreparedStatement> entry : statements.entrySet()) {
+                    try {
+                        entry.getValue().executeBatch();
+                    } catch (SQLException e) {
+                        throw session.getJdbcServices().getSqlExceptionHelper().convert(e,
+                                "could not execute increments", entry.getKey());
+                    }
+                }
+            } finally {
+                for (PreparedStatement statement : statements.values()) {
+                    jdbc.getResourceRegistry().release(statement);
+                }
+                statements.clear();
+                jdbc.afterStatementExecution();
+            }
+        }
+    }
+
+    private static String incrementString(EntityPersister persister, String attribute, Type type) {
+        String key = persister.getEntityName() + '.' + attribute;
+        String sql = INCREMENTS.get(key);
+        if (sql != null) {
+            return sql;
+        }
+
+        if (!(persister instanceof AbstractEntityPersister)) {
+            throw new MappingException("Cannot increment the attributes of " + persister.getEntityName());
+        }
+        AbstractEntityPersister p = (AbstractEntityPersister) persister;
+        String[] columns = p.getPropertyColumnNames(attribute);
+        if (columns.length != 1 || !Number.class.isAssignableFrom(type.getReturnedClass())
+                || (p.isVersioned() && attribute.equals(p.getPropertyNames()[p.getVersionProperty()]))) {
+            throw new MappingException("Cannot increment " + persister.getEntityName() + "." + attribute
+                    + ", it is not a numeric column");
+        }
+        sql = UpsertStatementBuilder.buildIncrement(p.getTableName(), p.getIdentifierColumnNames(), columns[0]);
+        INCREMENTS.put(key, sql);
+        return sql;
+    }
+
+    private static Object toType(Number delta, Class<?> type) {
+        if (type == Long.class) {
+            return delta.longValue();
+        }
+        if (type == Integer.class) {
+            return delta.intValue();
+        }
+        if (type == Short.class) {
+            return delta.shortValue();
+        }
+        if (type == Byte.class) {
+            return delta.byteValue();
+        }
+        if (type == Double.class) {
+            return delta.doubleValue();
+        }
+        if (type == Float.class) {
+            return delta.floatValue();
+        }
+        if (type == BigInteger.class) {
+            return BigInteger.valueOf(delta.longValue());
+        }
+        if (type == BigDecimal.class) {
+            return delta instanceof BigDecimal ? delta : new BigDecimal(delta.toString());
+        }
+        return delta;
+    }
+}
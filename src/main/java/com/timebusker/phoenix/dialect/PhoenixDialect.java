@@ -1,16 +1,18 @@
 package com.timebusker.phoenix.dialect;
 
 import java.sql.Types;
+import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.List;
 
-import org.apache.commons.lang.StringUtils;
 import org.hibernate.MappingException;
 import org.hibernate.boot.Metadata;
+import org.hibernate.cfg.AvailableSettings;
 import org.hibernate.dialect.Dialect;
 import org.hibernate.dialect.function.NoArgSQLFunction;
 import org.hibernate.dialect.function.SQLFunctionTemplate;
 import org.hibernate.dialect.function.StandardSQLFunction;
+import org.hibernate.dialect.function.VarArgsSQLFunction;
 import org.hibernate.dialect.pagination.AbstractLimitHandler;
 import org.hibernate.dialect.pagination.LimitHandler;
 import org.hibernate.dialect.pagination.LimitHelper;
@@ -21,6 +23,8 @@ import org.hibernate.engine.spi.RowSelection;
 import org.hibernate.mapping.Column;
 import org.hibernate.mapping.Table;
 import org.hibernate.mapping.UniqueKey;
+import org.hibernate.tool.schema.internal.StandardTableExporter;
+import org.hibernate.tool.schema.spi.Exporter;
 import org.hibernate.type.StandardBasicTypes;
 import org.springframework.context.support.ClassPathXmlApplicationContext;
 
@@ -33,6 +37,139 @@ public class PhoenixDialect extends Dialect {
 
     public static final String HINT_SECONDARY_INDEX = "phoenix.secondary.index";
 
+    /**
+     * System property with the maximum number of rewritten UPSERT statements to cache.
+     */
+    public static final String REWRITE_CACHE_SIZE = "phoenix.dialect.rewrite.cache.size";
+    public static final int DEFAULT_REWRITE_CACHE_SIZE = 1024;
+
+    /**
+     * System property with the maximum number of hinted queries to cache.
+     */
+    public static final String HINT_CACHE_SIZE = "phoenix.dialect.hint.cache.size";
+    public static final int DEFAULT_HINT_CACHE_SIZE = 1024;
+
+    /**
+     * Persistence unit property to map every entity with dynamic updates, so updates only UPSERT
+     * the primary key and the dirty columns instead of rewriting the cells of every column and
+     * the secondary indexes on them. Defaults to false; entities annotated with
+     * {@code @DynamicUpdate} behave that way anyway.
+     */
+    public static final String DYNAMIC_UPDATE = "phoenix.dialect.dynamic.update";
+
+    /**
+     * Persistence unit property to map entities with dynamic inserts, so inserts leave the null
+     * columns out of the UPSERT instead of writing a delete marker for each of them. Entities
+     * with column default values or a custom insert statement keep their static inserts, as
+     * skipping a null is not equivalent for them. Defaults to false.
+     * <p>
+     * An insert only leaves the omitted cells empty for new rows; persisting over an existing
+     * row keeps the values of the columns that are null in the new entity.
+     */
+    public static final String DYNAMIC_INSERT = "phoenix.dialect.dynamic.insert";
+
+    /**
+     * Persistence unit property to batch the statements of a flush like Phoenix batches their
+     * mutations on commit: {@code hibernate.jdbc.batch_size} defaults to the configured
+     * {@code phoenix.mutate.batchSize}, and {@code hibernate.order_inserts} and
+     * {@code hibernate.order_updates} to true. The Hibernate settings given explicitly are kept.
+     * Defaults to true, and requires the {@code hibernate.dialect} to be set.
+     */
+    public static final String FLUSH_BATCHING = "phoenix.dialect.flush.batching";
+
+    /**
+     * Persistence unit property to commit the mutations buffered by Phoenix in chunks during a
+     * flush, before they reach {@code phoenix.mutate.maxSize} or {@code phoenix.mutate.maxSizeBytes}.
+     * Defaults to false. A flush failing after a chunk was committed does not roll that chunk back.
+     *
+     * @see #FLUSH_CHUNK_ROWS
+     * @see #FLUSH_CHUNK_BYTES
+     * @see #FLUSH_CHUNK_LISTENER
+     * @see #FLUSH_CHUNK_CONTROLLER
+     */
+    public static final String FLUSH_CHUNKED = "phoenix.dialect.flush.chunked";
+
+    /**
+     * Persistence unit property with the rows to commit at most per flush chunk. A chunk never
+     * exceeds 90% of the Phoenix limits, whatever this value.
+     */
+    public static final String FLUSH_CHUNK_ROWS = "phoenix.dialect.flush.chunk.rows";
+
+    /**
+     * Persistence unit property with the estimated bytes to commit at most per flush chunk. A chunk
+     * never exceeds 90% of the Phoenix limits, whatever this value.
+     */
+    public static final String FLUSH_CHUNK_BYTES = "phoenix.dialect.flush.chunk.bytes";
+
+    /**
+     * Persistence unit property with the {@link com.timebusker.phoenix.dialect.write.FlushChunkListener}
+     * notified of every flush chunk committed, given as an instance, a class or a class name.
+     */
+    public static final String FLUSH_CHUNK_LISTENER = "phoenix.dialect.flush.chunk.listener";
+
+    /**
+     * Persistence unit property with the {@link com.timebusker.phoenix.dialect.write.AdaptiveBatchController}
+     * sizing the flush chunks after the latency and failures of their commits, given as an
+     * instance, a class or a class name. The controller exposes its current size and statistics.
+     */
+    public static final String FLUSH_CHUNK_CONTROLLER = "phoenix.dialect.flush.chunk.controller";
+
+    /**
+     * Persistence unit property to coalesce the commits of concurrent small transactions into
+     * group commits. Either {@code true}, or the
+     * {@link com.timebusker.phoenix.dialect.write.GroupCommitter} to use, given as an instance, a
+     * class or a class name. Defaults to false.
+     *
+     * @see #GROUP_COMMIT_ROWS
+     */
+    public static final String GROUP_COMMIT = "phoenix.dialect.group.commit";
+
+    /**
+     * Persistence unit property with the rows a transaction can write at most to be group
+     * committed. Larger transactions are committed on their own. Defaults to
+     * {@value #DEFAULT_GROUP_COMMIT_ROWS}.
+     */
+    public static final String GROUP_COMMIT_ROWS = "phoenix.dialect.group.commit.rows";
+    public static final int DEFAULT_GROUP_COMMIT_ROWS = 100;
+
+    /**
+     * Persistence unit property with the rows to delete at most per statement when running a bulk
+     * HQL delete of a single table entity; the delete is repeated until it deletes less rows, and
+     * each chunk is committed on its own. Defaults to 0, to delete in a single statement.
+     *
+     * @see #DELETE_CHUNK_LISTENER
+     */
+    public static final String DELETE_CHUNK_ROWS = "phoenix.dialect.delete.chunk.rows";
+
+    /**
+     * Persistence unit property with the {@link BulkDeleteListener} notified of the progress of
+     * the chunked bulk deletes, given as an instance, a class or a class name.
+     */
+    public static final String DELETE_CHUNK_LISTENER = "phoenix.dialect.delete.chunk.listener";
+
+    /**
+     * Persistence unit property to disable the coalescing of the row deletes of a flush into
+     * {@code DELETE ... WHERE pk IN (...)} statements of up to the JDBC batch size rows, with
+     * row value constructors for composite keys. Enabled by default.
+     */
+    public static final String DELETE_COALESCE = "phoenix.dialect.delete.coalesce";
+
+    /**
+     * Persistence unit property to enable the range deletes of the one-to-many collections whose
+     * foreign key leads the primary key of their elements, which replace the delete cascade to
+     * those collections with a single {@code DELETE ... WHERE FK=?} per owner. Elements owning
+     * collection rows, with remove callbacks or entity listeners, or cached are still deleted one
+     * by one. Disabled by default.
+     */
+    public static final String DELETE_RANGE = "phoenix.dialect.delete.range";
+
+    /**
+     * System property to disable the load-time weaving of the Hibernate statement builders. Set it
+     * to false when the UPSERT statements are generated by the persisters of
+     * {@link com.timebusker.phoenix.dialect.persister.PhoenixPersisterClassResolver}.
+     */
+    public static final String WEAVING = "phoenix.dialect.weaving";
+
     public static class SecondaryIndexHint {
         private final String table;
         private final String index;
@@ -58,7 +195,9 @@ public class PhoenixDialect extends Dialect {
     private static ClassPathXmlApplicationContext ctx;
 
     static {
-        register();
+        if (Boolean.parseBoolean(System.getProperty(WEAVING, "true"))) {
+            register();
+        }
     }
 
     public static synchronized void register() {
@@ -69,8 +208,56 @@ public class PhoenixDialect extends Dialect {
         }
     }
 
+    private static final class HintedQuery {
+        private final String query;
+        private final List<String> hints;
+        private final int hash;
+
+        HintedQuery(String query, List<String> hints) {
+            this.query = query;
+            this.hints = hints;
+            this.hash = 31 * query.hashCode() + hints.hashCode();
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof HintedQuery)) {
+                return false;
+            }
+            HintedQuery other = (HintedQuery) o;
+            return hash == other.hash && query.equals(other.query) && hints.equals(other.hints);
+        }
+    }
+
+    private final StatementCache<HintedQuery, String> hintCache = new StatementCache<>(
+            Integer.getInteger(HINT_CACHE_SIZE, DEFAULT_HINT_CACHE_SIZE));
+
+    private final Exporter<Table> tableExporter = new StandardTableExporter(this) {
+        @Override
+        public String[] getSqlCreateStrings(Table table, Metadata metadata) {
+            String[] sqls = super.getSqlCreateStrings(table, metadata);
+            if (table.hasPrimaryKey()) {
+                // Phoenix only accepts the primary key as a named constraint
+                sqls[0] = sqls[0].replace(", primary key (", ", CONSTRAINT pk primary key (");
+            }
+            return sqls;
+        }
+    };
+
     public PhoenixDialect() {
         super();
+        // Bulk HQL statements are not built by the rewritten statement builders
+        getDefaultProperties().setProperty(AvailableSettings.STATEMENT_INSPECTOR,
+                PhoenixStatementInspector.class.getName());
+
         // Phoenix datetypes (https://phoenix.apache.org/language/datatypes.html)
         registerColumnType(Types.BIT, "boolean");
         registerColumnType(Types.BIGINT, "bigint");
@@ -101,6 +288,7 @@ public class PhoenixDialect extends Dialect {
         registerFunction("stddev_pop", new StandardSQLFunction("stddev_pop", StandardBasicTypes.DOUBLE));
         registerFunction("stddev_samp", new StandardSQLFunction("stddev_samp", StandardBasicTypes.DOUBLE));
 
+        registerFunction("concat", new VarArgsSQLFunction(StandardBasicTypes.STRING, "(", "||", ")"));
         registerFunction("upper", new StandardSQLFunction("upper", StandardBasicTypes.STRING));
         registerFunction("lower", new StandardSQLFunction("lower", StandardBasicTypes.STRING));
         registerFunction("reverse", new StandardSQLFunction("reverse", StandardBasicTypes.STRING));
@@ -309,7 +497,21 @@ public class PhoenixDialect extends Dialect {
 
     @Override
     public String getQueryHintString(String query, List<String> hints) {
-        return QueryUtils.removeQueryComments(query).trim().replaceFirst("select", "select " + StringUtils.join(hints, " ") + " ");
+        HintedQuery key = new HintedQuery(query, hints);
+        String hinted = hintCache.get(key);
+        if (hinted == null) {
+            hinted = QueryUtils.addQueryHints(query, hints);
+            // The hints list belongs to the query and may still change, so keep a copy
+            hintCache.put(new HintedQuery(query, new ArrayList<>(hints)), hinted);
+        }
+        return hinted;
+    }
+
+    /**
+     * Returns the cache of hinted queries, to check its size and hit ratio.
+     */
+    public StatementCache<?, String> getQueryHintCache() {
+        return hintCache;
     }
 
     @Override
@@ -317,6 +519,11 @@ public class PhoenixDialect extends Dialect {
         return NameQualifierSupport.SCHEMA;
     }
 
+    @Override
+    public Exporter<Table> getTableExporter() {
+        return tableExporter;
+    }
+
     @Override
     public boolean hasAlterTable() {
         return false;
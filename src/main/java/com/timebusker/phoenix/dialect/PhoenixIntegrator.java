@@ -0,0 +1,402 @@
+package com.timebusker.phoenix.dialect;
+
+import java.lang.management.ManagementFactory;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+import javax.persistence.EntityListeners;
+import javax.persistence.PostRemove;
+import javax.persistence.PreRemove;
+
+import org.hibernate.HibernateException;
+import org.hibernate.MappingException;
+import org.hibernate.boot.Metadata;
+import org.hibernate.boot.registry.selector.spi.StrategySelector;
+import org.hibernate.dialect.Dialect;
+import org.hibernate.engine.config.spi.ConfigurationService;
+import org.hibernate.engine.config.spi.StandardConverters;
+import org.hibernate.engine.jdbc.env.spi.QualifiedObjectNameFormatter;
+import org.hibernate.engine.jdbc.spi.JdbcServices;
+import org.hibernate.engine.spi.SessionFactoryImplementor;
+import org.hibernate.event.service.spi.EventListenerGroup;
+import org.hibernate.event.service.spi.EventListenerRegistry;
+import org.hibernate.event.spi.EventType;
+import org.hibernate.event.spi.MergeEventListener;
+import org.hibernate.hql.spi.QueryTranslatorFactory;
+import org.hibernate.integrator.spi.Integrator;
+import org.hibernate.mapping.Column;
+import org.hibernate.mapping.OneToMany;
+import org.hibernate.mapping.PersistentClass;
+import org.hibernate.mapping.Property;
+import org.hibernate.mapping.Table;
+import org.hibernate.resource.jdbc.spi.StatementInspector;
+import org.hibernate.service.spi.SessionFactoryServiceRegistry;
+
+import com.timebusker.phoenix.dialect.persister.PhoenixJoinedSubclassEntityPersister;
+import com.timebusker.phoenix.dialect.persister.PhoenixPersisterClassResolver;
+import com.timebusker.phoenix.dialect.persister.PhoenixSingleTableEntityPersister;
+import com.timebusker.phoenix.dialect.write.AdaptiveBatchController;
+import com.timebusker.phoenix.dialect.write.ChunkedCommitEventListener;
+import com.timebusker.phoenix.dialect.write.FlushChunkListener;
+import com.timebusker.phoenix.dialect.write.GroupCommitEventListener;
+import com.timebusker.phoenix.dialect.write.GroupCommitter;
+import com.timebusker.phoenix.dialect.write.RangeDeleteEventListener;
+
+/**
+ * Adapts the entity mappings of the session factories using the {@link PhoenixDialect} before
+ * their persisters are built.
+ */
+public class PhoenixIntegrator implements Integrator {
+
+    private static final PhoenixPersisterClassResolver PERSISTER_RESOLVER = new PhoenixPersisterClassResolver();
+
+    static final String MBEAN_DOMAIN = "com.timebusker.phoenix.dialect";
+
+    private final Map<String, ObjectName> mbeans = new ConcurrentHashMap<>();
+
+    @Override
+    public void integrate(Metadata metadata, SessionFactoryImplementor sessionFactory,
+            SessionFactoryServiceRegistry serviceRegistry) {
+        JdbcServices jdbcServices = serviceRegistry.getService(JdbcServices.class);
+        if (!(jdbcServices.getDialect() instanceof PhoenixDialect)) {
+            return;
+        }
+
+        ConfigurationService configuration = serviceRegistry.getService(ConfigurationService.class);
+        boolean dynamicUpdate = configuration.getSetting(PhoenixDialect.DYNAMIC_UPDATE, StandardConverters.BOOLEAN, false);
+        boolean dynamicInsert = configuration.getSetting(PhoenixDialect.DYNAMIC_INSERT, StandardConverters.BOOLEAN, false);
+        Set<String> blindEntities = new HashSet<>();
+        for (PersistentClass entity : metadata.getEntityBindings()) {
+            if (isBlindMerge(entity)) {
+                blindEntities.add(entity.getEntityName());
+            }
+            if (isInsertIfAbsent(entity)) {
+                // Only the Phoenix persisters know which entity an insert is for
+                entity.setEntityPersisterClass(PERSISTER_RESOLVER.getEntityPersisterClass(entity));
+            }
+            if (dynamicUpdate) {
+                // Every UPSERT writes one cell per listed column, so only list the dirty ones
+                entity.setDynamicUpdate(true);
+            }
+            if (dynamicInsert && canSkipNullsOnInsert(entity)) {
+                // A bound null is written as a delete marker, while an omitted column is not written
+                entity.setDynamicInsert(true);
+            }
+        }
+
+        RangeDeleteEventListener rangeDeletes = new RangeDeleteEventListener();
+        if (configuration.getSetting(PhoenixDialect.DELETE_RANGE, StandardConverters.BOOLEAN, false)) {
+            addRangeDeletes(metadata, jdbcServices, rangeDeletes);
+        }
+
+        StatementInspector inspector = sessionFactory.getSessionFactoryOptions().getStatementInspector();
+        if (inspector instanceof PhoenixStatementInspector) {
+            ((PhoenixStatementInspector) inspector).setKeyColumns(getKeyColumns(metadata, jdbcServices));
+        }
+
+        EventListenerRegistry listeners = serviceRegistry.getService(EventListenerRegistry.class);
+        StrategySelector strategies = serviceRegistry.getService(StrategySelector.class);
+        QueryTranslatorFactory translators = serviceRegistry.getService(QueryTranslatorFactory.class);
+        if (translators instanceof PhoenixQueryTranslatorFactory) {
+            ((PhoenixQueryTranslatorFactory) translators).setDeleteChunking(
+                    configuration.getSetting(PhoenixDialect.DELETE_CHUNK_ROWS, PhoenixIntegrator::toLong, 0L).intValue(),
+                    strategies.resolveStrategy(BulkDeleteListener.class,
+                            configuration.getSettings().get(PhoenixDialect.DELETE_CHUNK_LISTENER)));
+        }
+        if (!blindEntities.isEmpty()) {
+            replaceMergeListener(listeners, blindEntities);
+        }
+        if (!rangeDeletes.isEmpty()) {
+            // The loaded collection elements must be deleted before their owner and its range
+            listeners.prependListeners(EventType.DELETE, rangeDeletes);
+            listeners.appendListeners(EventType.POST_DELETE, rangeDeletes);
+        }
+        if (configuration.getSetting(PhoenixDialect.FLUSH_CHUNKED, StandardConverters.BOOLEAN, false)) {
+            AdaptiveBatchController controller = strategies.resolveStrategy(AdaptiveBatchController.class,
+                    configuration.getSettings().get(PhoenixDialect.FLUSH_CHUNK_CONTROLLER));
+            if (controller != null) {
+                registerMBean(sessionFactory, controller);
+            }
+            ChunkedCommitEventListener chunks = new ChunkedCommitEventListener(
+                    configuration.getSetting(PhoenixDialect.FLUSH_CHUNK_ROWS, PhoenixIntegrator::toLong, Long.MAX_VALUE),
+                    configuration.getSetting(PhoenixDialect.FLUSH_CHUNK_BYTES, PhoenixIntegrator::toLong, Long.MAX_VALUE),
+                    strategies.resolveStrategy(FlushChunkListener.class,
+                            configuration.getSettings().get(PhoenixDialect.FLUSH_CHUNK_LISTENER)),
+                    controller);
+            listeners.appendListeners(EventType.POST_INSERT, chunks);
+            listeners.appendListeners(EventType.POST_UPDATE, chunks);
+            listeners.appendListeners(EventType.POST_DELETE, chunks);
+            listeners.appendListeners(EventType.POST_COLLECTION_RECREATE, chunks);
+            listeners.appendListeners(EventType.POST_COLLECTION_UPDATE, chunks);
+            listeners.appendListeners(EventType.POST_COLLECTION_REMOVE, chunks);
+        }
+        GroupCommitter committer = getGroupCommitter(configuration, strategies);
+        if (committer != null) {
+            listeners.appendListeners(EventType.FLUSH, new GroupCommitEventListener(committer,
+                    configuration.getSetting(PhoenixDialect.GROUP_COMMIT_ROWS, PhoenixIntegrator::toLong,
+                            (long) PhoenixDialect.DEFAULT_GROUP_COMMIT_ROWS).intValue()));
+        }
+    }
+
+    /**
+     * Publishes the state of the controller of the flush chunks through JMX, until the session
+     * factory is closed.
+     */
+    private void registerMBean(SessionFactoryImplementor sessionFactory, AdaptiveBatchController controller) {
+        try {
+            ObjectName name = new ObjectName(MBEAN_DOMAIN + ":type=AdaptiveBatchController,name="
+                    + ObjectName.quote(sessionFactory.getUuid()));
+            ManagementFactory.getPlatformMBeanServer().registerMBean(controller, name);
+            mbeans.put(sessionFactory.getUuid(), name);
+        } catch (JMException e) {
+            throw new HibernateException("Could not register the flush chunk controller in JMX", e);
+        }
+    }
+
+    private static GroupCommitter getGroupCommitter(ConfigurationService configuration, StrategySelector strategies) {
+        Object setting = configuration.getSettings().get(PhoenixDialect.GROUP_COMMIT);
+        if (setting == null || setting instanceof GroupCommitter || setting instanceof Class) {
+            return strategies.resolveStrategy(GroupCommitter.class, setting);
+        }
+        String value = setting.toString().trim();
+        if (value.equalsIgnoreCase("false")) {
+            return null;
+        }
+        return value.equalsIgnoreCase("true") ? new GroupCommitter()
+                : strategies.resolveStrategy(GroupCommitter.class, value);
+    }
+
+    /**
+     * Returns the primary key columns of the entity tables, by table name as rendered in the
+     * statements.
+     */
+    private static Map<String, String[]> getKeyColumns(Metadata metadata, JdbcServices jdbcServices) {
+        Dialect dialect = jdbcServices.getDialect();
+        QualifiedObjectNameFormatter formatter = jdbcServices.getJdbcEnvironment().getQualifiedObjectNameFormatter();
+        Map<String, String[]> keyColumns = new HashMap<>();
+        for (PersistentClass entity : metadata.getEntityBindings()) {
+            Table table = entity.getTable();
+            if (table.isAbstractUnionTable() || table.isSubselect() || !table.hasPrimaryKey()) {
+                continue;
+            }
+            List<Column> columns = table.getPrimaryKey().getColumns();
+            String[] names = new String[columns.size()];
+            for (int i = 0; i < names.length; i++) {
+                names[i] = columns.get(i).getQuotedName(dialect);
+            }
+            keyColumns.put(formatter.format(table.getQualifiedTableName(), dialect), names);
+        }
+        return keyColumns;
+    }
+
+    /**
+     * Takes over the delete cascade of the one-to-many collections that can be deleted with a
+     * single range delete per owner: their foreign key leads the primary key of the table of an
+     * entity stored in that table alone, and neither the collection nor its elements are
+     * filtered or cascade deletes any further.
+     */
+    private static void addRangeDeletes(Metadata metadata, JdbcServices jdbcServices,
+            RangeDeleteEventListener rangeDeletes) {
+        Dialect dialect = jdbcServices.getDialect();
+        QualifiedObjectNameFormatter formatter = jdbcServices.getJdbcEnvironment().getQualifiedObjectNameFormatter();
+        Map<Property, String> sqls = new HashMap<>();
+        for (PersistentClass entity : metadata.getEntityBindings()) {
+            Iterator<?> properties = entity.getPropertyClosureIterator();
+            while (properties.hasNext()) {
+                Property property = (Property) properties.next();
+                if (!sqls.containsKey(property)) {
+                    sqls.put(property, getRangeDelete(property, dialect, formatter));
+                }
+                String sql = sqls.get(property);
+                if (sql != null) {
+                    rangeDeletes.addRangeDelete(entity.getEntityName(),
+                            ((org.hibernate.mapping.Collection) property.getValue()).getRole(), property.getName(), sql);
+                }
+            }
+        }
+        for (Map.Entry<Property, String> sql : sqls.entrySet()) {
+            if (sql.getValue() != null) {
+                Property property = sql.getKey();
+                property.setCascade(RangeDeleteEventListener.withoutDeleteCascade(property.getCascade()));
+            }
+        }
+    }
+
+    private static String getRangeDelete(Property property, Dialect dialect, QualifiedObjectNameFormatter formatter) {
+        if (!(property.getValue() instanceof org.hibernate.mapping.Collection)
+                || !RangeDeleteEventListener.isDeleteCascade(property.getCascadeStyle())) {
+            return null;
+        }
+        org.hibernate.mapping.Collection collection = (org.hibernate.mapping.Collection) property.getValue();
+        if (!collection.isOneToMany() || collection.getReferencedPropertyName() != null
+                || collection.getWhere() != null || !collection.getFilters().isEmpty()) {
+            return null;
+        }
+        PersistentClass element = ((OneToMany) collection.getElement()).getAssociatedClass();
+        Table table = element.getTable();
+        if (element.hasSubclasses() || element.getJoinClosureSpan() > 0 || element.getWhere() != null
+                || !table.hasPrimaryKey() || hasDeleteCascade(element)) {
+            return null;
+        }
+        // The rows of the element are deleted without loading it, so nothing else may depend on it
+        if (ownsCollectionRows(element) || hasRemoveCallbacks(element.getMappedClass())
+                || element.getCacheConcurrencyStrategy() != null || element.getNaturalIdCacheRegionName() != null) {
+            return null;
+        }
+
+        // The foreign key must lead the primary key, so the delete is a range scan
+        List<Column> keyColumns = table.getPrimaryKey().getColumns();
+        StringBuilder sql = new StringBuilder("delete from ")
+                .append(formatter.format(table.getQualifiedTableName(), dialect)).append(" where ");
+        Iterator<?> columns = collection.getKey().getColumnIterator();
+        for (int i = 0; columns.hasNext(); i++) {
+            Object column = columns.next();
+            if (!(column instanceof Column) || i >= keyColumns.size() || !keyColumns.get(i).equals(column)) {
+                return null;
+            }
+            sql.append(i == 0 ? "" : " and ").append(((Column) column).getQuotedName(dialect)).append("=?");
+        }
+        return sql.toString();
+    }
+
+    private static boolean hasDeleteCascade(PersistentClass entity) {
+        Iterator<?> properties = entity.getPropertyClosureIterator();
+        while (properties.hasNext()) {
+            if (RangeDeleteEventListener.isDeleteCascade(((Property) properties.next()).getCascadeStyle())) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean ownsCollectionRows(PersistentClass entity) {
+        // Element collections and many-to-many join rows are deleted by the persister with their owner
+        Iterator<?> properties = entity.getPropertyClosureIterator();
+        while (properties.hasNext()) {
+            Object value = ((Property) properties.next()).getValue();
+            if (value instanceof org.hibernate.mapping.Collection) {
+                org.hibernate.mapping.Collection collection = (org.hibernate.mapping.Collection) value;
+                if (!collection.isOneToMany() || !collection.isInverse()) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    private static boolean hasRemoveCallbacks(Class<?> mappedClass) {
+        for (Class<?> type = mappedClass; type != null && type != Object.class; type = type.getSuperclass()) {
+            if (type.isAnnotationPresent(EntityListeners.class)) {
+                return true;
+            }
+            for (Method method : type.getDeclaredMethods()) {
+                if (method.isAnnotationPresent(PreRemove.class) || method.isAnnotationPresent(PostRemove.class)) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    private static Long toLong(Object value) {
+        return value instanceof Number ? ((Number) value).longValue() : Long.valueOf(value.toString().trim());
+    }
+
+    private static boolean isBlindMerge(PersistentClass entity) {
+        Class<?> mappedClass = entity.getMappedClass();
+        if (mappedClass == null || !mappedClass.isAnnotationPresent(BlindMerge.class)) {
+            return false;
+        }
+        if (entity.isVersioned()) {
+            throw new MappingException("@BlindMerge cannot be used on the versioned entity "
+                    + entity.getEntityName());
+        }
+        return true;
+    }
+
+    private static boolean isInsertIfAbsent(PersistentClass entity) {
+        Class<?> mappedClass = entity.getMappedClass();
+        if (mappedClass == null || !mappedClass.isAnnotationPresent(InsertIfAbsent.class)) {
+            return false;
+        }
+        if (isBlindMerge(entity)) {
+            throw new MappingException("@InsertIfAbsent cannot be used with @BlindMerge on the entity "
+                    + entity.getEntityName());
+        }
+        Class<?> persisterClass = PERSISTER_RESOLVER.getEntityPersisterClass(entity);
+        if (persisterClass != PhoenixSingleTableEntityPersister.class
+                && persisterClass != PhoenixJoinedSubclassEntityPersister.class) {
+            throw new MappingException("@InsertIfAbsent requires a Phoenix persister on the entity "
+                    + entity.getEntityName() + ", but it is persisted by " + persisterClass.getName());
+        }
+        return true;
+    }
+
+    /**
+     * Replaces the standard merge listener, keeping the other merge listeners registered by the
+     * application or other integrators in place. A merge listener of another class replacing the
+     * standard one is kept as well, and then the blind merges do not apply.
+     */
+    private static void replaceMergeListener(EventListenerRegistry listeners, Set<String> blindEntities) {
+        EventListenerGroup<MergeEventListener> group = listeners.getEventListenerGroup(EventType.MERGE);
+        List<MergeEventListener> merges = new ArrayList<>();
+        boolean replaced = false;
+        for (MergeEventListener listener : group.listeners()) {
+            PhoenixMergeEventListener merge = PhoenixMergeEventListener.replacing(listener, blindEntities);
+            if (merge != null) {
+                listener = merge;
+                replaced = true;
+            }
+            merges.add(listener);
+        }
+        if (replaced) {
+            group.clear();
+            group.appendListeners(merges.toArray(new MergeEventListener[merges.size()]));
+        }
+    }
+
+    /**
+     * A null column can only be left out of the insert if that stores a null too: there must be
+     * no default value for it, and the insert must not be a custom statement (which Hibernate
+     * ignores for dynamic inserts). The inserts of blind merges overwrite every column of an
+     * existing row, so they cannot skip nulls either.
+     */
+    private static boolean canSkipNullsOnInsert(PersistentClass entity) {
+        if (entity.getCustomSQLInsert() != null || isBlindMerge(entity)) {
+            return false;
+        }
+        Iterator<?> properties = entity.getPropertyClosureIterator();
+        while (properties.hasNext()) {
+            Iterator<?> columns = ((Property) properties.next()).getColumnIterator();
+            while (columns.hasNext()) {
+                Object column = columns.next();
+                if (column instanceof Column && ((Column) column).getDefaultValue() != null) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public void disintegrate(SessionFactoryImplementor sessionFactory,
+            SessionFactoryServiceRegistry serviceRegistry) {
+        ObjectName name = mbeans.remove(sessionFactory.getUuid());
+        if (name != null) {
+            try {
+                ManagementFactory.getPlatformMBeanServer().unregisterMBean(name);
+            } catch (JMException e) {
+                // Already unregistered
+            }
+        }
+    }
+}
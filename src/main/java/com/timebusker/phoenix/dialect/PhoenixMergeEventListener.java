@@ -0,0 +1,132 @@
+package com.timebusker.phoenix.dialect;
+
+import java.io.Serializable;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.reflect.Field;
+import java.util.Map;
+import java.util.Set;
+
+import org.hibernate.engine.spi.EntityEntry;
+import org.hibernate.engine.spi.SessionImplementor;
+import org.hibernate.event.internal.DefaultMergeEventListener;
+import org.hibernate.event.spi.EventSource;
+import org.hibernate.event.spi.MergeEvent;
+import org.hibernate.event.spi.MergeEventListener;
+import org.hibernate.jpa.event.internal.core.JpaMergeEventListener;
+import org.hibernate.jpa.event.spi.jpa.CallbackRegistry;
+import org.hibernate.jpa.event.spi.jpa.CallbackRegistryConsumer;
+import org.hibernate.persister.entity.EntityPersister;
+
+/**
+ * A merge listener that skips the read of the detached instances of the {@link BlindMerge}
+ * entities, writing them like new ones.
+ * <p>
+ * It replaces the default merge listener of Hibernate, or the one of JPA, whose
+ * {@code @PrePersist} callbacks of the merged new instances it keeps running.
+ */
+public class PhoenixMergeEventListener extends DefaultMergeEventListener implements CallbackRegistryConsumer {
+
+    private static final long serialVersionUID = 1L;
+
+    private static final MethodHandle JPA_CALLBACK_REGISTRY;
+
+    static {
+        try {
+            Field field = JpaMergeEventListener.class.getDeclaredField("callbackRegistry");
+            field.setAccessible(true);
+            JPA_CALLBACK_REGISTRY = MethodHandles.lookup().unreflectGetter(field);
+        } catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    private final Set<String> blindEntities;
+    private CallbackRegistry callbackRegistry;
+
+    public PhoenixMergeEventListener(Set<String> blindEntities) {
+        this.blindEntities = blindEntities;
+    }
+
+    /**
+     * Returns the listener replacing the given merge listener, or null if it is not one of the
+     * standard ones.
+     */
+    static PhoenixMergeEventListener replacing(MergeEventListener listener, Set<String> blindEntities) {
+        if (listener.getClass() == DefaultMergeEventListener.class) {
+            return new PhoenixMergeEventListener(blindEntities);
+        }
+        if (listener.getClass() == JpaMergeEventListener.class) {
+            PhoenixMergeEventListener merge = new PhoenixMergeEventListener(blindEntities);
+            try {
+                merge.injectCallbackRegistry((CallbackRegistry) JPA_CALLBACK_REGISTRY.invoke(listener));
+            } catch (Throwable e) {
+                throw new IllegalStateException(e);
+            }
+            return merge;
+        }
+        return null;
+    }
+
+    @Override
+    public void injectCallbackRegistry(CallbackRegistry callbackRegistry) {
+        this.callbackRegistry = callbackRegistry;
+    }
+
+    @Override
+    protected Serializable saveWithRequestedId(Object entity, Serializable requestedId, String entityName,
+            Object anything, EventSource source) {
+        if (callbackRegistry != null) {
+            callbackRegistry.preCreate(entity);
+        }
+        return super.saveWithRequestedId(entity, requestedId, entityName, anything, source);
+    }
+
+    @Override
+    protected Serializable saveWithGeneratedId(Object entity, String entityName, Object anything,
+            EventSource source, boolean requiresImmediateIdAccess) {
+        if (callbackRegistry != null) {
+            callbackRegistry.preCreate(entity);
+        }
+        return super.saveWithGeneratedId(entity, entityName, anything, source, requiresImmediateIdAccess);
+    }
+
+    @Override
+    protected EntityState getEntityState(Object entity, String entityName, EntityEntry entry,
+            SessionImplementor source) {
+        if (entry == null) {
+            // Hibernate would read the row of an assigned identifier to tell a new instance apart
+            EntityPersister persister = source.getEntityPersister(entityName, entity);
+            if (blindEntities.contains(persister.getEntityName())
+                    && persister.getIdentifier(entity, source) != null) {
+                return EntityState.DETACHED;
+            }
+        }
+        return super.getEntityState(entity, entityName, entry, source);
+    }
+
+    @Override
+    @SuppressWarnings("rawtypes")
+    protected void entityIsDetached(MergeEvent event, Map copyCache) {
+        EventSource source = event.getSession();
+        EntityPersister persister = source.getEntityPersister(event.getEntityName(), event.getEntity());
+        if (!blindEntities.contains(persister.getEntityName())) {
+            super.entityIsDetached(event, copyCache);
+            return;
+        }
+
+        Serializable id = event.getRequestedId();
+        if (id == null) {
+            id = persister.getIdentifier(event.getEntity(), source);
+        }
+        if (id == null || source.getPersistenceContext().getEntity(source.generateEntityKey(id, persister)) != null) {
+            // Nothing to skip, the managed instance is merged without a read
+            super.entityIsDetached(event, copyCache);
+            return;
+        }
+
+        // Save it with its own identifier, so it is not generated again
+        event.setRequestedId(id);
+        entityIsTransient(event, copyCache);
+    }
+}
@@ -0,0 +1,237 @@
+package com.timebusker.phoenix.dialect;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.phoenix.jdbc.PhoenixConnection;
+import org.apache.phoenix.schema.PIndexState;
+import org.apache.phoenix.schema.PTable;
+import org.apache.phoenix.util.PhoenixRuntime;
+import org.apache.phoenix.util.SchemaUtil;
+import org.hibernate.HibernateException;
+import org.hibernate.action.internal.BulkOperationCleanupAction;
+import org.hibernate.engine.jdbc.spi.JdbcCoordinator;
+import org.hibernate.engine.query.spi.EntityGraphQueryHint;
+import org.hibernate.engine.spi.QueryParameters;
+import org.hibernate.engine.spi.RowSelection;
+import org.hibernate.engine.spi.SessionFactoryImplementor;
+import org.hibernate.engine.spi.SharedSessionContractImplementor;
+import org.hibernate.event.spi.EventSource;
+import org.hibernate.hql.internal.antlr.HqlSqlTokenTypes;
+import org.hibernate.hql.internal.ast.ASTQueryTranslatorFactory;
+import org.hibernate.hql.internal.ast.QuerySyntaxException;
+import org.hibernate.hql.internal.ast.QueryTranslatorImpl;
+import org.hibernate.hql.internal.ast.SqlGenerator;
+import org.hibernate.hql.internal.ast.tree.DeleteStatement;
+import org.hibernate.hql.spi.QueryTranslator;
+import org.hibernate.param.ParameterSpecification;
+import org.hibernate.persister.collection.CollectionPersister;
+import org.hibernate.persister.entity.Queryable;
+import org.hibernate.type.CollectionType;
+import org.hibernate.type.Type;
+
+import antlr.RecognitionException;
+import antlr.collections.AST;
+
+/**
+ * Runs the bulk HQL statements in auto-commit mode, so Phoenix executes their
+ * {@code UPSERT ... SELECT} and {@code DELETE} on the region servers instead of reading every
+ * row into the client and writing it back. As with any auto-committed Phoenix statement, the
+ * mutations buffered by the transaction so far are committed with it. The deletes of indexed
+ * tables, which Phoenix runs in the client anyway, are committed right after they run instead.
+ * <p>
+ * Bulk deletes of single table entities can be split in chunks of a bounded number of rows, each
+ * one a {@code DELETE ... LIMIT} committed on its own, so very large deletes do not exceed the
+ * mutation size limits or the RPC timeouts. A delete failing after some chunks does not restore
+ * the rows deleted by them. Entities owning collection tables are deleted in a single pass, as
+ * Hibernate deletes the rows of those tables first, selecting them by the rows of the entity.
+ */
+public class PhoenixQueryTranslatorFactory extends ASTQueryTranslatorFactory {
+
+    private volatile int deleteChunkRows;
+    private volatile BulkDeleteListener deleteListener;
+
+    /**
+     * @param rows the rows to delete at most per chunk, or 0 to delete in a single statement
+     * @param listener notified of every chunk deleted, may be null
+     */
+    void setDeleteChunking(int rows, BulkDeleteListener listener) {
+        this.deleteChunkRows = rows;
+        this.deleteListener = listener;
+    }
+
+    @Override
+    @SuppressWarnings("rawtypes")
+    public QueryTranslator createQueryTranslator(String queryIdentifier, String queryString, Map filters,
+            SessionFactoryImplementor factory, EntityGraphQueryHint entityGraphQueryHint) {
+        return new PhoenixQueryTranslator(queryIdentifier, queryString, filters, factory, entityGraphQueryHint);
+    }
+
+    // The delete of the rows of the entity, without the ones of its other tables
+    private static final class ChunkStatement {
+        final String sql;
+        final List<ParameterSpecification> parameters;
+
+        ChunkStatement(String sql, List<ParameterSpecification> parameters) {
+            this.sql = sql;
+            this.parameters = parameters;
+        }
+    }
+
+    class PhoenixQueryTranslator extends QueryTranslatorImpl {
+
+        private final SessionFactoryImplementor factory;
+        private volatile ChunkStatement chunkStatement;
+
+        @SuppressWarnings("rawtypes")
+        PhoenixQueryTranslator(String queryIdentifier, String query, Map enabledFilters,
+                SessionFactoryImplementor factory, EntityGraphQueryHint entityGraphQueryHint) {
+            super(queryIdentifier, query, enabledFilters, factory, entityGraphQueryHint);
+            this.factory = factory;
+        }
+
+        @Override
+        public int executeUpdate(QueryParameters queryParameters, SharedSessionContractImplementor session)
+                throws HibernateException {
+            Connection connection = session.getJdbcCoordinator().getLogicalConnection().getPhysicalConnection();
+            try {
+                // Phoenix deletes the rows of indexed tables in the client anyway, and in auto-commit
+                // mode it fails once such a delete reaches the mutate batch size, so those deletes
+                // are committed explicitly instead
+                int indexes = countDeletedIndexes(connection);
+                boolean autoCommit = indexes == 0;
+                boolean wasAutoCommit = connection.getAutoCommit();
+                if (autoCommit != wasAutoCommit) {
+                    connection.setAutoCommit(autoCommit);
+                }
+                try {
+                    return execute(queryParameters, session, indexes);
+                } finally {
+                    if (autoCommit != wasAutoCommit) {
+                        connection.setAutoCommit(wasAutoCommit);
+                    }
+                }
+            } catch (SQLException e) {
+                throw session.getJdbcServices().getSqlExceptionHelper().convert(e, "could not commit the bulk statement");
+            }
+        }
+
+        // The indexes whose rows a delete removes along with the rows of its table
+        private int countDeletedIndexes(Connection connection) throws SQLException {
+            if (getSqlAST().getStatementType() != HqlSqlTokenTypes.DELETE) {
+                return 0;
+            }
+            Queryable persister = ((DeleteStatement) getSqlAST()).getFromClause().getFromElement().getQueryable();
+            PTable table = PhoenixRuntime.getTable(connection.unwrap(PhoenixConnection.class),
+                    SchemaUtil.normalizeFullTableName(persister.getTableName()));
+            int indexes = 0;
+            for (PTable index : table.getIndexes()) {
+                if (index.getIndexState() != PIndexState.DISABLE) {
+                    indexes++;
+                }
+            }
+            return indexes;
+        }
+
+        private int execute(QueryParameters queryParameters, SharedSessionContractImplementor session,
+                int indexes) throws SQLException {
+            int chunkRows = deleteChunkRows;
+            if (chunkRows <= 0 || getSqlAST().getStatementType() != HqlSqlTokenTypes.DELETE) {
+                return commit(super.executeUpdate(queryParameters, session), indexes, session);
+            }
+            // The rows of multi-table entities are deleted through several statements, and so
+            // are the rows of the collection tables of an entity
+            Queryable persister = ((DeleteStatement) getSqlAST()).getFromClause().getFromElement().getQueryable();
+            if (persister.isMultiTable() || ownsCollectionTables(persister)) {
+                return commit(super.executeUpdate(queryParameters, session), indexes, session);
+            }
+
+            BulkOperationCleanupAction cleanup = new BulkOperationCleanupAction(session, persister);
+            if (session.isEventSource()) {
+                ((EventSource) session).getActionQueue().addAction(cleanup);
+            } else {
+                cleanup.getAfterTransactionCompletionProcess().doAfterTransactionCompletion(true, session);
+            }
+
+            ChunkStatement statement = getChunkStatement();
+            String sql = statement.sql + " limit " + chunkRows;
+            BulkDeleteListener listener = deleteListener;
+            long total = 0;
+            int deleted;
+            do {
+                deleted = commit(deleteChunk(sql, statement.parameters, queryParameters, session), indexes, session);
+                total += deleted;
+                if (listener != null && deleted > 0) {
+                    listener.chunkDeleted(persister.getEntityName(), deleted, total);
+                }
+            } while (deleted >= chunkRows);
+            return (int) Math.min(total, Integer.MAX_VALUE);
+        }
+
+        // Commits the deletes of indexed tables, which Phoenix counts with their index rows
+        private int commit(int rows, int indexes, SharedSessionContractImplementor session) throws SQLException {
+            if (indexes == 0) {
+                return rows;
+            }
+            session.getJdbcCoordinator().getLogicalConnection().getPhysicalConnection().commit();
+            return rows / (indexes + 1);
+        }
+
+        private boolean ownsCollectionTables(Queryable persister) {
+            for (Type type : persister.getPropertyTypes()) {
+                if (type.isCollectionType()) {
+                    CollectionPersister collection = factory.getMetamodel()
+                            .collectionPersister(((CollectionType) type).getRole());
+                    if (!collection.isInverse() && !collection.isOneToMany()) {
+                        return true;
+                    }
+                }
+            }
+            return false;
+        }
+
+        private ChunkStatement getChunkStatement() {
+            ChunkStatement statement = chunkStatement;
+            if (statement == null) {
+                // As the bulk delete executor of Hibernate renders it
+                SqlGenerator generator = new SqlGenerator(factory);
+                try {
+                    generator.statement((AST) getSqlAST());
+                } catch (RecognitionException e) {
+                    throw QuerySyntaxException.convert(e);
+                }
+                generator.getParseErrorHandler().throwQueryException();
+                statement = new ChunkStatement(generator.getSQL(), generator.getCollectedParameters());
+                chunkStatement = statement;
+            }
+            return statement;
+        }
+
+        private int deleteChunk(String sql, List<ParameterSpecification> parameters,
+                QueryParameters queryParameters, SharedSessionContractImplementor session) {
+            JdbcCoordinator jdbc = session.getJdbcCoordinator();
+            try {
+                PreparedStatement statement = jdbc.getStatementPreparer().prepareStatement(sql, false);
+                try {
+                    int position = 1;
+                    for (ParameterSpecification parameter : parameters) {
+                        position += parameter.bind(statement, queryParameters, session, position);
+                    }
+                    RowSelection selection = queryParameters.getRowSelection();
+                    if (selection != null && selection.getTimeout() != null) {
+                        statement.setQueryTimeout(selection.getTimeout());
+                    }
+                    return jdbc.getResultSetReturn().executeUpdate(statement);
+                } finally {
+                    jdbc.getResourceRegistry().release(statement);
+                    jdbc.afterStatementExecution();
+                }
+            } catch (SQLException e) {
+                throw session.getJdbcServices().getSqlExceptionHelper().convert(e, "could not delete a chunk", sql);
+            }
+        }
+    }
+}
@@ -0,0 +1,90 @@
+package com.timebusker.phoenix.dialect;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.Statement;
+
+import org.hibernate.resource.transaction.spi.DdlTransactionIsolator;
+import org.hibernate.tool.schema.internal.HibernateSchemaManagementTool;
+import org.hibernate.tool.schema.internal.exec.JdbcContext;
+
+/**
+ * Runs the {@code TRUNCATE [TABLE] name} statements of the schema scripts, like the
+ * {@code hibernate.hbm2ddl.import_files}, with {@link PhoenixTruncate}. Phoenix has no such
+ * statement.
+ */
+public class PhoenixSchemaManagementTool extends HibernateSchemaManagementTool {
+
+    @Override
+    public DdlTransactionIsolator getDdlTransactionIsolator(JdbcContext jdbcContext) {
+        DdlTransactionIsolator isolator = super.getDdlTransactionIsolator(jdbcContext);
+        return new DdlTransactionIsolator() {
+            private Connection isolated;
+            private Connection connection;
+
+            @Override
+            public JdbcContext getJdbcContext() {
+                return isolator.getJdbcContext();
+            }
+
+            @Override
+            public void prepare() {
+                isolator.prepare();
+            }
+
+            @Override
+            public Connection getIsolatedConnection() {
+                Connection target = isolator.getIsolatedConnection();
+                if (target != isolated) {
+                    isolated = target;
+                    connection = proxy(Connection.class, (method, args) -> {
+                        Object result = invoke(target, method, args);
+                        return method.getName().equals("createStatement")
+                                ? truncating((Statement) result, target) : result;
+                    });
+                }
+                return connection;
+            }
+
+            @Override
+            public void release() {
+                isolator.release();
+            }
+        };
+    }
+
+    // Runs the truncates executed through the statement instead of sending them to Phoenix
+    private static Statement truncating(Statement statement, Connection connection) {
+        return proxy(Statement.class, (method, args) -> {
+            String name = method.getName();
+            if ((name.equals("execute") || name.equals("executeUpdate")) && args != null && args.length == 1
+                    && args[0] instanceof String) {
+                String tableName = PhoenixTruncate.getTruncatedTable((String) args[0]);
+                if (tableName != null) {
+                    PhoenixTruncate.truncate(connection, tableName);
+                    return name.equals("execute") ? (Object) false : (Object) 0;
+                }
+            }
+            return invoke(statement, method, args);
+        });
+    }
+
+    private interface Handler {
+        Object invoke(Method method, Object[] args) throws Throwable;
+    }
+
+    private static <T> T proxy(Class<T> type, Handler handler) {
+        return type.cast(Proxy.newProxyInstance(PhoenixSchemaManagementTool.class.getClassLoader(),
+                new Class<?>[] {type}, (proxy, method, args) -> handler.invoke(method, args)));
+    }
+
+    private static Object invoke(Object target, Method method, Object[] args) throws Throwable {
+        try {
+            return method.invoke(target, args);
+        } catch (InvocationTargetException e) {
+            throw e.getCause();
+        }
+    }
+}
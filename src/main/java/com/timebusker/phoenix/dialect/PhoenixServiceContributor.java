@@ -0,0 +1,180 @@
+package com.timebusker.phoenix.dialect;
+
+import java.util.Map;
+
+import org.apache.phoenix.query.HBaseFactoryProvider;
+import org.apache.phoenix.query.QueryServices;
+import org.apache.phoenix.query.QueryServicesOptions;
+import org.hibernate.HibernateException;
+import org.hibernate.boot.registry.StandardServiceInitiator;
+import org.hibernate.boot.registry.StandardServiceRegistryBuilder;
+import org.hibernate.boot.registry.classloading.spi.ClassLoaderService;
+import org.hibernate.boot.registry.classloading.spi.ClassLoadingException;
+import org.hibernate.cfg.AvailableSettings;
+import org.hibernate.dialect.Dialect;
+import org.hibernate.engine.jdbc.batch.internal.BatchBuilderInitiator;
+import org.hibernate.engine.jdbc.batch.spi.BatchBuilder;
+import org.hibernate.engine.jdbc.env.spi.JdbcEnvironment;
+import org.hibernate.hql.internal.QueryTranslatorFactoryInitiator;
+import org.hibernate.hql.spi.QueryTranslatorFactory;
+import org.hibernate.internal.util.config.ConfigurationHelper;
+import org.hibernate.resource.jdbc.spi.StatementInspector;
+import org.hibernate.service.spi.ServiceContributor;
+import org.hibernate.service.spi.ServiceRegistryImplementor;
+import org.hibernate.tool.schema.internal.SchemaManagementToolInitiator;
+import org.hibernate.tool.schema.spi.SchemaManagementTool;
+
+import com.timebusker.phoenix.dialect.write.PhoenixBatchBuilder;
+
+/**
+ * Replaces the services of the registries using the {@link PhoenixDialect} that cannot be set
+ * through the dialect properties, because they are built before the session factory settings,
+ * and defaults the settings that depend on the Phoenix client configuration.
+ */
+public class PhoenixServiceContributor implements ServiceContributor {
+
+    @Override
+    public void contribute(StandardServiceRegistryBuilder serviceRegistryBuilder) {
+        Map<?, ?> settings = serviceRegistryBuilder.getSettings();
+        boolean phoenix = isPhoenix(serviceRegistryBuilder, settings.get(AvailableSettings.DIALECT));
+        if (phoenix && settings.get(AvailableSettings.STATEMENT_INSPECTOR) != null) {
+            // Overrides the inspector of the dialect properties, so run it from the Phoenix one
+            StatementInspector inspector = wrapStatementInspector(serviceRegistryBuilder,
+                    settings.get(AvailableSettings.STATEMENT_INSPECTOR));
+            if (inspector != null) {
+                serviceRegistryBuilder.applySetting(AvailableSettings.STATEMENT_INSPECTOR, inspector);
+            }
+        }
+        if (phoenix && ConfigurationHelper.getBoolean(PhoenixDialect.FLUSH_BATCHING, settings, true)) {
+            // Phoenix keeps the mutations of a transaction on the client until commit, and then sends
+            // them in batches of phoenix.mutate.batchSize rows. Batch as many statements, grouped by table.
+            if (!settings.containsKey(AvailableSettings.STATEMENT_BATCH_SIZE)) {
+                serviceRegistryBuilder.applySetting(AvailableSettings.STATEMENT_BATCH_SIZE,
+                        String.valueOf(getMutateBatchSize(settings)));
+            }
+            if (!settings.containsKey(AvailableSettings.ORDER_INSERTS)) {
+                serviceRegistryBuilder.applySetting(AvailableSettings.ORDER_INSERTS, "true");
+            }
+            if (!settings.containsKey(AvailableSettings.ORDER_UPDATES)) {
+                serviceRegistryBuilder.applySetting(AvailableSettings.ORDER_UPDATES, "true");
+            }
+        }
+        serviceRegistryBuilder.addInitiator(new BatchBuilderInitiatorImpl());
+        serviceRegistryBuilder.addInitiator(new SchemaManagementToolInitiatorImpl());
+        serviceRegistryBuilder.addInitiator(new QueryTranslatorFactoryInitiatorImpl());
+    }
+
+    private static boolean isPhoenix(StandardServiceRegistryBuilder serviceRegistryBuilder, Object dialect) {
+        if (dialect instanceof Dialect) {
+            return dialect instanceof PhoenixDialect;
+        }
+        if (dialect instanceof Class) {
+            return PhoenixDialect.class.isAssignableFrom((Class<?>) dialect);
+        }
+        if (dialect == null) {
+            return false;
+        }
+        try {
+            return PhoenixDialect.class.isAssignableFrom(serviceRegistryBuilder.getBootstrapServiceRegistry()
+                    .getService(ClassLoaderService.class).classForName(dialect.toString().trim()));
+        } catch (ClassLoadingException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Returns a {@link PhoenixStatementInspector} running the configured inspector, or null if the
+     * configured one is already a Phoenix inspector.
+     */
+    private static StatementInspector wrapStatementInspector(StandardServiceRegistryBuilder serviceRegistryBuilder,
+            Object setting) {
+        if (setting instanceof PhoenixStatementInspector) {
+            return null;
+        }
+        if (setting instanceof StatementInspector) {
+            return new PhoenixStatementInspector((StatementInspector) setting);
+        }
+        Class<?> type = setting instanceof Class ? (Class<?>) setting : serviceRegistryBuilder
+                .getBootstrapServiceRegistry().getService(ClassLoaderService.class).classForName(setting.toString().trim());
+        if (PhoenixStatementInspector.class.isAssignableFrom(type)) {
+            return null;
+        }
+        try {
+            return new PhoenixStatementInspector((StatementInspector) type.newInstance());
+        } catch (ReflectiveOperationException | ClassCastException e) {
+            throw new HibernateException("Could not instantiate the statement inspector " + type.getName(), e);
+        }
+    }
+
+    /**
+     * Returns the {@code phoenix.mutate.batchSize} of the Phoenix connections: the one given as a
+     * connection property, or else the one of the client configuration.
+     */
+    static int getMutateBatchSize(Map<?, ?> settings) {
+        Object batchSize = settings.get(AvailableSettings.CONNECTION_PREFIX + "." + QueryServices.MUTATE_BATCH_SIZE_ATTRIB);
+        if (batchSize != null) {
+            return Integer.parseInt(batchSize.toString().trim());
+        }
+        return HBaseFactoryProvider.getConfigurationFactory().getConfiguration()
+                .getInt(QueryServices.MUTATE_BATCH_SIZE_ATTRIB, QueryServicesOptions.DEFAULT_MUTATE_BATCH_SIZE);
+    }
+
+    private static boolean isPhoenix(ServiceRegistryImplementor registry) {
+        return registry.getService(JdbcEnvironment.class).getDialect() instanceof PhoenixDialect;
+    }
+
+    static class BatchBuilderInitiatorImpl implements StandardServiceInitiator<BatchBuilder> {
+
+        @Override
+        public Class<BatchBuilder> getServiceInitiated() {
+            return BatchBuilder.class;
+        }
+
+        @Override
+        @SuppressWarnings("rawtypes")
+        public BatchBuilder initiateService(Map configurationValues, ServiceRegistryImplementor registry) {
+            // An explicitly configured batch builder always wins
+            if (configurationValues.get(BatchBuilderInitiator.BUILDER) != null
+                    || !ConfigurationHelper.getBoolean(PhoenixDialect.DELETE_COALESCE, configurationValues, true)
+                    || !isPhoenix(registry)) {
+                return BatchBuilderInitiator.INSTANCE.initiateService(configurationValues, registry);
+            }
+            return new PhoenixBatchBuilder(
+                    ConfigurationHelper.getInt(AvailableSettings.STATEMENT_BATCH_SIZE, configurationValues, 1));
+        }
+    }
+
+    static class SchemaManagementToolInitiatorImpl implements StandardServiceInitiator<SchemaManagementTool> {
+
+        @Override
+        public Class<SchemaManagementTool> getServiceInitiated() {
+            return SchemaManagementTool.class;
+        }
+
+        @Override
+        @SuppressWarnings("rawtypes")
+        public SchemaManagementTool initiateService(Map configurationValues, ServiceRegistryImplementor registry) {
+            if (configurationValues.get(AvailableSettings.SCHEMA_MANAGEMENT_TOOL) != null || !isPhoenix(registry)) {
+                return SchemaManagementToolInitiator.INSTANCE.initiateService(configurationValues, registry);
+            }
+            return new PhoenixSchemaManagementTool();
+        }
+    }
+
+    static class QueryTranslatorFactoryInitiatorImpl implements StandardServiceInitiator<QueryTranslatorFactory> {
+
+        @Override
+        public Class<QueryTranslatorFactory> getServiceInitiated() {
+            return QueryTranslatorFactory.class;
+        }
+
+        @Override
+        @SuppressWarnings("rawtypes")
+        public QueryTranslatorFactory initiateService(Map configurationValues, ServiceRegistryImplementor registry) {
+            if (configurationValues.get(AvailableSettings.QUERY_TRANSLATOR) != null || !isPhoenix(registry)) {
+                return QueryTranslatorFactoryInitiator.INSTANCE.initiateService(configurationValues, registry);
+            }
+            return new PhoenixQueryTranslatorFactory();
+        }
+    }
+}
@@ -0,0 +1,141 @@
+package com.timebusker.phoenix.dialect;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.hibernate.resource.jdbc.spi.StatementInspector;
+
+import com.timebusker.phoenix.dialect.SqlLexer.Token;
+
+/**
+ * Rewrites the statements Hibernate sends without going through its statement builders, like
+ * the ones of bulk HQL queries, into their Phoenix equivalents:
+ * <ul>
+ *     <li>{@code insert into T (...) select ...} becomes {@code upsert into T (...) select ...}</li>
+ *     <li>{@code update T set c=e where ...} becomes
+ *         {@code upsert into T (pk,c) select pk,e from T where ...}</li>
+ * </ul>
+ * Updates of tables the dialect does not know the primary key of, or that set a primary key
+ * column, are left as they are. Every other statement is returned unchanged.
+ * <p>
+ * Every statement prepared by the sessions is inspected, not only the HQL ones: native
+ * {@code INSERT} and {@code UPDATE} queries are rewritten as well. The dialect installs this
+ * inspector as {@code hibernate.session_factory.statement_inspector}; a statement inspector
+ * configured by the application is wrapped instead, and runs first, so the statements it returns
+ * are rewritten too.
+ */
+public class PhoenixStatementInspector implements StatementInspector {
+
+    private static final long serialVersionUID = 1L;
+
+    private final StatementCache<String, String> updates = new StatementCache<>(
+            Integer.getInteger(PhoenixDialect.REWRITE_CACHE_SIZE, PhoenixDialect.DEFAULT_REWRITE_CACHE_SIZE));
+
+    private final StatementInspector delegate;
+
+    private volatile Map<String, String[]> keyColumns = Collections.emptyMap();
+
+    public PhoenixStatementInspector() {
+        this(null);
+    }
+
+    /**
+     * @param delegate the inspector of the application to run before the rewrites, or null
+     */
+    public PhoenixStatementInspector(StatementInspector delegate) {
+        this.delegate = delegate;
+    }
+
+    /**
+     * Sets the primary key columns of each table, by table name as rendered in the statements.
+     */
+    void setKeyColumns(Map<String, String[]> keyColumns) {
+        this.keyColumns = keyColumns;
+        updates.clear();
+    }
+
+    @Override
+    public String inspect(String sql) {
+        if (delegate != null) {
+            String inspected = delegate.inspect(sql);
+            if (inspected != null) {
+                sql = inspected;
+            }
+        }
+        SqlLexer lexer = new SqlLexer(sql);
+        if (lexer.nextSignificant() != Token.WORD) {
+            return sql;
+        }
+        if (lexer.is("insert")) {
+            return QueryUtils.replaceLeadingKeyword(sql, "insert", "upsert");
+        }
+        if (!lexer.is("update")) {
+            return sql;
+        }
+        String upsert = updates.get(sql);
+        if (upsert == null) {
+            upsert = rewriteUpdate(sql, lexer);
+            updates.put(sql, upsert);
+        }
+        return upsert;
+    }
+
+    private String rewriteUpdate(String sql, SqlLexer lexer) {
+        String prefix = sql.substring(0, lexer.start());
+
+        // Table name, up to the SET keyword
+        int from = lexer.end();
+        Token token;
+        while ((token = lexer.next()) != Token.EOF && !(lexer.depth() == 0 && lexer.is("set"))) {
+        }
+        if (token == Token.EOF) {
+            return sql;
+        }
+        String tableName = sql.substring(from, lexer.start()).trim();
+        String[] keys = keyColumns.get(tableName);
+        if (keys == null) {
+            return sql;
+        }
+
+        // Assignments, separated by commas, up to the WHERE keyword
+        Map<String, String> assignments = new LinkedHashMap<>();
+        String where = null;
+        from = lexer.end();
+        while (true) {
+            token = lexer.next();
+            boolean isWhere = token != Token.EOF && lexer.depth() == 0 && lexer.is("where");
+            if (token == Token.EOF || isWhere || (lexer.depth() == 0 && lexer.is(','))) {
+                String assignment = sql.substring(from, lexer.start()).trim();
+                int eq = assignment.indexOf('=');
+                if (eq <= 0) {
+                    return sql;
+                }
+                String column = assignment.substring(0, eq).trim();
+                if (contains(keys, column)) {
+                    // Phoenix cannot change the primary key of a row
+                    return sql;
+                }
+                assignments.put(column, assignment.substring(eq + 1).trim());
+                from = lexer.end();
+                if (isWhere) {
+                    where = sql.substring(from).trim();
+                    break;
+                }
+                if (token == Token.EOF) {
+                    break;
+                }
+            }
+        }
+        return UpsertStatementBuilder.buildUpsertSelect(prefix, tableName, keys, assignments, where);
+    }
+
+    private static boolean contains(String[] names, String name) {
+        for (String n : names) {
+            if (n.equalsIgnoreCase(name)) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
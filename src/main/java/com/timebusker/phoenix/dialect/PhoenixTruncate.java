@@ -0,0 +1,128 @@
+package com.timebusker.phoenix.dialect;
+
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.persistence.EntityManager;
+
+import org.apache.hadoop.hbase.TableName;
+import org.apache.hadoop.hbase.client.Admin;
+import org.apache.phoenix.jdbc.PhoenixConnection;
+import org.apache.phoenix.query.ConnectionQueryServices;
+import org.apache.phoenix.schema.PTable;
+import org.apache.phoenix.schema.PTable.IndexType;
+import org.apache.phoenix.schema.PTableType;
+import org.apache.phoenix.util.MetaDataUtil;
+import org.apache.phoenix.util.PhoenixRuntime;
+import org.apache.phoenix.util.SchemaUtil;
+import org.hibernate.MappingException;
+import org.hibernate.engine.spi.SessionImplementor;
+import org.hibernate.persister.entity.AbstractEntityPersister;
+import org.hibernate.persister.entity.EntityPersister;
+
+import com.timebusker.phoenix.dialect.SqlLexer.Token;
+
+/**
+ * Empties Phoenix tables in constant time by truncating their HBase tables, instead of a
+ * {@code DELETE FROM} that scans every row and writes a delete marker for each one:
+ * <pre>
+ *     PhoenixTruncate.truncate(em, Employee.class);
+ * </pre>
+ * The region splits of the tables and their Phoenix metadata are kept. The global indexes of a
+ * table and the indexes of its views are truncated with it, while local indexes are stored in
+ * the table itself. The same is done for the {@code TRUNCATE [TABLE] name} statements of the
+ * {@code hibernate.hbm2ddl.import_files} scripts.
+ * <p>
+ * A truncate is not part of any transaction: it takes effect at once, and the mutations not yet
+ * committed are still written on commit. Managed instances of the entities are not detached.
+ */
+public final class PhoenixTruncate {
+
+    private PhoenixTruncate() {
+    }
+
+    /**
+     * Truncates the tables of an entity, and evicts it from the second-level cache. The tables
+     * are truncated as a whole, so the rows of the other entities mapped to them are deleted too.
+     */
+    public static void truncate(EntityManager em, Class<?> entityClass) {
+        SessionImplementor session = em.unwrap(SessionImplementor.class);
+        EntityPersister persister = session.getFactory().getMetamodel().entityPersister(entityClass);
+        if (!(persister instanceof AbstractEntityPersister)) {
+            throw new MappingException("Cannot truncate the tables of " + persister.getEntityName());
+        }
+        Connection connection = session.getJdbcCoordinator().getLogicalConnection().getPhysicalConnection();
+        for (String tableName : ((AbstractEntityPersister) persister).getConstraintOrderedTableNameClosure()) {
+            try {
+                truncate(connection, tableName);
+            } catch (SQLException e) {
+                throw session.getJdbcServices().getSqlExceptionHelper().convert(e,
+                        "could not truncate " + tableName);
+            }
+        }
+        session.getFactory().getCache().evictEntityRegion(entityClass);
+    }
+
+    /**
+     * Truncates a Phoenix table and its indexes.
+     */
+    public static void truncate(Connection connection, String tableName) throws SQLException {
+        PhoenixConnection phoenix = connection.unwrap(PhoenixConnection.class);
+        PTable table = PhoenixRuntime.getTable(phoenix, SchemaUtil.normalizeFullTableName(tableName));
+        if (table.getType() != PTableType.TABLE) {
+            throw new SQLException("Cannot truncate " + tableName + ", it is a " + table.getType());
+        }
+        List<byte[]> physicalNames = new ArrayList<>();
+        physicalNames.add(table.getPhysicalName().getBytes());
+        for (PTable index : table.getIndexes()) {
+            if (index.getIndexType() != IndexType.LOCAL) {
+                physicalNames.add(index.getPhysicalName().getBytes());
+            }
+        }
+        physicalNames.add(MetaDataUtil.getViewIndexPhysicalName(table.getPhysicalName().getBytes()));
+
+        ConnectionQueryServices services = phoenix.getQueryServices();
+        try (Admin admin = services.getAdmin()) {
+            for (byte[] physicalName : physicalNames) {
+                TableName name = TableName.valueOf(physicalName);
+                if (!admin.tableExists(name)) {
+                    continue;
+                }
+                if (admin.isTableEnabled(name)) {
+                    admin.disableTable(name);
+                }
+                // Enables the table again with the same split points
+                admin.truncateTable(name, true);
+            }
+        } catch (IOException e) {
+            throw new SQLException("Could not truncate " + tableName, e);
+        }
+        for (byte[] physicalName : physicalNames) {
+            services.clearTableRegionCache(physicalName);
+        }
+    }
+
+    /**
+     * Returns the table of a {@code TRUNCATE [TABLE] name} statement, or null for any other
+     * statement.
+     */
+    static String getTruncatedTable(String sql) {
+        SqlLexer lexer = new SqlLexer(sql);
+        if (lexer.nextSignificant() != Token.WORD || !lexer.is("truncate")) {
+            return null;
+        }
+        int from = lexer.end();
+        Token token = lexer.nextSignificant();
+        if (token == Token.WORD && lexer.is("table")) {
+            from = lexer.end();
+        }
+        String name = sql.substring(from).trim();
+        if (name.endsWith(";")) {
+            name = name.substring(0, name.length() - 1).trim();
+        }
+        return name.isEmpty() ? null : name;
+    }
+}
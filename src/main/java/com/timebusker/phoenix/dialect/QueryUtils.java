@@ -1,16 +1,135 @@
 package com.timebusker.phoenix.dialect;
 
-import java.util.regex.Pattern;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+import com.timebusker.phoenix.dialect.SqlLexer.Token;
 
 /**
  *
  */
 public final class QueryUtils {
-    // TODO Ignore hints
-    private static final Pattern MULTILINE_COMMENT = Pattern.compile("/\\*.*?\\*/", Pattern.DOTALL);
-    private static final Pattern SINGLE_LINE_COMMENT = Pattern.compile("-- (.*)?$", Pattern.MULTILINE);
+
+    private QueryUtils() {
+    }
 
     public static final String removeQueryComments(String query) {
-        return SINGLE_LINE_COMMENT.matcher(MULTILINE_COMMENT.matcher(query).replaceAll("")).replaceAll("");
+        StringBuilder sb = null;
+        int copied = 0;
+        SqlLexer lexer = new SqlLexer(query);
+        for (Token token = lexer.next(); token != Token.EOF; token = lexer.next()) {
+            if (token == Token.COMMENT || token == Token.HINT) {
+                if (sb == null) {
+                    sb = new StringBuilder(query.length());
+                }
+                sb.append(query, copied, lexer.start());
+                copied = lexer.end();
+            }
+        }
+        if (sb == null) {
+            return query;
+        }
+        return sb.append(query, copied, query.length()).toString();
+    }
+
+    /**
+     * Strips the comments of a query and merges the given hints with the optimizer hints already
+     * in the query into a single {@code /*+ ... *}{@code /} block right after its outermost SELECT,
+     * without duplicates. Hints of subqueries are left where they are. The hints may be given with
+     * or without the {@code /*+ *}{@code /} delimiters. A query without a top level SELECT is
+     * returned unchanged, comments and hints included.
+     */
+    public static String addQueryHints(String query, List<String> hints) {
+        Map<String, String> merged = new LinkedHashMap<>();
+        StringBuilder sb = new StringBuilder(query.length() + 32);
+        int hintAt = -1;
+        int copied = 0;
+        boolean stripped = false;
+        SqlLexer lexer = new SqlLexer(query);
+        for (Token token = lexer.next(); token != Token.EOF; token = lexer.next()) {
+            if (token == Token.COMMENT || (token == Token.HINT && lexer.depth() == 0)) {
+                if (token == Token.HINT) {
+                    splitHints(query, lexer.start() + 3, lexer.end() - 2, merged);
+                }
+                sb.append(query, copied, lexer.start());
+                copied = lexer.end();
+                stripped = true;
+                continue;
+            }
+            if (stripped && token == Token.WHITESPACE
+                    && (sb.length() == 0 || Character.isWhitespace(sb.charAt(sb.length() - 1)))) {
+                // Do not leave a double space where a comment was stripped
+                copied = lexer.end();
+            } else if (hintAt == -1 && lexer.depth() == 0 && lexer.is("select")) {
+                sb.append(query, copied, lexer.end());
+                copied = lexer.end();
+                hintAt = sb.length();
+            }
+            stripped = false;
+        }
+        sb.append(query, copied, query.length());
+        if (hintAt == -1) {
+            return query;
+        }
+
+        for (String hint : hints) {
+            String h = hint.trim();
+            if (h.startsWith("/*+") && h.endsWith("*/")) {
+                splitHints(h, 3, h.length() - 2, merged);
+            } else {
+                splitHints(h, 0, h.length(), merged);
+            }
+        }
+        if (!merged.isEmpty()) {
+            StringBuilder block = new StringBuilder(" /*+");
+            for (String hint : merged.values()) {
+                block.append(' ').append(hint);
+            }
+            sb.insert(hintAt, block.append(" */"));
+        }
+        return sb.toString().trim();
+    }
+
+    // Hints are separated by whitespace or commas outside of their parentheses. Like Phoenix,
+    // duplicates are detected ignoring case.
+    private static void splitHints(String text, int from, int to, Map<String, String> hints) {
+        SqlLexer lexer = new SqlLexer(text.substring(from, to));
+        StringBuilder hint = new StringBuilder();
+        for (Token token = lexer.next(); ; token = lexer.next()) {
+            boolean separator = token == Token.EOF
+                    || (lexer.depth() == 0 && (token == Token.WHITESPACE || lexer.is(',')));
+            if (separator) {
+                if (hint.length() > 0) {
+                    String h = hint.toString();
+                    hints.putIfAbsent(h.toUpperCase(Locale.ROOT), h);
+                    hint.setLength(0);
+                }
+                if (token == Token.EOF) {
+                    return;
+                }
+            } else if (token == Token.WHITESPACE) {
+                hint.append(' ');
+            } else {
+                hint.append(lexer.text());
+            }
+        }
+    }
+
+    /**
+     * Replaces the leading keyword of a statement, skipping any comment before it. The statement
+     * is returned as is if it does not start with that keyword.
+     */
+    public static String replaceLeadingKeyword(String sql, String keyword, String replacement) {
+        SqlLexer lexer = new SqlLexer(sql);
+        if (lexer.nextSignificant() != Token.WORD || !lexer.is(keyword)) {
+            return sql;
+        }
+        return new StringBuilder(sql.length() - keyword.length() + replacement.length())
+                .append(sql, 0, lexer.start())
+                .append(replacement)
+                .append(sql, lexer.end(), sql.length())
+                .toString();
     }
-}
\ No newline at end of file
+}
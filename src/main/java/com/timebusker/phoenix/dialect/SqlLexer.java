@@ -0,0 +1,151 @@
+package com.timebusker.phoenix.dialect;
+
+/**
+ * A minimal single-pass SQL tokenizer.
+ * <p>
+ * It only tells apart what the dialect needs to rewrite statements safely: words (keywords,
+ * identifiers and numbers), quoted identifiers, string literals, comments, optimizer hints,
+ * whitespace and single character symbols. Tokens are not materialized; the lexer is a cursor
+ * exposing the bounds of the current token over the original string, so scanning a statement
+ * allocates nothing.
+ */
+public final class SqlLexer {
+
+    public enum Token {
+        WORD, QUOTED_IDENTIFIER, STRING, COMMENT, HINT, WHITESPACE, SYMBOL, EOF
+    }
+
+    private final String sql;
+    private final int length;
+    private int position;
+    private int start;
+    private int end;
+    private int depth;
+    private int tokenDepth;
+    private Token token;
+
+    public SqlLexer(String sql) {
+        this(sql, 0);
+    }
+
+    public SqlLexer(String sql, int offset) {
+        this.sql = sql;
+        this.length = sql.length();
+        this.position = offset;
+    }
+
+    /**
+     * Advances to the next token and returns its type.
+     */
+    public Token next() {
+        start = position;
+        tokenDepth = depth;
+        if (position >= length) {
+            end = position;
+            return token = Token.EOF;
+        }
+
+        char c = sql.charAt(position);
+        if (Character.isWhitespace(c)) {
+            while (++position < length && Character.isWhitespace(sql.charAt(position))) {
+            }
+            token = Token.WHITESPACE;
+        } else if (isWordChar(c)) {
+            while (++position < length && isWordChar(sql.charAt(position))) {
+            }
+            token = Token.WORD;
+        } else if (c == '\'' || c == '"') {
+            position = skipQuoted(c, position + 1);
+            token = c == '"' ? Token.QUOTED_IDENTIFIER : Token.STRING;
+        } else if (c == '-' && position + 1 < length && sql.charAt(position + 1) == '-') {
+            int eol = sql.indexOf('\n', position + 2);
+            position = eol == -1 ? length : eol;
+            token = Token.COMMENT;
+        } else if (c == '/' && position + 1 < length && sql.charAt(position + 1) == '*') {
+            boolean hint = position + 2 < length && sql.charAt(position + 2) == '+';
+            int close = sql.indexOf("*/", position + 2);
+            position = close == -1 ? length : close + 2;
+            token = hint ? Token.HINT : Token.COMMENT;
+        } else {
+            if (c == '(') {
+                depth++;
+            } else if (c == ')' && depth > 0) {
+                depth--;
+                tokenDepth = depth;
+            }
+            position++;
+            token = Token.SYMBOL;
+        }
+        end = position;
+        return token;
+    }
+
+    /**
+     * Advances to the next token that is neither whitespace nor a comment. Hints are returned.
+     */
+    public Token nextSignificant() {
+        Token t;
+        while ((t = next()) == Token.WHITESPACE || t == Token.COMMENT) {
+        }
+        return t;
+    }
+
+    public Token token() {
+        return token;
+    }
+
+    public int start() {
+        return start;
+    }
+
+    public int end() {
+        return end;
+    }
+
+    /**
+     * Returns the parentheses nesting level of the current token; the parentheses themselves
+     * belong to the enclosing level.
+     */
+    public int depth() {
+        return tokenDepth;
+    }
+
+    public String text() {
+        return sql.substring(start, end);
+    }
+
+    /**
+     * Returns whether the current token is the given keyword, ignoring case.
+     */
+    public boolean is(String keyword) {
+        return token == Token.WORD && end - start == keyword.length()
+                && sql.regionMatches(true, start, keyword, 0, keyword.length());
+    }
+
+    /**
+     * Returns whether the current token is the given symbol.
+     */
+    public boolean is(char symbol) {
+        return token == Token.SYMBOL && sql.charAt(start) == symbol;
+    }
+
+    private int skipQuoted(char quote, int from) {
+        int i = from;
+        while (i < length) {
+            if (sql.charAt(i) == quote) {
+                // A doubled quote is an escaped quote
+                if (i + 1 < length && sql.charAt(i + 1) == quote) {
+                    i += 2;
+                    continue;
+                }
+                return i + 1;
+            }
+            i++;
+        }
+        return length;
+    }
+
+    private static boolean isWordChar(char c) {
+        return Character.isLetterOrDigit(c) || c == '_' || c == '$';
+    }
+}
@@ -0,0 +1,119 @@
+package com.timebusker.phoenix.dialect;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A bounded, thread-safe cache of generated SQL statements with hit/miss counters.
+ * <p>
+ * Eviction approximates LRU with the CLOCK (second chance) algorithm: a lookup only flags the
+ * entry as referenced, so reads never lock or reorder anything, and when the cache is full the
+ * oldest entries not referenced since the last pass are dropped first.
+ */
+public class StatementCache<K, V> {
+
+    private static final class Entry<V> {
+        final V value;
+        volatile boolean referenced;
+
+        Entry(V value) {
+            this.value = value;
+        }
+    }
+
+    private final int maxSize;
+    private final ConcurrentHashMap<K, Entry<V>> entries;
+    private final ConcurrentLinkedQueue<K> clock = new ConcurrentLinkedQueue<>();
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    public StatementCache(int maxSize) {
+        if (maxSize <= 0) {
+            throw new IllegalArgumentException("maxSize must be greater than 0: " + maxSize);
+        }
+        this.maxSize = maxSize;
+        this.entries = new ConcurrentHashMap<>(Math.min(maxSize, 256));
+    }
+
+    public V get(K key) {
+        Entry<V> entry = entries.get(key);
+        if (entry == null) {
+            misses.increment();
+            return null;
+        }
+        hits.increment();
+        if (!entry.referenced) {
+            entry.referenced = true;
+        }
+        return entry.value;
+    }
+
+    public void put(K key, V value) {
+        if (entries.put(key, new Entry<>(value)) == null) {
+            clock.offer(key);
+            evict();
+        }
+    }
+
+    private void evict() {
+        while (entries.size() > maxSize) {
+            K key = clock.poll();
+            if (key == null) {
+                return;
+            }
+            Entry<V> entry = entries.get(key);
+            if (entry == null) {
+                continue;
+            }
+            if (entry.referenced) {
+                // Second chance
+                entry.referenced = false;
+                clock.offer(key);
+            } else if (entries.remove(key, entry)) {
+                evictions.increment();
+            } else {
+                // Replaced meanwhile, keep tracking it
+                clock.offer(key);
+            }
+        }
+    }
+
+    public void clear() {
+        entries.clear();
+        clock.clear();
+        hits.reset();
+        misses.reset();
+        evictions.reset();
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    public int getMaxSize() {
+        return maxSize;
+    }
+
+    public long getHitCount() {
+        return hits.sum();
+    }
+
+    public long getMissCount() {
+        return misses.sum();
+    }
+
+    public long getEvictionCount() {
+        return evictions.sum();
+    }
+
+    /**
+     * Returns the ratio of lookups served from the cache, or 0 if there were none yet.
+     */
+    public double getHitRatio() {
+        long h = hits.sum();
+        long total = h + misses.sum();
+        return total == 0 ? 0d : (double) h / total;
+    }
+}
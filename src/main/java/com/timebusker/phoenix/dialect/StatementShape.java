@@ -0,0 +1,155 @@
+package com.timebusker.phoenix.dialect;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * The structural shape of an insert, insert-select or update statement: everything that
+ * determines the text of its rewritten UPSERT, and nothing else.
+ * <p>
+ * Column sets are kept as flattened {@code name, value} pairs in declaration order, which is the
+ * order Hibernate binds their parameters.
+ */
+public final class StatementShape {
+
+    public enum Kind {
+        INSERT, INSERT_SELECT, UPDATE
+    }
+
+    private static final String[] EMPTY = new String[0];
+
+    private final Kind kind;
+    private final String tableName;
+    private final String comment;
+    private final String[] columns;
+    private final String[] primaryKeyColumns;
+    private final String[] whereColumns;
+    private final String versionColumnName;
+    private final String select;
+    private final int hash;
+
+    private StatementShape(Kind kind, String tableName, String comment, String[] columns,
+            String[] primaryKeyColumns, String[] whereColumns, String versionColumnName, String select) {
+        this.kind = kind;
+        this.tableName = tableName;
+        this.comment = comment;
+        this.columns = columns;
+        this.primaryKeyColumns = primaryKeyColumns;
+        this.whereColumns = whereColumns;
+        this.versionColumnName = versionColumnName;
+        this.select = select;
+
+        int h = kind.hashCode();
+        h = 31 * h + Objects.hashCode(tableName);
+        h = 31 * h + Objects.hashCode(comment);
+        h = 31 * h + Arrays.hashCode(columns);
+        h = 31 * h + Arrays.hashCode(primaryKeyColumns);
+        h = 31 * h + Arrays.hashCode(whereColumns);
+        h = 31 * h + Objects.hashCode(versionColumnName);
+        h = 31 * h + Objects.hashCode(select);
+        this.hash = h;
+    }
+
+    @SuppressWarnings("rawtypes")
+    public static StatementShape forInsert(String tableName, String comment, Map columns) {
+        return new StatementShape(Kind.INSERT, tableName, comment, flatten(columns), EMPTY, EMPTY, null, null);
+    }
+
+    @SuppressWarnings("rawtypes")
+    public static StatementShape forInsertSelect(String tableName, String comment, List columnNames, String select) {
+        String[] names = EMPTY;
+        if (columnNames != null && !columnNames.isEmpty()) {
+            names = new String[columnNames.size()];
+            for (int i = 0; i < names.length; i++) {
+                names[i] = String.valueOf(columnNames.get(i));
+            }
+        }
+        return new StatementShape(Kind.INSERT_SELECT, tableName, comment, names, EMPTY, EMPTY, null, select);
+    }
+
+    @SuppressWarnings("rawtypes")
+    public static StatementShape forUpdate(String tableName, String comment, Map columns,
+            Map primaryKeyColumns, Map whereColumns, String versionColumnName) {
+        return new StatementShape(Kind.UPDATE, tableName, comment, flatten(columns),
+                flatten(primaryKeyColumns), flatten(whereColumns), versionColumnName, null);
+    }
+
+    @SuppressWarnings("rawtypes")
+    private static String[] flatten(Map columns) {
+        if (columns == null || columns.isEmpty()) {
+            return EMPTY;
+        }
+        String[] pairs = new String[columns.size() * 2];
+        int i = 0;
+        for (Object o : columns.entrySet()) {
+            Map.Entry e = (Map.Entry) o;
+            pairs[i++] = String.valueOf(e.getKey());
+            pairs[i++] = String.valueOf(e.getValue());
+        }
+        return pairs;
+    }
+
+    public Kind getKind() {
+        return kind;
+    }
+
+    public String getTableName() {
+        return tableName;
+    }
+
+    public String getComment() {
+        return comment;
+    }
+
+    public String getSelect() {
+        return select;
+    }
+
+    public String getVersionColumnName() {
+        return versionColumnName;
+    }
+
+    String[] columns() {
+        return columns;
+    }
+
+    String[] primaryKeyColumns() {
+        return primaryKeyColumns;
+    }
+
+    String[] whereColumns() {
+        return whereColumns;
+    }
+
+    @Override
+    public int hashCode() {
+        return hash;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj)
+            return true;
+        if (!(obj instanceof StatementShape))
+            return false;
+        StatementShape other = (StatementShape) obj;
+        return hash == other.hash
+                && kind == other.kind
+                && Objects.equals(tableName, other.tableName)
+                && Objects.equals(comment, other.comment)
+                && Arrays.equals(columns, other.columns)
+                && Arrays.equals(primaryKeyColumns, other.primaryKeyColumns)
+                && Arrays.equals(whereColumns, other.whereColumns)
+                && Objects.equals(versionColumnName, other.versionColumnName)
+                && Objects.equals(select, other.select);
+    }
+
+    @Override
+    public String toString() {
+        return "StatementShape [kind=" + kind + ", tableName=" + tableName + ", columns=" + Arrays.toString(columns)
+                + ", primaryKeyColumns=" + Arrays.toString(primaryKeyColumns) + ", whereColumns="
+                + Arrays.toString(whereColumns) + ", versionColumnName=" + versionColumnName + "]";
+    }
+}
@@ -0,0 +1,230 @@
+package com.timebusker.phoenix.dialect;
+
+import java.util.Map;
+
+/**
+ * Renders the Phoenix UPSERT equivalent of a {@link StatementShape}.
+ * <p>
+ * Buffers are sized up front from the shape, so each statement is built with a single allocation
+ * of its final length.
+ */
+public final class UpsertStatementBuilder {
+
+    private static final String NO_COLUMNS_INSERT = "values ( )";
+
+    private UpsertStatementBuilder() {
+    }
+
+    public static String build(StatementShape shape) {
+        switch (shape.getKind()) {
+            case INSERT:
+                return buildInsert(shape);
+            case INSERT_SELECT:
+                return buildInsertSelect(shape);
+            case UPDATE:
+                return buildUpdate(shape);
+            default:
+                throw new IllegalArgumentException("Unsupported statement: " + shape.getKind());
+        }
+    }
+
+    private static String buildInsert(StatementShape shape) {
+        final String[] columns = shape.columns();
+        StringBuilder sb = new StringBuilder(estimate(shape) + columns.length * 2);
+        appendHeader(sb, shape);
+        if (columns.length == 0) {
+            return sb.append(' ').append(NO_COLUMNS_INSERT).toString();
+        }
+        sb.append(" (");
+        appendNames(sb, columns, ", ");
+        sb.append(") values (");
+        appendValues(sb, columns, ", ");
+        return sb.append(')').toString();
+    }
+
+    private static String buildInsertSelect(StatementShape shape) {
+        final String[] names = shape.columns();
+        StringBuilder sb = new StringBuilder(estimate(shape) + names.length * 2);
+        appendHeader(sb, shape);
+        if (names.length > 0) {
+            sb.append(" (");
+            for (int i = 0; i < names.length; i++) {
+                if (i > 0) {
+                    sb.append(", ");
+                }
+                sb.append(names[i]);
+            }
+            sb.append(')');
+        }
+        return sb.append(' ').append(shape.getSelect()).toString();
+    }
+
+    /**
+     * Renders an update as an UPSERT of the set columns and the primary key only, so the cells of
+     * any other column (and the secondary indexes on them) are left untouched. Updates checked by
+     * a version or other optimistic lock conditions upsert the selection of the row matching them:
+     * <pre>
+     *     upsert into T (c1,pk) values (?,?)
+     *     upsert into T (c1,pk) select ?,pk from T where pk=? and c1=? and version=?
+     * </pre>
+     */
+    private static String buildUpdate(StatementShape shape) {
+        final String[] columns = shape.columns();
+        final String[] pkColumns = shape.primaryKeyColumns();
+        final String[] whereColumns = shape.whereColumns();
+        final String versionColumn = shape.getVersionColumnName();
+
+        StringBuilder sb = new StringBuilder(estimate(shape) * 2);
+        appendHeader(sb, shape);
+        sb.append(" (");
+        // Set columns before pkcolumns to match parameter binding
+        boolean first = appendNames(sb, columns, ",");
+        appendNames(sb, pkColumns, ",", first);
+        if (versionColumn == null && whereColumns.length == 0) {
+            sb.append(") values (");
+            first = appendValues(sb, columns, ",");
+            appendValues(sb, pkColumns, ",", first);
+            return sb.append(')').toString();
+        }
+
+        sb.append(") select ");
+        first = appendValues(sb, columns, ",");
+        appendNames(sb, pkColumns, ",", first);
+        sb.append(" from ").append(shape.getTableName()).append(" where ");
+        first = true;
+        for (int i = 0; i < pkColumns.length; i += 2) {
+            sb.append(first ? "" : " and ").append(pkColumns[i]).append('=').append(pkColumns[i + 1]);
+            first = false;
+        }
+        for (int i = 0; i < whereColumns.length; i += 2) {
+            sb.append(first ? "" : " and ").append(whereColumns[i]).append(whereColumns[i + 1]);
+            first = false;
+        }
+        if (versionColumn != null) {
+            sb.append(first ? "" : " and ").append(versionColumn).append("=?");
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Renders the atomic increment of a numeric column, which starts from the increment when the
+     * row or the column do not exist yet:
+     * <pre>
+     *     upsert into T (pk,c) values (?,?) on duplicate key update c=coalesce(c,0)+?
+     * </pre>
+     */
+    public static String buildIncrement(String tableName, String[] keyColumns, String column) {
+        StringBuilder sb = new StringBuilder(64 + tableName.length() + column.length() * 4
+                + keyColumns.length * 16);
+        sb.append("upsert into ").append(tableName).append(" (");
+        for (String keyColumn : keyColumns) {
+            sb.append(keyColumn).append(',');
+        }
+        sb.append(column).append(") values (");
+        for (int i = 0; i < keyColumns.length; i++) {
+            sb.append("?,");
+        }
+        return sb.append("?) on duplicate key update ").append(column).append("=coalesce(")
+                .append(column).append(",0)+?").toString();
+    }
+
+    /**
+     * Renders a bulk update as the UPSERT of the selection of the rows it matches, which Phoenix
+     * runs on the region servers in auto-commit mode:
+     * <pre>
+     *     upsert into T (pk,c1,c2) select pk,e1,e2 from T where ...
+     * </pre>
+     * The set expressions are evaluated against the selected row, and keep their parameters
+     * before those of the condition.
+     *
+     * @param prefix anything before the statement, like a comment
+     * @param assignments the expressions of the set columns
+     * @param where the condition of the update, or null
+     */
+    public static String buildUpsertSelect(String prefix, String tableName, String[] keyColumns,
+            Map<String, String> assignments, String where) {
+        StringBuilder sb = new StringBuilder(64 + prefix.length() + tableName.length() * 2
+                + (where != null ? where.length() : 0) + keyColumns.length * 32 + assignments.size() * 32);
+        sb.append(prefix).append("upsert into ").append(tableName).append(" (");
+        for (String keyColumn : keyColumns) {
+            sb.append(keyColumn).append(',');
+        }
+        for (String column : assignments.keySet()) {
+            sb.append(column).append(',');
+        }
+        sb.setCharAt(sb.length() - 1, ')');
+        sb.append(" select ");
+        for (String keyColumn : keyColumns) {
+            sb.append(keyColumn).append(',');
+        }
+        for (String expression : assignments.values()) {
+            sb.append(expression).append(',');
+        }
+        sb.setLength(sb.length() - 1);
+        sb.append(" from ").append(tableName);
+        if (where != null) {
+            sb.append(" where ").append(where);
+        }
+        return sb.toString();
+    }
+
+    private static void appendHeader(StringBuilder sb, StatementShape shape) {
+        if (shape.getComment() != null) {
+            sb.append("/* ").append(shape.getComment()).append(" */ ");
+        }
+        sb.append("upsert into ").append(shape.getTableName());
+    }
+
+    private static boolean appendNames(StringBuilder sb, String[] pairs, String separator) {
+        return appendNames(sb, pairs, separator, true);
+    }
+
+    private static boolean appendNames(StringBuilder sb, String[] pairs, String separator, boolean first) {
+        for (int i = 0; i < pairs.length; i += 2) {
+            if (!first) {
+                sb.append(separator);
+            }
+            sb.append(pairs[i]);
+            first = false;
+        }
+        return first;
+    }
+
+    private static boolean appendValues(StringBuilder sb, String[] pairs, String separator) {
+        return appendValues(sb, pairs, separator, true);
+    }
+
+    private static boolean appendValues(StringBuilder sb, String[] pairs, String separator, boolean first) {
+        for (int i = 1; i < pairs.length; i += 2) {
+            if (!first) {
+                sb.append(separator);
+            }
+            sb.append(pairs[i]);
+            first = false;
+        }
+        return first;
+    }
+
+    private static int estimate(StatementShape shape) {
+        int length = 32 + shape.getTableName().length();
+        if (shape.getComment() != null) {
+            length += shape.getComment().length() + 6;
+        }
+        if (shape.getSelect() != null) {
+            length += shape.getSelect().length();
+        }
+        if (shape.getVersionColumnName() != null) {
+            length += shape.getVersionColumnName().length() + 8;
+        }
+        length += length(shape.columns()) + length(shape.primaryKeyColumns()) + length(shape.whereColumns());
+        return length;
+    }
+
+    private static int length(String[] pairs) {
+        int length = 0;
+        for (String s : pairs) {
+            length += s.length() + 1;
+        }
+        return length;
+    }
+}
@@ -0,0 +1,58 @@
+package com.timebusker.phoenix.dialect.persister;
+
+import org.hibernate.HibernateException;
+import org.hibernate.cache.spi.access.EntityRegionAccessStrategy;
+import org.hibernate.cache.spi.access.NaturalIdRegionAccessStrategy;
+import org.hibernate.mapping.PersistentClass;
+import org.hibernate.persister.entity.JoinedSubclassEntityPersister;
+import org.hibernate.persister.spi.PersisterCreationContext;
+
+import com.timebusker.phoenix.dialect.InsertIfAbsent;
+import com.timebusker.phoenix.dialect.PhoenixDialect;
+import com.timebusker.phoenix.dialect.StatementCache;
+
+/**
+ * A {@link JoinedSubclassEntityPersister} that writes through Phoenix UPSERT statements.
+ */
+public class PhoenixJoinedSubclassEntityPersister extends JoinedSubclassEntityPersister {
+
+    private final boolean insertIfAbsent;
+    private final StatementCache<PropertyPattern, String> inserts = new StatementCache<>(
+            Integer.getInteger(PhoenixDialect.REWRITE_CACHE_SIZE, PhoenixDialect.DEFAULT_REWRITE_CACHE_SIZE));
+
+    public PhoenixJoinedSubclassEntityPersister(PersistentClass persistentClass,
+            EntityRegionAccessStrategy cacheAccessStrategy,
+            NaturalIdRegionAccessStrategy naturalIdRegionAccessStrategy,
+            PersisterCreationContext creationContext) throws HibernateException {
+        super(persistentClass, cacheAccessStrategy, naturalIdRegionAccessStrategy, creationContext);
+        insertIfAbsent = persistentClass.getMappedClass() != null
+                && persistentClass.getMappedClass().isAnnotationPresent(InsertIfAbsent.class);
+    }
+
+    @Override
+    protected String generateInsertString(boolean identityInsert, boolean[] includeProperty, int j) {
+        if (!(getFactory().getDialect() instanceof PhoenixDialect)) {
+            return super.generateInsertString(identityInsert, includeProperty, j);
+        }
+        // Dynamic inserts ask for a statement on every flush, reuse the one of the same null pattern
+        PropertyPattern pattern = new PropertyPattern(includeProperty, j, identityInsert);
+        String upsert = inserts.get(pattern);
+        if (upsert == null) {
+            upsert = PhoenixStatements.toUpsert(super.generateInsertString(identityInsert, includeProperty, j));
+            if (insertIfAbsent) {
+                upsert = PhoenixStatements.ignoreDuplicateKey(upsert);
+            }
+            inserts.put(pattern, upsert);
+        }
+        return upsert;
+    }
+
+    @Override
+    protected String generateUpdateString(boolean[] includeProperty, int j, Object[] oldFields, boolean useRowId) {
+        String sql = super.generateUpdateString(includeProperty, j, oldFields, useRowId);
+        if (!(getFactory().getDialect() instanceof PhoenixDialect)) {
+            return sql;
+        }
+        return PhoenixStatements.toUpsert(sql, getKeyColumns(j), j == 0 && isVersioned() ? getVersionColumnName() : null);
+    }
+}
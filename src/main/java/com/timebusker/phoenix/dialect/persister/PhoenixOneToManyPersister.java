@@ -0,0 +1,36 @@
+package com.timebusker.phoenix.dialect.persister;
+
+import org.hibernate.MappingException;
+import org.hibernate.cache.CacheException;
+import org.hibernate.cache.spi.access.CollectionRegionAccessStrategy;
+import org.hibernate.mapping.Collection;
+import org.hibernate.persister.collection.OneToManyPersister;
+import org.hibernate.persister.spi.PersisterCreationContext;
+
+import com.timebusker.phoenix.dialect.PhoenixDialect;
+
+/**
+ * A {@link OneToManyPersister} that maintains the collection keys through Phoenix UPSERT statements.
+ */
+public class PhoenixOneToManyPersister extends OneToManyPersister {
+
+    public PhoenixOneToManyPersister(Collection collectionBinding,
+            CollectionRegionAccessStrategy cacheAccessStrategy,
+            PersisterCreationContext creationContext) throws MappingException, CacheException {
+        super(collectionBinding, cacheAccessStrategy, creationContext);
+    }
+
+    @Override
+    protected String generateUpdateRowString() {
+        return toUpsert(super.generateUpdateRowString());
+    }
+
+    @Override
+    protected String generateInsertRowString() {
+        return toUpsert(super.generateInsertRowString());
+    }
+
+    private String toUpsert(String sql) {
+        return getDialect() instanceof PhoenixDialect ? PhoenixStatements.toUpsert(sql) : sql;
+    }
+}
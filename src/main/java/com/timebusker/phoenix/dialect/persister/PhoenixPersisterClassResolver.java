@@ -0,0 +1,51 @@
+package com.timebusker.phoenix.dialect.persister;
+
+import org.hibernate.mapping.Collection;
+import org.hibernate.mapping.PersistentClass;
+import org.hibernate.persister.collection.BasicCollectionPersister;
+import org.hibernate.persister.collection.CollectionPersister;
+import org.hibernate.persister.collection.OneToManyPersister;
+import org.hibernate.persister.entity.EntityPersister;
+import org.hibernate.persister.entity.JoinedSubclassEntityPersister;
+import org.hibernate.persister.entity.SingleTableEntityPersister;
+import org.hibernate.persister.internal.StandardPersisterClassResolver;
+
+/**
+ * Resolves the Phoenix persisters, which generate the UPSERT statements without load-time
+ * weaving. Register it in the persistence unit and disable the weaving to run without an agent:
+ * <pre>
+ *     &lt;property name="hibernate.persister.resolver"
+ *               value="com.timebusker.phoenix.dialect.persister.PhoenixPersisterClassResolver" /&gt;
+ *
+ *     -Dphoenix.dialect.weaving=false
+ * </pre>
+ * Union subclass hierarchies keep the standard persister.
+ */
+public class PhoenixPersisterClassResolver extends StandardPersisterClassResolver {
+
+    private static final long serialVersionUID = 1L;
+
+    @Override
+    public Class<? extends EntityPersister> getEntityPersisterClass(PersistentClass metadata) {
+        Class<? extends EntityPersister> persisterClass = super.getEntityPersisterClass(metadata);
+        if (persisterClass == SingleTableEntityPersister.class) {
+            return PhoenixSingleTableEntityPersister.class;
+        }
+        if (persisterClass == JoinedSubclassEntityPersister.class) {
+            return PhoenixJoinedSubclassEntityPersister.class;
+        }
+        return persisterClass;
+    }
+
+    @Override
+    public Class<? extends CollectionPersister> getCollectionPersisterClass(Collection metadata) {
+        Class<? extends CollectionPersister> persisterClass = super.getCollectionPersisterClass(metadata);
+        if (persisterClass == OneToManyPersister.class) {
+            return PhoenixOneToManyPersister.class;
+        }
+        if (persisterClass == BasicCollectionPersister.class) {
+            return PhoenixBasicCollectionPersister.class;
+        }
+        return persisterClass;
+    }
+}
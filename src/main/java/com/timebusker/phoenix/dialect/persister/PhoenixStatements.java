@@ -0,0 +1,189 @@
+package com.timebusker.phoenix.dialect.persister;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+
+import com.timebusker.phoenix.dialect.PhoenixDialect;
+import com.timebusker.phoenix.dialect.QueryUtils;
+import com.timebusker.phoenix.dialect.SqlLexer;
+import com.timebusker.phoenix.dialect.SqlLexer.Token;
+import com.timebusker.phoenix.dialect.StatementCache;
+import com.timebusker.phoenix.dialect.StatementShape;
+import com.timebusker.phoenix.dialect.UpsertStatementBuilder;
+
+/**
+ * Turns the insert and update statements generated by the standard Hibernate persisters into
+ * the same UPSERT statements the load-time woven {@code SqlInterceptor} produces.
+ * <p>
+ * Statements already rewritten (because weaving is enabled too) and any other kind of
+ * statement are returned unchanged.
+ */
+final class PhoenixStatements {
+
+    private static final StatementCache<UpsertKey, String> UPSERTS = new StatementCache<>(
+            Integer.getInteger(PhoenixDialect.REWRITE_CACHE_SIZE, PhoenixDialect.DEFAULT_REWRITE_CACHE_SIZE));
+
+    // The same update is rewritten differently for tables with other key or version columns
+    private static final class UpsertKey {
+        final String sql;
+        final String[] keyColumns;
+        final String versionColumn;
+        final int hash;
+
+        UpsertKey(String sql, String[] keyColumns, String versionColumn) {
+            this.sql = sql;
+            this.keyColumns = keyColumns;
+            this.versionColumn = versionColumn;
+            this.hash = 31 * (31 * sql.hashCode() + Arrays.hashCode(keyColumns)) + Objects.hashCode(versionColumn);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj)
+                return true;
+            if (!(obj instanceof UpsertKey))
+                return false;
+            UpsertKey other = (UpsertKey) obj;
+            return hash == other.hash
+                    && sql.equals(other.sql)
+                    && Arrays.equals(keyColumns, other.keyColumns)
+                    && Objects.equals(versionColumn, other.versionColumn);
+        }
+    }
+
+    private PhoenixStatements() {
+    }
+
+    static String toUpsert(String sql) {
+        return toUpsert(sql, null, null);
+    }
+
+    /**
+     * @param keyColumns the primary key columns of the updated table, or null if every
+     *         condition of an update has to be treated as a key column
+     * @param versionColumn the version column checked by the update, if any
+     */
+    static String toUpsert(String sql, String[] keyColumns, String versionColumn) {
+        if (sql == null) {
+            return null;
+        }
+        UpsertKey key = new UpsertKey(sql, keyColumns, versionColumn);
+        String upsert = UPSERTS.get(key);
+        if (upsert == null) {
+            upsert = rewrite(sql, keyColumns, versionColumn);
+            UPSERTS.put(key, upsert);
+        }
+        return upsert;
+    }
+
+    /**
+     * Makes an insert UPSERT keep the row when it already exists.
+     */
+    static String ignoreDuplicateKey(String upsert) {
+        return upsert + " on duplicate key ignore";
+    }
+
+    private static String rewrite(String sql, String[] keyColumns, String versionColumn) {
+        SqlLexer lexer = new SqlLexer(sql);
+        Token token = lexer.next();
+        String comment = null;
+        if (token == Token.COMMENT && sql.startsWith("/* ")) {
+            comment = sql.substring(3, lexer.end() - 3);
+        }
+        if (token != Token.WORD) {
+            token = lexer.nextSignificant();
+        }
+
+        if (lexer.is("insert")) {
+            return QueryUtils.replaceLeadingKeyword(sql, "insert", "upsert");
+        }
+        if (lexer.is("update")) {
+            StatementShape shape = parseUpdate(sql, lexer, comment, keyColumns, versionColumn);
+            return shape != null ? UpsertStatementBuilder.build(shape) : sql;
+        }
+        return sql;
+    }
+
+    /**
+     * Parses back the output of {@code org.hibernate.sql.Update#toStatementString()}:
+     * <pre>
+     *     update &lt;table&gt; set c1=v1, c2=v2 where k1=? and w1=? and version=?
+     * </pre>
+     */
+    private static StatementShape parseUpdate(String sql, SqlLexer lexer, String comment,
+            String[] keyColumns, String versionColumn) {
+        // Table name, up to the SET keyword
+        int from = lexer.end();
+        Token token;
+        while ((token = lexer.next()) != Token.EOF && !(lexer.depth() == 0 && lexer.is("set"))) {
+        }
+        if (token == Token.EOF) {
+            return null;
+        }
+        String tableName = sql.substring(from, lexer.start()).trim();
+
+        // Assignments, separated by commas, up to the WHERE keyword
+        Map<String, String> columns = new LinkedHashMap<>();
+        from = lexer.end();
+        boolean where = false;
+        while (!where) {
+            token = lexer.next();
+            where = token != Token.EOF && lexer.depth() == 0 && lexer.is("where");
+            if (token == Token.EOF || where || (lexer.depth() == 0 && lexer.is(','))) {
+                String assignment = sql.substring(from, lexer.start()).trim();
+                int eq = assignment.indexOf('=');
+                if (eq == -1) {
+                    return null;
+                }
+                columns.put(assignment.substring(0, eq), assignment.substring(eq + 1));
+                from = lexer.end();
+                if (token == Token.EOF) {
+                    break;
+                }
+            }
+        }
+
+        // Conditions, separated by AND
+        Map<String, String> pkColumns = new LinkedHashMap<>();
+        Map<String, String> whereColumns = new LinkedHashMap<>();
+        String version = null;
+        while (where) {
+            token = lexer.next();
+            if (token != Token.EOF && !(lexer.depth() == 0 && lexer.is("and"))) {
+                continue;
+            }
+            String condition = sql.substring(from, lexer.start()).trim();
+            from = lexer.end();
+            where = token != Token.EOF;
+            if (versionColumn != null && !where && condition.equals(versionColumn + "=?")) {
+                version = versionColumn;
+                continue;
+            }
+            int eq = condition.indexOf('=');
+            int end = eq != -1 ? eq : condition.indexOf(' ');
+            String name = end != -1 ? condition.substring(0, end) : condition;
+            if (keyColumns == null || contains(keyColumns, name)) {
+                pkColumns.put(name, eq != -1 ? condition.substring(eq + 1) : "?");
+            } else {
+                whereColumns.put(name, condition.substring(name.length()));
+            }
+        }
+        return StatementShape.forUpdate(tableName, comment, columns, pkColumns, whereColumns, version);
+    }
+
+    private static boolean contains(String[] names, String name) {
+        for (String n : names) {
+            if (n.equals(name)) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,40 @@
+package com.timebusker.phoenix.dialect.persister;
+
+import java.util.Arrays;
+
+/**
+ * Identifies the statement generated for a subset of the properties of an entity table, like
+ * the inserts of the non null properties of a dynamic insert entity.
+ */
+final class PropertyPattern {
+
+    private final boolean[] properties;
+    private final int table;
+    private final boolean identity;
+    private final int hash;
+
+    PropertyPattern(boolean[] properties, int table, boolean identity) {
+        this.properties = properties.clone();
+        this.table = table;
+        this.identity = identity;
+        this.hash = 31 * (31 * Arrays.hashCode(properties) + table) + (identity ? 1 : 0);
+    }
+
+    @Override
+    public int hashCode() {
+        return hash;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof PropertyPattern)) {
+            return false;
+        }
+        PropertyPattern other = (PropertyPattern) o;
+        return hash == other.hash && table == other.table && identity == other.identity
+                && Arrays.equals(properties, other.properties);
+    }
+}
@@ -0,0 +1,203 @@
+package com.timebusker.phoenix.dialect.write;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Adapts the number of rows written per batch and commit to the latency and the failures of the
+ * Phoenix commits, with the additive increase, multiplicative decrease (AIMD) rule of the TCP
+ * congestion control.
+ * <p>
+ * The size grows by a fixed step after every commit that was limited by it and completed within
+ * the target latency, and is cut by a factor after a slower or failed commit, always staying
+ * within the configured bounds. A single controller is meant to be shared by all the sessions
+ * writing to the same cluster.
+ * <p>
+ * The controller is an {@link AdaptiveBatchControllerMXBean}, which can be registered in an
+ * {@link javax.management.MBeanServer} to follow its size and statistics. The controller of the
+ * flush chunks is registered by the dialect.
+ */
+public class AdaptiveBatchController implements AdaptiveBatchControllerMXBean {
+
+    public static final int DEFAULT_MIN_SIZE = 100;
+    public static final int DEFAULT_INITIAL_SIZE = 1000;
+    public static final int DEFAULT_MAX_SIZE = 50000;
+    public static final int DEFAULT_STEP = 100;
+    public static final double DEFAULT_DECREASE_FACTOR = 0.5d;
+    public static final long DEFAULT_TARGET_LATENCY_MILLIS = 1000L;
+
+    private final int minSize;
+    private final int maxSize;
+    private final int step;
+    private final double decreaseFactor;
+    private final long targetLatencyNanos;
+
+    private volatile int size;
+    private volatile long lastLatencyNanos;
+
+    private final LongAdder commits = new LongAdder();
+    private final LongAdder failures = new LongAdder();
+    private final LongAdder rows = new LongAdder();
+    private final LongAdder latencyNanos = new LongAdder();
+    private final LongAdder increases = new LongAdder();
+    private final LongAdder decreases = new LongAdder();
+
+    public AdaptiveBatchController() {
+        this(DEFAULT_MIN_SIZE, DEFAULT_INITIAL_SIZE, DEFAULT_MAX_SIZE, DEFAULT_STEP, DEFAULT_DECREASE_FACTOR,
+                DEFAULT_TARGET_LATENCY_MILLIS);
+    }
+
+    /**
+     * @param minSize the size to start with and the lowest size
+     * @param maxSize the highest size
+     * @param step the rows added after a fast commit
+     * @param decreaseFactor the factor, between 0 and 1, the size is multiplied by after a slow or
+     *         failed commit
+     * @param targetLatencyMillis the commit latency above which the size is decreased
+     */
+    public AdaptiveBatchController(int minSize, int maxSize, int step, double decreaseFactor,
+            long targetLatencyMillis) {
+        this(minSize, minSize, maxSize, step, decreaseFactor, targetLatencyMillis);
+    }
+
+    /**
+     * @param minSize the lowest size
+     * @param initialSize the size to start with
+     * @param maxSize the highest size
+     * @param step the rows added after a fast commit
+     * @param decreaseFactor the factor, between 0 and 1, the size is multiplied by after a slow or
+     *         failed commit
+     * @param targetLatencyMillis the commit latency above which the size is decreased
+     */
+    public AdaptiveBatchController(int minSize, int initialSize, int maxSize, int step, double decreaseFactor,
+            long targetLatencyMillis) {
+        if (minSize <= 0 || maxSize < minSize) {
+            throw new IllegalArgumentException("Invalid size bounds: [" + minSize + ", " + maxSize + "]");
+        }
+        if (initialSize < minSize || initialSize > maxSize) {
+            throw new IllegalArgumentException("initialSize must be within [" + minSize + ", " + maxSize + "]: "
+                    + initialSize);
+        }
+        if (step <= 0) {
+            throw new IllegalArgumentException("step must be greater than 0: " + step);
+        }
+        if (decreaseFactor <= 0d || decreaseFactor >= 1d) {
+            throw new IllegalArgumentException("decreaseFactor must be between 0 and 1: " + decreaseFactor);
+        }
+        if (targetLatencyMillis <= 0) {
+            throw new IllegalArgumentException("targetLatencyMillis must be greater than 0: " + targetLatencyMillis);
+        }
+        this.minSize = minSize;
+        this.maxSize = maxSize;
+        this.step = step;
+        this.decreaseFactor = decreaseFactor;
+        this.targetLatencyNanos = TimeUnit.MILLISECONDS.toNanos(targetLatencyMillis);
+        this.size = initialSize;
+    }
+
+    /**
+     * Returns the current number of rows to write per batch and commit.
+     */
+    @Override
+    public int getSize() {
+        return size;
+    }
+
+    /**
+     * Records a successful commit.
+     *
+     * @param committedRows the rows committed
+     * @param nanos the time the commit took
+     */
+    public void onCommit(int committedRows, long nanos) {
+        commits.increment();
+        rows.add(committedRows);
+        latencyNanos.add(nanos);
+        lastLatencyNanos = nanos;
+        if (nanos > targetLatencyNanos) {
+            decrease();
+        } else if (committedRows >= size) {
+            // Only grow while the size is what limits the commits
+            increase();
+        }
+    }
+
+    /**
+     * Records a failed commit.
+     */
+    public void onFailure() {
+        failures.increment();
+        decrease();
+    }
+
+    private synchronized void increase() {
+        int next = (int) Math.min((long) size + step, maxSize);
+        if (next != size) {
+            size = next;
+            increases.increment();
+        }
+    }
+
+    private synchronized void decrease() {
+        int next = Math.max((int) (size * decreaseFactor), minSize);
+        if (next != size) {
+            size = next;
+            decreases.increment();
+        }
+    }
+
+    @Override
+    public int getMinSize() {
+        return minSize;
+    }
+
+    @Override
+    public int getMaxSize() {
+        return maxSize;
+    }
+
+    @Override
+    public long getCommitCount() {
+        return commits.sum();
+    }
+
+    @Override
+    public long getFailureCount() {
+        return failures.sum();
+    }
+
+    @Override
+    public long getCommittedRows() {
+        return rows.sum();
+    }
+
+    @Override
+    public long getIncreaseCount() {
+        return increases.sum();
+    }
+
+    @Override
+    public long getDecreaseCount() {
+        return decreases.sum();
+    }
+
+    @Override
+    public double getLastLatencyMillis() {
+        return lastLatencyNanos / 1_000_000d;
+    }
+
+    /**
+     * Returns the average latency of the successful commits, or 0 if there were none yet.
+     */
+    @Override
+    public double getAverageLatencyMillis() {
+        long n = commits.sum();
+        return n == 0 ? 0d : latencyNanos.sum() / 1_000_000d / n;
+    }
+
+    @Override
+    public String toString() {
+        return "AdaptiveBatchController [size=" + size + ", commits=" + getCommitCount()
+                + ", failures=" + getFailureCount() + ", averageLatencyMillis=" + getAverageLatencyMillis() + "]";
+    }
+}
@@ -0,0 +1,27 @@
+package com.timebusker.phoenix.dialect.write;
+
+/**
+ * The state of an {@link AdaptiveBatchController} published through JMX.
+ */
+public interface AdaptiveBatchControllerMXBean {
+
+    int getSize();
+
+    int getMinSize();
+
+    int getMaxSize();
+
+    long getCommitCount();
+
+    long getFailureCount();
+
+    long getCommittedRows();
+
+    long getIncreaseCount();
+
+    long getDecreaseCount();
+
+    double getLastLatencyMillis();
+
+    double getAverageLatencyMillis();
+}
@@ -0,0 +1,144 @@
+package com.timebusker.phoenix.dialect.write;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+
+import org.apache.phoenix.execute.MutationState;
+import org.apache.phoenix.jdbc.PhoenixConnection;
+import org.hibernate.event.spi.AbstractCollectionEvent;
+import org.hibernate.event.spi.EventSource;
+import org.hibernate.event.spi.PostCollectionRecreateEvent;
+import org.hibernate.event.spi.PostCollectionRecreateEventListener;
+import org.hibernate.event.spi.PostCollectionRemoveEvent;
+import org.hibernate.event.spi.PostCollectionRemoveEventListener;
+import org.hibernate.event.spi.PostCollectionUpdateEvent;
+import org.hibernate.event.spi.PostCollectionUpdateEventListener;
+import org.hibernate.event.spi.PostDeleteEvent;
+import org.hibernate.event.spi.PostDeleteEventListener;
+import org.hibernate.event.spi.PostInsertEvent;
+import org.hibernate.event.spi.PostInsertEventListener;
+import org.hibernate.event.spi.PostUpdateEvent;
+import org.hibernate.event.spi.PostUpdateEventListener;
+import org.hibernate.persister.entity.EntityPersister;
+
+/**
+ * Commits the mutations buffered by the Phoenix connection in the middle of a flush, before
+ * they reach the {@code phoenix.mutate.maxSize} or {@code phoenix.mutate.maxSizeBytes} limits
+ * and the flush fails with a {@code MaxMutationSizeExceededException}.
+ * <p>
+ * The buffer is checked after every entity and collection write. Pending JDBC batches are
+ * executed before committing, so they are part of the chunk. A failure in a later chunk does not
+ * roll back the chunks already committed.
+ * <p>
+ * With an {@link AdaptiveBatchController} the rows per chunk follow the size of the controller,
+ * which is fed with the latency and the failures of the chunk commits.
+ */
+public class ChunkedCommitEventListener implements PostInsertEventListener, PostUpdateEventListener,
+        PostDeleteEventListener, PostCollectionRecreateEventListener, PostCollectionUpdateEventListener,
+        PostCollectionRemoveEventListener {
+
+    private static final long serialVersionUID = 1L;
+
+    // Leave room for the pending JDBC batch and the rows of the write being checked
+    private static final double LIMIT_RATIO = 0.9d;
+
+    private final long maxRows;
+    private final long maxBytes;
+    private final FlushChunkListener listener;
+    private final AdaptiveBatchController controller;
+
+    /**
+     * @param maxRows the rows to commit at most in a chunk, on top of the Phoenix limit
+     * @param maxBytes the bytes to commit at most in a chunk, on top of the Phoenix limit
+     * @param listener notified of the committed chunks, may be null
+     * @param controller sizes the chunks within those limits, may be null
+     */
+    public ChunkedCommitEventListener(long maxRows, long maxBytes, FlushChunkListener listener,
+            AdaptiveBatchController controller) {
+        this.maxRows = maxRows;
+        this.maxBytes = maxBytes;
+        this.listener = listener;
+        this.controller = controller;
+    }
+
+    @Override
+    public void onPostInsert(PostInsertEvent event) {
+        afterWrite(event.getSession());
+    }
+
+    @Override
+    public void onPostUpdate(PostUpdateEvent event) {
+        afterWrite(event.getSession());
+    }
+
+    @Override
+    public void onPostDelete(PostDeleteEvent event) {
+        afterWrite(event.getSession());
+    }
+
+    @Override
+    public void onPostRecreateCollection(PostCollectionRecreateEvent event) {
+        afterWrite(event);
+    }
+
+    @Override
+    public void onPostUpdateCollection(PostCollectionUpdateEvent event) {
+        afterWrite(event);
+    }
+
+    @Override
+    public void onPostRemoveCollection(PostCollectionRemoveEvent event) {
+        afterWrite(event);
+    }
+
+    @Override
+    public boolean requiresPostCommitHanding(EntityPersister persister) {
+        return false;
+    }
+
+    private void afterWrite(AbstractCollectionEvent event) {
+        afterWrite(event.getSession());
+    }
+
+    private void afterWrite(EventSource session) {
+        try {
+            Connection connection = session.getJdbcCoordinator().getLogicalConnection().getPhysicalConnection();
+            if (connection.getAutoCommit()) {
+                return;
+            }
+            MutationState state = connection.unwrap(PhoenixConnection.class).getMutationState();
+            long rowLimit = controller != null ? Math.min(maxRows, controller.getSize()) : maxRows;
+            if (MutationStates.getNumRows(state) < Math.min(rowLimit, (long) (state.getMaxSize() * LIMIT_RATIO))
+                    && MutationStates.getEstimatedSize(state)
+                            < Math.min(maxBytes, (long) (state.getMaxSizeBytes() * LIMIT_RATIO))) {
+                return;
+            }
+
+            session.getJdbcCoordinator().executeBatch();
+            state = connection.unwrap(PhoenixConnection.class).getMutationState();
+            int rows = MutationStates.getNumRows(state);
+            long bytes = MutationStates.getEstimatedSize(state);
+            commit(connection, rows);
+            if (listener != null) {
+                listener.chunkCommitted(new FlushChunk(session, rows, bytes));
+            }
+        } catch (SQLException e) {
+            throw session.getJdbcServices().getSqlExceptionHelper().convert(e, "could not commit a flush chunk");
+        }
+    }
+
+    private void commit(Connection connection, int rows) throws SQLException {
+        if (controller == null) {
+            connection.commit();
+            return;
+        }
+        long start = System.nanoTime();
+        try {
+            connection.commit();
+        } catch (SQLException | RuntimeException e) {
+            controller.onFailure();
+            throw e;
+        }
+        controller.onCommit(rows, System.nanoTime() - start);
+    }
+}
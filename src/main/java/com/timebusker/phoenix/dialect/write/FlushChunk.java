@@ -0,0 +1,42 @@
+package com.timebusker.phoenix.dialect.write;
+
+import org.hibernate.engine.spi.SessionImplementor;
+
+/**
+ * The mutations committed in the middle of a flush by the chunked commit mode.
+ */
+public class FlushChunk {
+
+    private final SessionImplementor session;
+    private final int rows;
+    private final long bytes;
+
+    public FlushChunk(SessionImplementor session, int rows, long bytes) {
+        this.session = session;
+        this.rows = rows;
+        this.bytes = bytes;
+    }
+
+    public SessionImplementor getSession() {
+        return session;
+    }
+
+    /**
+     * Returns the number of rows committed.
+     */
+    public int getRows() {
+        return rows;
+    }
+
+    /**
+     * Returns the estimated size in bytes of the committed mutations.
+     */
+    public long getBytes() {
+        return bytes;
+    }
+
+    @Override
+    public String toString() {
+        return "FlushChunk [rows=" + rows + ", bytes=" + bytes + "]";
+    }
+}
@@ -0,0 +1,11 @@
+package com.timebusker.phoenix.dialect.write;
+
+/**
+ * Notified of every chunk of a flush committed by the chunked commit mode.
+ *
+ * @see com.timebusker.phoenix.dialect.PhoenixDialect#FLUSH_CHUNKED
+ */
+public interface FlushChunkListener {
+
+    void chunkCommitted(FlushChunk chunk);
+}
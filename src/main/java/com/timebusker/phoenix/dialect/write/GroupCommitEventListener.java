@@ -0,0 +1,91 @@
+package com.timebusker.phoenix.dialect.write;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+
+import org.apache.phoenix.jdbc.PhoenixConnection;
+import org.hibernate.HibernateException;
+import org.hibernate.action.spi.AfterTransactionCompletionProcess;
+import org.hibernate.engine.spi.SharedSessionContractImplementor;
+import org.hibernate.engine.transaction.spi.TransactionObserver;
+import org.hibernate.event.spi.EventSource;
+import org.hibernate.event.spi.FlushEvent;
+import org.hibernate.event.spi.FlushEventListener;
+
+/**
+ * Commits the small transactions of a session through a {@link GroupCommitter}.
+ * <p>
+ * Once a transaction is flushed on commit, its buffered mutations are committed within a group
+ * right before Hibernate commits the connection, which then has nothing left to write. The group
+ * commit is the last step before that, after every other before completion callback of the
+ * transaction, so nothing of the transaction can fail once its rows are written.
+ * Transactions with more buffered rows than the configured limit are committed on their own.
+ */
+public class GroupCommitEventListener implements FlushEventListener {
+
+    private static final long serialVersionUID = 1L;
+
+    private final GroupCommitter committer;
+    private final int maxRows;
+
+    /**
+     * @param committer the group committer shared by the sessions
+     * @param maxRows the rows a transaction can buffer at most to be group committed
+     */
+    public GroupCommitEventListener(GroupCommitter committer, int maxRows) {
+        this.committer = committer;
+        this.maxRows = maxRows;
+    }
+
+    @Override
+    public void onFlush(FlushEvent event) throws HibernateException {
+        EventSource session = event.getSession();
+        if (session.isTransactionInProgress()) {
+            // A transaction flushed several times finds nothing to commit the next times
+            Commit commit = new Commit(session);
+            session.getTransactionCoordinator().addObserver(commit);
+            session.getActionQueue().registerProcess(commit);
+        }
+    }
+
+    private final class Commit implements TransactionObserver, AfterTransactionCompletionProcess {
+
+        private final EventSource session;
+
+        Commit(EventSource session) {
+            this.session = session;
+        }
+
+        @Override
+        public void afterBegin() {
+        }
+
+        @Override
+        public void beforeCompletion() {
+            try {
+                Connection connection = session.getJdbcCoordinator().getLogicalConnection().getPhysicalConnection();
+                if (connection.getAutoCommit()) {
+                    return;
+                }
+                PhoenixConnection phoenix = connection.unwrap(PhoenixConnection.class);
+                int rows = MutationStates.getNumRows(phoenix.getMutationState());
+                if (rows == 0 || rows > maxRows) {
+                    return;
+                }
+                committer.commit(phoenix);
+            } catch (SQLException e) {
+                throw session.getJdbcServices().getSqlExceptionHelper().convert(e, "could not group commit");
+            }
+        }
+
+        @Override
+        public void afterCompletion(boolean successful, boolean delayed) {
+        }
+
+        @Override
+        public void doAfterTransactionCompletion(boolean success, SharedSessionContractImplementor session) {
+            // Runs before the observers are notified, so they are not changed while iterated
+            session.getTransactionCoordinator().removeObserver(this);
+        }
+    }
+}
@@ -0,0 +1,220 @@
+package com.timebusker.phoenix.dialect.write;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.apache.phoenix.execute.MutationState;
+import org.apache.phoenix.jdbc.PhoenixConnection;
+
+/**
+ * Coalesces the commits of concurrent Phoenix connections into a single commit.
+ * <p>
+ * The first connection committing opens a group and becomes its leader. Connections to the same
+ * cluster and tenant committing within the group window join it, and the leader then joins their
+ * buffered mutations into a single {@link MutationState} and commits them all at once; Phoenix
+ * sends them in one batch per table, which the HBase client splits per region server. Every
+ * caller blocks until the group is committed.
+ * <p>
+ * A group commits or fails as a whole: if the group commit fails, every member rolls back its
+ * mutations and gets the failure, as if its own commit had failed. The failed group may have
+ * written part of the mutations of any member, as a failed commit of a single Phoenix connection
+ * may have. Connections writing the same rows within a group are not isolated from each other.
+ * <p>
+ * A connection buffering an {@code ON DUPLICATE KEY} upsert, such as a {@code PhoenixCounters}
+ * increment, commits on its own: joining it would merge its server side update with the writes of
+ * other members to the same row.
+ */
+public class GroupCommitter {
+
+    private static final class Group {
+        final String key;
+        final Condition full;
+        final List<PhoenixConnection> members = new ArrayList<>();
+        final CountDownLatch done = new CountDownLatch(1);
+        volatile Exception failure;
+
+        Group(String key, Condition full) {
+            this.key = key;
+            this.full = full;
+        }
+    }
+
+    public static final long DEFAULT_WINDOW_MILLIS = 2L;
+    public static final int DEFAULT_MAX_GROUP_SIZE = 64;
+
+    private final long windowNanos;
+    private final int maxGroupSize;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Map<String, Group> open = new HashMap<>();
+
+    private final LongAdder commits = new LongAdder();
+    private final LongAdder groups = new LongAdder();
+    private final LongAdder failedGroups = new LongAdder();
+
+    public GroupCommitter() {
+        this(DEFAULT_WINDOW_MILLIS, DEFAULT_MAX_GROUP_SIZE);
+    }
+
+    /**
+     * @param windowMillis the time the leader of a group waits for other commits to join it
+     * @param maxGroupSize the commits to coalesce at most; a full group is committed right away
+     */
+    public GroupCommitter(long windowMillis, int maxGroupSize) {
+        if (windowMillis < 0) {
+            throw new IllegalArgumentException("windowMillis must not be negative: " + windowMillis);
+        }
+        if (maxGroupSize <= 0) {
+            throw new IllegalArgumentException("maxGroupSize must be greater than 0: " + maxGroupSize);
+        }
+        this.windowNanos = TimeUnit.MILLISECONDS.toNanos(windowMillis);
+        this.maxGroupSize = maxGroupSize;
+    }
+
+    /**
+     * Commits the mutations buffered by the connection together with those of the connections
+     * committing at the same time, and returns once they are written.
+     */
+    public void commit(PhoenixConnection connection) throws SQLException {
+        if (MutationStates.hasOnDuplicateKey(connection.getMutationState())) {
+            commits.increment();
+            groups.increment();
+            connection.commit();
+            return;
+        }
+        String key = key(connection);
+        Group group;
+        boolean leader;
+        lock.lock();
+        try {
+            group = open.get(key);
+            leader = group == null;
+            if (leader) {
+                group = new Group(key, lock.newCondition());
+                open.put(key, group);
+            }
+            group.members.add(connection);
+            if (group.members.size() >= maxGroupSize) {
+                // No one else can join, let the leader commit now
+                open.remove(key);
+                group.full.signal();
+            }
+        } finally {
+            lock.unlock();
+        }
+        commits.increment();
+
+        if (leader) {
+            lead(group);
+        } else {
+            follow(group, connection);
+        }
+    }
+
+    private void lead(Group group) throws SQLException {
+        List<PhoenixConnection> members;
+        lock.lock();
+        try {
+            long remaining = windowNanos;
+            while (group.members.size() < maxGroupSize && remaining > 0) {
+                remaining = group.full.awaitNanos(remaining);
+            }
+            open.remove(group.key, group);
+            members = new ArrayList<>(group.members);
+        } catch (InterruptedException e) {
+            open.remove(group.key, group);
+            members = new ArrayList<>(group.members);
+            Thread.currentThread().interrupt();
+        } finally {
+            lock.unlock();
+        }
+        groups.increment();
+
+        PhoenixConnection connection = members.get(0);
+        if (members.size() == 1) {
+            group.done.countDown();
+            connection.commit();
+            return;
+        }
+        try {
+            // A state of its own to join every member into, the leader included
+            MutationState state = new MutationState(connection.getMutationState());
+            for (PhoenixConnection member : members) {
+                state.join(member.getMutationState());
+            }
+            state.commit();
+        } catch (SQLException | RuntimeException e) {
+            failedGroups.increment();
+            group.failure = e;
+        } finally {
+            group.done.countDown();
+        }
+        complete(group, connection);
+    }
+
+    private static void follow(Group group, PhoenixConnection connection) throws SQLException {
+        // The mutations of this connection were handed to the leader, so wait for it whatever
+        boolean interrupted = false;
+        while (true) {
+            try {
+                group.done.await();
+                break;
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+        complete(group, connection);
+    }
+
+    private static void complete(Group group, PhoenixConnection connection) throws SQLException {
+        // Discard the mutations the group committed, or failed to
+        connection.rollback();
+        if (group.failure != null) {
+            throw new SQLException("group commit failed", group.failure);
+        }
+    }
+
+    private static String key(PhoenixConnection connection) {
+        return connection.getURL() + '|' + connection.getTenantId() + '|' + connection.getSCN();
+    }
+
+    /**
+     * Returns the number of commits requested.
+     */
+    public long getCommitCount() {
+        return commits.sum();
+    }
+
+    /**
+     * Returns the number of group commits sent to the cluster.
+     */
+    public long getGroupCount() {
+        return groups.sum();
+    }
+
+    /**
+     * Returns the number of group commits that failed, whose members were all rolled back.
+     */
+    public long getFailedGroupCount() {
+        return failedGroups.sum();
+    }
+
+    /**
+     * Returns the average number of commits per group, or 0 if there were none yet.
+     */
+    public double getAverageGroupSize() {
+        long g = groups.sum();
+        return g == 0 ? 0d : (double) commits.sum() / g;
+    }
+}
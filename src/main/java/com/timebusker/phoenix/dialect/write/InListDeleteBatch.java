@@ -0,0 +1,309 @@
+package com.timebusker.phoenix.dialect.write;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.hibernate.HibernateException;
+import org.hibernate.StaleStateException;
+import org.hibernate.engine.jdbc.batch.spi.Batch;
+import org.hibernate.engine.jdbc.batch.spi.BatchKey;
+import org.hibernate.engine.jdbc.batch.spi.BatchObserver;
+import org.hibernate.engine.jdbc.spi.JdbcCoordinator;
+import org.hibernate.engine.jdbc.spi.JdbcServices;
+import org.hibernate.jdbc.Expectations;
+
+import com.timebusker.phoenix.dialect.SqlLexer;
+import com.timebusker.phoenix.dialect.SqlLexer.Token;
+
+/**
+ * Runs the batched {@code delete from T where k1=? and k2=?} statements of the entity and
+ * collection persisters as a single {@code delete from T where (k1,k2) in ((?,?),(?,?),...)},
+ * which Phoenix executes as one point lookup or skip scan instead of compiling and running a
+ * statement per row. Non key columns in the list, such as the version of versioned entities, do
+ * not widen the scan: Phoenix still looks the rows up by key and filters them on the server.
+ * <p>
+ * The persisters bind their parameters into a statement that only records them; they are bound
+ * to the coalesced statement when the batch is full or executed. Batches of any other statement
+ * are run by the standard batch, and so is the rest of a batch once a persister calls a method
+ * the recording statement does not know: the rows recorded so far are deleted, and the row being
+ * bound is replayed on the statement of the standard batch.
+ */
+class InListDeleteBatch implements Batch {
+
+    private static final Object[] NO_ARGS = new Object[0];
+
+    // A recorded setter call of the parameter in its first argument
+    private static final class Binding {
+        final Method method;
+        final Object[] args;
+
+        Binding(Method method, Object[] args) {
+            this.method = method;
+            this.args = args;
+        }
+
+        void bind(PreparedStatement statement, int offset) throws SQLException {
+            Object[] a = args.clone();
+            a[0] = (Integer) a[0] + offset;
+            try {
+                method.invoke(statement, a);
+            } catch (InvocationTargetException e) {
+                if (e.getCause() instanceof SQLException) {
+                    throw (SQLException) e.getCause();
+                }
+                throw new HibernateException(e.getCause());
+            } catch (IllegalAccessException e) {
+                throw new HibernateException(e);
+            }
+        }
+    }
+
+    private final Batch delegate;
+    private final BatchKey key;
+    private final JdbcCoordinator jdbcCoordinator;
+    private final int batchSize;
+    private final Set<BatchObserver> observers = new LinkedHashSet<>();
+    private final List<List<Binding>> rows = new ArrayList<>();
+    private List<Binding> row = new ArrayList<>();
+
+    private String sql;
+    private String[] shape;
+    private PreparedStatement recorder;
+    private PreparedStatement fallback;
+    private boolean delegating;
+
+    InListDeleteBatch(Batch delegate, BatchKey key, JdbcCoordinator jdbcCoordinator, int batchSize) {
+        this.delegate = delegate;
+        this.key = key;
+        this.jdbcCoordinator = jdbcCoordinator;
+        this.batchSize = batchSize;
+    }
+
+    @Override
+    public BatchKey getKey() {
+        return key;
+    }
+
+    @Override
+    public void addObserver(BatchObserver observer) {
+        observers.add(observer);
+        delegate.addObserver(observer);
+    }
+
+    @Override
+    public PreparedStatement getBatchStatement(String sql, boolean callable) {
+        if (!delegating && this.sql == null) {
+            this.sql = sql;
+            shape = callable ? null : parse(sql);
+            delegating = shape == null;
+        } else if (!delegating && !sql.equals(this.sql)) {
+            performExecution();
+            delegating = true;
+        }
+        if (delegating) {
+            return delegate.getBatchStatement(sql, callable);
+        }
+        if (recorder == null) {
+            recorder = (PreparedStatement) Proxy.newProxyInstance(getClass().getClassLoader(),
+                    new Class<?>[] {PreparedStatement.class}, (proxy, method, args) -> record(method, args));
+        }
+        return recorder;
+    }
+
+    private Object record(Method method, Object[] args) throws Throwable {
+        if (fallback != null) {
+            return invoke(fallback, method, args);
+        }
+        Object[] a = args != null ? args : NO_ARGS;
+        if (method.getName().startsWith("set") && a.length > 1 && a[0] instanceof Integer) {
+            row.add(new Binding(method, a));
+            return null;
+        }
+        switch (method.getName()) {
+            case "clearParameters":
+                row.clear();
+                return null;
+            case "getConnection":
+                return jdbcCoordinator.getLogicalConnection().getPhysicalConnection();
+            case "isClosed":
+                return false;
+            case "close":
+                return null;
+            case "hashCode":
+                return System.identityHashCode(recorder);
+            case "equals":
+                return recorder == a[0];
+            case "toString":
+                return sql;
+            default:
+                return invoke(fallBack(), method, args);
+        }
+    }
+
+    // Runs the rest of the batch through the standard batch, starting with the row being bound
+    private PreparedStatement fallBack() throws SQLException {
+        performExecution();
+        delegating = true;
+        fallback = delegate.getBatchStatement(sql, false);
+        for (Binding binding : row) {
+            binding.bind(fallback, 0);
+        }
+        row.clear();
+        return fallback;
+    }
+
+    private static Object invoke(PreparedStatement statement, Method method, Object[] args) throws Throwable {
+        try {
+            return method.invoke(statement, args);
+        } catch (InvocationTargetException e) {
+            throw e.getCause();
+        }
+    }
+
+    @Override
+    public void addToBatch() {
+        if (delegating) {
+            delegate.addToBatch();
+            return;
+        }
+        rows.add(row);
+        row = new ArrayList<>();
+        if (rows.size() >= batchSize) {
+            performExecution();
+            for (BatchObserver observer : observers) {
+                observer.batchImplicitlyExecuted();
+            }
+        }
+    }
+
+    @Override
+    public void execute() {
+        if (delegating) {
+            delegate.execute();
+            return;
+        }
+        performExecution();
+        for (BatchObserver observer : observers) {
+            observer.batchExplicitlyExecuted();
+        }
+    }
+
+    private void performExecution() {
+        if (rows.isEmpty()) {
+            return;
+        }
+        int count = rows.size();
+        int columns = shape.length - 2;
+        String delete = count == 1 ? sql : build(shape, count);
+        try {
+            PreparedStatement statement = jdbcCoordinator.getStatementPreparer().prepareStatement(delete);
+            try {
+                for (int i = 0; i < count; i++) {
+                    for (Binding binding : rows.get(i)) {
+                        binding.bind(statement, i * columns);
+                    }
+                }
+                int deleted = jdbcCoordinator.getResultSetReturn().executeUpdate(statement);
+                if (key.getExpectation() != Expectations.NONE && deleted != count) {
+                    throw new StaleStateException("Batch delete returned unexpected row count; actual row count: "
+                            + deleted + "; expected: " + count);
+                }
+            } finally {
+                jdbcCoordinator.getResourceRegistry().release(statement);
+                jdbcCoordinator.afterStatementExecution();
+            }
+        } catch (SQLException e) {
+            throw jdbcCoordinator.getJdbcSessionOwner().getJdbcSessionContext().getServiceRegistry()
+                    .getService(JdbcServices.class).getSqlExceptionHelper()
+                    .convert(e, "could not execute batch", delete);
+        } finally {
+            rows.clear();
+        }
+    }
+
+    @Override
+    public void release() {
+        rows.clear();
+        row.clear();
+        delegate.release();
+    }
+
+    /**
+     * Parses a {@code delete from T where c1=? and c2=?} statement into the text before its
+     * DELETE keyword, the table and then the columns, or returns null for any other statement.
+     */
+    static String[] parse(String sql) {
+        SqlLexer lexer = new SqlLexer(sql);
+        if (lexer.nextSignificant() != Token.WORD || !lexer.is("delete")) {
+            return null;
+        }
+        String prefix = sql.substring(0, lexer.start());
+        if (lexer.nextSignificant() != Token.WORD || !lexer.is("from")) {
+            return null;
+        }
+
+        // Table name, up to the WHERE keyword
+        int from = lexer.end();
+        Token token;
+        while ((token = lexer.next()) != Token.EOF && !(lexer.depth() == 0 && lexer.is("where"))) {
+        }
+        if (token == Token.EOF) {
+            return null;
+        }
+        List<String> shape = new ArrayList<>();
+        shape.add(prefix);
+        shape.add(sql.substring(from, lexer.start()).trim());
+
+        // Conditions, separated by AND, that must all be column=?
+        from = lexer.end();
+        do {
+            token = lexer.next();
+            if (token == Token.EOF || (lexer.depth() == 0 && lexer.is("and"))) {
+                String condition = sql.substring(from, lexer.start()).trim();
+                int eq = condition.indexOf('=');
+                if (eq <= 0 || "<>!".indexOf(condition.charAt(eq - 1)) != -1
+                        || !condition.substring(eq + 1).trim().equals("?")) {
+                    return null;
+                }
+                shape.add(condition.substring(0, eq).trim());
+                from = lexer.end();
+            }
+        } while (token != Token.EOF);
+        return shape.toArray(new String[shape.size()]);
+    }
+
+    /**
+     * Builds the delete of the given number of rows of a parsed statement.
+     */
+    static String build(String[] shape, int rows) {
+        int columns = shape.length - 2;
+        StringBuilder sb = new StringBuilder(shape[0]).append("delete from ").append(shape[1]).append(" where ");
+        if (columns > 1) {
+            sb.append('(');
+        }
+        for (int i = 0; i < columns; i++) {
+            sb.append(i == 0 ? "" : ",").append(shape[i + 2]);
+        }
+        sb.append(columns > 1 ? ") in (" : " in (");
+        for (int r = 0; r < rows; r++) {
+            sb.append(r == 0 ? "" : ",");
+            if (columns > 1) {
+                sb.append('(');
+            }
+            for (int i = 0; i < columns; i++) {
+                sb.append(i == 0 ? "?" : ",?");
+            }
+            if (columns > 1) {
+                sb.append(')');
+            }
+        }
+        return sb.append(')').toString();
+    }
+}
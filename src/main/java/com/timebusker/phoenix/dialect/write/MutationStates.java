@@ -0,0 +1,81 @@
+package com.timebusker.phoenix.dialect.write;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.reflect.Field;
+import java.util.Map;
+
+import org.apache.phoenix.execute.MutationState;
+
+/**
+ * Reads the rows, bytes and upserts buffered by a {@link MutationState}, which Phoenix 4.13 keeps
+ * in private fields without getters.
+ */
+final class MutationStates {
+
+    private static final MethodHandle NUM_ROWS = getter("numRows");
+    private static final MethodHandle ESTIMATED_SIZE = getter("estimatedSize");
+    private static final MethodHandle MUTATIONS = getter("mutations");
+    private static final MethodHandle ON_DUP_KEY_BYTES =
+            getter(MutationState.RowMutationState.class, "onDupKeyBytes");
+
+    private MutationStates() {
+    }
+
+    private static MethodHandle getter(String name) {
+        return getter(MutationState.class, name);
+    }
+
+    private static MethodHandle getter(Class<?> type, String name) {
+        try {
+            Field field = type.getDeclaredField(name);
+            field.setAccessible(true);
+            return MethodHandles.lookup().unreflectGetter(field);
+        } catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    /**
+     * Returns the rows buffered by the mutation state.
+     */
+    static int getNumRows(MutationState state) {
+        try {
+            return (int) NUM_ROWS.invokeExact(state);
+        } catch (Throwable e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Returns the estimated bytes of the rows buffered by the mutation state.
+     */
+    static long getEstimatedSize(MutationState state) {
+        try {
+            return (long) ESTIMATED_SIZE.invokeExact(state);
+        } catch (Throwable e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Returns whether the mutation state buffers an {@code ON DUPLICATE KEY} upsert, which is
+     * evaluated against the row on the server and therefore can not be merged with other writes
+     * of the same row.
+     */
+    static boolean hasOnDuplicateKey(MutationState state) {
+        try {
+            Map<?, ?> mutations = (Map<?, ?>) MUTATIONS.invoke(state);
+            for (Object rows : mutations.values()) {
+                for (Object row : ((Map<?, ?>) rows).values()) {
+                    if (ON_DUP_KEY_BYTES.invoke(row) != null) {
+                        return true;
+                    }
+                }
+            }
+            return false;
+        } catch (Throwable e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,36 @@
+package com.timebusker.phoenix.dialect.write;
+
+import org.hibernate.engine.jdbc.batch.internal.BatchBuilderImpl;
+import org.hibernate.engine.jdbc.batch.spi.Batch;
+import org.hibernate.engine.jdbc.batch.spi.BatchKey;
+import org.hibernate.engine.jdbc.spi.JdbcCoordinator;
+
+/**
+ * Builds batches that coalesce the row deletes of a flush into multi-key deletes of up to the
+ * JDBC batch size rows each.
+ *
+ * @see com.timebusker.phoenix.dialect.PhoenixDialect#DELETE_COALESCE
+ */
+public class PhoenixBatchBuilder extends BatchBuilderImpl {
+
+    public PhoenixBatchBuilder(int jdbcBatchSize) {
+        super(jdbcBatchSize);
+    }
+
+    @Override
+    public Batch buildBatch(BatchKey key, JdbcCoordinator jdbcCoordinator) {
+        Batch batch = super.buildBatch(key, jdbcCoordinator);
+        int batchSize = getBatchSize(jdbcCoordinator);
+        return batchSize > 1 ? new InListDeleteBatch(batch, key, jdbcCoordinator, batchSize) : batch;
+    }
+
+    private int getBatchSize(JdbcCoordinator jdbcCoordinator) {
+        Integer sessionBatchSize = jdbcCoordinator.getJdbcSessionOwner().getJdbcBatchSize();
+        if (sessionBatchSize != null) {
+            return sessionBatchSize;
+        }
+        // The batch size set by the dialect only reaches the session factory settings
+        return Math.max(getJdbcBatchSize(), jdbcCoordinator.getJdbcSessionOwner().getJdbcSessionContext()
+                .getSessionFactory().getSessionFactoryOptions().getJdbcBatchSize());
+    }
+}
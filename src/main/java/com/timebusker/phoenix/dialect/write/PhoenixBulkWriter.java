@@ -0,0 +1,260 @@
+package com.timebusker.phoenix.dialect.write;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Stream;
+
+import javax.persistence.EntityManagerFactory;
+
+import org.hibernate.HibernateException;
+import org.hibernate.SessionFactory;
+import org.hibernate.StatelessSession;
+
+/**
+ * Bulk loads entities with several threads:
+ * <pre>
+ *     PhoenixBulkWriter writer = new PhoenixBulkWriter(emf, 8, 10000);
+ *     PhoenixBulkWriter.Result result = writer.write(rows.map(this::toEntity));
+ * </pre>
+ * The entities are split in batches, handed to worker threads with a stateless session each,
+ * and every batch is inserted with the UPSERTs of the dialect and committed on its own. The
+ * iteration of the entities is throttled to the pace of the workers, so they need not fit in
+ * memory.
+ * <p>
+ * With an {@link AdaptiveBatchController} instead of a fixed batch size, every batch takes the
+ * size of the controller when it is filled, and the commits of the workers feed it back.
+ * <p>
+ * The first batch that fails stops the load, after the batches being written complete. The
+ * batches committed until then stay written. Whatever a worker throws, errors included, is
+ * rethrown by the load.
+ */
+public class PhoenixBulkWriter {
+
+    /**
+     * Notified after every batch committed.
+     */
+    public interface ProgressListener {
+        void progress(long rows, double rowsPerSecond);
+    }
+
+    /**
+     * The outcome of a load.
+     */
+    public static final class Result {
+        private final long rows;
+        private final long nanos;
+
+        Result(long rows, long nanos) {
+            this.rows = rows;
+            this.nanos = nanos;
+        }
+
+        public long getRows() {
+            return rows;
+        }
+
+        public long getElapsedMillis() {
+            return TimeUnit.NANOSECONDS.toMillis(nanos);
+        }
+
+        public double getRowsPerSecond() {
+            return rowsPerSecond(rows, nanos);
+        }
+
+        @Override
+        public String toString() {
+            return "Result [rows=" + rows + ", elapsedMillis=" + getElapsedMillis()
+                    + ", rowsPerSecond=" + getRowsPerSecond() + "]";
+        }
+    }
+
+    private static final long POLL_MILLIS = 100L;
+
+    private final SessionFactory factory;
+    private final int threads;
+    private final int batchSize;
+    private final AdaptiveBatchController controller;
+    private volatile ProgressListener progressListener;
+
+    /**
+     * @param factory the factory of the persistence unit of the entities
+     * @param threads the worker threads, each with its own session and connection
+     * @param batchSize the entities to commit per transaction
+     */
+    public PhoenixBulkWriter(EntityManagerFactory factory, int threads, int batchSize) {
+        this(factory, threads, batchSize, null);
+    }
+
+    /**
+     * @param factory the factory of the persistence unit of the entities
+     * @param threads the worker threads, each with its own session and connection
+     * @param controller the controller sizing the batches after the latency of their commits
+     */
+    public PhoenixBulkWriter(EntityManagerFactory factory, int threads, AdaptiveBatchController controller) {
+        this(factory, threads, controller.getMinSize(), controller);
+    }
+
+    private PhoenixBulkWriter(EntityManagerFactory factory, int threads, int batchSize,
+            AdaptiveBatchController controller) {
+        if (threads <= 0 || batchSize <= 0) {
+            throw new IllegalArgumentException("threads and batchSize must be greater than 0");
+        }
+        this.factory = factory.unwrap(SessionFactory.class);
+        this.threads = threads;
+        this.batchSize = batchSize;
+        this.controller = controller;
+    }
+
+    public void setProgressListener(ProgressListener progressListener) {
+        this.progressListener = progressListener;
+    }
+
+    /**
+     * Writes the entities of a stream, which is consumed but not closed.
+     */
+    public Result write(Stream<?> entities) {
+        return write(entities.iterator());
+    }
+
+    /**
+     * Writes the entities of an iterator.
+     *
+     * @throws HibernateException as thrown by the first batch that failed
+     * @throws Error as thrown by a worker thread
+     */
+    public Result write(Iterator<?> entities) {
+        // A couple of batches ahead per worker, so they never wait for the iteration
+        BlockingQueue<List<Object>> batches = new ArrayBlockingQueue<>(threads * 2);
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+        LongAdder rows = new LongAdder();
+        long start = System.nanoTime();
+        AtomicBoolean done = new AtomicBoolean();
+
+        Thread[] workers = new Thread[threads];
+        for (int i = 0; i < threads; i++) {
+            workers[i] = new Thread(() -> {
+                StatelessSession session = null;
+                try {
+                    session = factory.openStatelessSession();
+                    while (true) {
+                        List<Object> batch = batches.poll(POLL_MILLIS, TimeUnit.MILLISECONDS);
+                        if (batch == null) {
+                            if (done.get() && batches.isEmpty()) {
+                                return;
+                            }
+                            continue;
+                        }
+                        if (failure.get() != null) {
+                            continue;
+                        }
+                        long t = System.nanoTime();
+                        try {
+                            StatelessWrites.insert(session, batch);
+                        } catch (RuntimeException e) {
+                            if (controller != null) {
+                                controller.onFailure();
+                            }
+                            throw e;
+                        }
+                        if (controller != null) {
+                            controller.onCommit(batch.size(), System.nanoTime() - t);
+                        }
+                        rows.add(batch.size());
+                        ProgressListener listener = progressListener;
+                        if (listener != null) {
+                            long written = rows.sum();
+                            listener.progress(written, rowsPerSecond(written, System.nanoTime() - start));
+                        }
+                    }
+                } catch (InterruptedException e) {
+                    failure.compareAndSet(null, new HibernateException("Interrupted while writing", e));
+                } catch (Throwable e) {
+                    // Otherwise the thread would die silently, and the load succeed without its rows
+                    failure.compareAndSet(null, e);
+                } finally {
+                    if (session != null) {
+                        session.close();
+                    }
+                }
+            }, "phoenix-bulk-writer-" + i);
+            workers[i].start();
+        }
+
+        try {
+            int size = batchSize();
+            List<Object> batch = new ArrayList<>(size);
+            while (failure.get() == null && entities.hasNext()) {
+                batch.add(entities.next());
+                if (batch.size() >= size || !entities.hasNext()) {
+                    while (failure.get() == null && !batches.offer(batch, POLL_MILLIS, TimeUnit.MILLISECONDS)) {
+                        if (!isAlive(workers)) {
+                            failure.compareAndSet(null, new HibernateException("The bulk writer threads stopped"));
+                        }
+                    }
+                    size = batchSize();
+                    batch = new ArrayList<>(size);
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            failure.compareAndSet(null, new HibernateException("Interrupted while writing", e));
+        } catch (RuntimeException e) {
+            failure.compareAndSet(null, e);
+        } finally {
+            done.set(true);
+            join(workers);
+        }
+
+        Throwable t = failure.get();
+        if (t instanceof RuntimeException) {
+            throw (RuntimeException) t;
+        }
+        if (t instanceof Error) {
+            throw (Error) t;
+        }
+        if (t != null) {
+            throw new HibernateException(t);
+        }
+        return new Result(rows.sum(), System.nanoTime() - start);
+    }
+
+    private int batchSize() {
+        return controller != null ? controller.getSize() : batchSize;
+    }
+
+    private static boolean isAlive(Thread[] workers) {
+        for (Thread worker : workers) {
+            if (worker.isAlive()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static void join(Thread[] workers) {
+        boolean interrupted = false;
+        for (Thread worker : workers) {
+            while (worker.isAlive()) {
+                try {
+                    worker.join();
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static double rowsPerSecond(long rows, long nanos) {
+        return nanos == 0 ? 0d : rows * 1_000_000_000d / nanos;
+    }
+}
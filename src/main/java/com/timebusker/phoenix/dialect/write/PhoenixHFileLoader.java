@@ -0,0 +1,238 @@
+package com.timebusker.phoenix.dialect.write;
+
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Stream;
+
+import javax.persistence.EntityManagerFactory;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.hbase.CellUtil;
+import org.apache.hadoop.hbase.HColumnDescriptor;
+import org.apache.hadoop.hbase.KeyValue;
+import org.apache.hadoop.hbase.TableName;
+import org.apache.hadoop.hbase.client.Admin;
+import org.apache.hadoop.hbase.client.ConnectionFactory;
+import org.apache.hadoop.hbase.client.RegionLocator;
+import org.apache.hadoop.hbase.client.Table;
+import org.apache.hadoop.hbase.io.hfile.CacheConfig;
+import org.apache.hadoop.hbase.io.hfile.HFile;
+import org.apache.hadoop.hbase.io.hfile.HFileContext;
+import org.apache.hadoop.hbase.io.hfile.HFileContextBuilder;
+import org.apache.hadoop.hbase.mapreduce.LoadIncrementalHFiles;
+import org.apache.hadoop.hbase.regionserver.StoreFile;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.apache.hadoop.hbase.util.Pair;
+import org.apache.phoenix.jdbc.PhoenixConnection;
+import org.apache.phoenix.util.PhoenixRuntime;
+import org.hibernate.HibernateException;
+import org.hibernate.SessionFactory;
+import org.hibernate.StatelessSession;
+import org.hibernate.Transaction;
+import org.hibernate.engine.spi.SharedSessionContractImplementor;
+
+/**
+ * Loads entities offline through HFiles and the HBase incremental bulk load, bypassing the
+ * write path and the WAL of the region servers:
+ * <pre>
+ *     PhoenixHFileLoader loader = new PhoenixHFileLoader(emf, new Path("hdfs:///tmp/load"), 100000);
+ *     PhoenixBulkWriter.Result result = loader.load(rows.map(this::toEntity));
+ * </pre>
+ * Every chunk of entities is inserted in a stateless session that is never committed. The cells
+ * Phoenix encodes for those UPSERTs, with the salting and column encoding of the tables and the
+ * rows of their secondary indexes, are taken from the connection before the rollback, sorted,
+ * split by the current region boundaries and column family, and written as HFiles under the
+ * working directory. The HFiles of every table are bulk loaded once all the chunks are written.
+ * <p>
+ * The chunk size must stay under {@code phoenix.mutate.maxSize}. The load is meant for new rows:
+ * the index rows of the previous values of existing rows are not deleted. The rows only become
+ * visible when their table is loaded, and the HFiles of a failed load are left in the working
+ * directory.
+ */
+public class PhoenixHFileLoader {
+
+    private final SessionFactory factory;
+    private final Path workDir;
+    private final int chunkSize;
+
+    /**
+     * @param factory the factory of the persistence unit of the entities
+     * @param workDir the directory to write the HFiles to, in the file system of the cluster
+     * @param chunkSize the entities to encode at once
+     */
+    public PhoenixHFileLoader(EntityManagerFactory factory, Path workDir, int chunkSize) {
+        if (chunkSize <= 0) {
+            throw new IllegalArgumentException("chunkSize must be greater than 0");
+        }
+        this.factory = factory.unwrap(SessionFactory.class);
+        this.workDir = workDir;
+        this.chunkSize = chunkSize;
+    }
+
+    /**
+     * Loads the entities of a stream, which is consumed but not closed.
+     */
+    public PhoenixBulkWriter.Result load(Stream<?> entities) {
+        return load(entities.iterator());
+    }
+
+    /**
+     * Loads the entities of an iterator.
+     */
+    public PhoenixBulkWriter.Result load(Iterator<?> entities) {
+        long start = System.nanoTime();
+        long rows = 0;
+        StatelessSession session = factory.openStatelessSession();
+        try {
+            Configuration conf = getConnection(session).unwrap(PhoenixConnection.class)
+                    .getQueryServices().getConfiguration();
+            FileSystem fs = workDir.getFileSystem(conf);
+            Set<TableName> tables = new LinkedHashSet<>();
+            try (org.apache.hadoop.hbase.client.Connection hbase = ConnectionFactory.createConnection(conf)) {
+                List<Object> chunk = new ArrayList<>(chunkSize);
+                for (int n = 0; entities.hasNext(); n++) {
+                    while (chunk.size() < chunkSize && entities.hasNext()) {
+                        chunk.add(entities.next());
+                    }
+                    for (Pair<byte[], List<KeyValue>> cells : encode(session, chunk)) {
+                        TableName table = TableName.valueOf(cells.getFirst());
+                        writeHFiles(conf, fs, hbase, table, n, cells.getSecond());
+                        tables.add(table);
+                    }
+                    rows += chunk.size();
+                    chunk.clear();
+                }
+                for (TableName table : tables) {
+                    bulkLoad(conf, fs, hbase, table);
+                }
+            }
+        } catch (SQLException | IOException e) {
+            throw new HibernateException("Could not bulk load the entities", e);
+        } finally {
+            session.close();
+        }
+        return new PhoenixBulkWriter.Result(rows, System.nanoTime() - start);
+    }
+
+    /**
+     * Returns the cells of the UPSERTs of the entities, by physical table name.
+     */
+    private static List<Pair<byte[], List<KeyValue>>> encode(StatelessSession session, List<Object> entities)
+            throws SQLException {
+        List<Pair<byte[], List<KeyValue>>> cells = new ArrayList<>();
+        Transaction transaction = session.beginTransaction();
+        try {
+            for (Object entity : entities) {
+                session.insert(entity);
+            }
+            ((SharedSessionContractImplementor) session).getJdbcCoordinator().executeBatch();
+            Iterator<Pair<byte[], List<KeyValue>>> data = PhoenixRuntime.getUncommittedDataIterator(
+                    getConnection(session), true);
+            while (data.hasNext()) {
+                cells.add(data.next());
+            }
+        } finally {
+            transaction.rollback();
+        }
+        return cells;
+    }
+
+    // The connection may be released after every transaction
+    private static Connection getConnection(StatelessSession session) {
+        return ((SharedSessionContractImplementor) session).getJdbcCoordinator()
+                .getLogicalConnection().getPhysicalConnection();
+    }
+
+    private void writeHFiles(Configuration conf, FileSystem fs, org.apache.hadoop.hbase.client.Connection hbase,
+            TableName tableName, int chunk, List<KeyValue> cells) throws IOException {
+        // Like the HFileOutputFormat, stamp the cells with the load time instead of the latest timestamp
+        byte[] now = Bytes.toBytes(System.currentTimeMillis());
+        for (KeyValue cell : cells) {
+            cell.updateLatestStamp(now);
+        }
+        Collections.sort(cells, KeyValue.COMPARATOR);
+
+        Path tableDir = getTableDir(tableName);
+        Map<String, HFile.Writer> writers = new HashMap<>();
+        try (Table table = hbase.getTable(tableName); RegionLocator locator = hbase.getRegionLocator(tableName)) {
+            byte[][] startKeys = locator.getStartKeys();
+            int region = 0;
+            for (KeyValue cell : cells) {
+                // The cells are sorted, so the region of each one follows the region of the previous one
+                int previous = region;
+                while (region + 1 < startKeys.length && Bytes.compareTo(startKeys[region + 1], 0,
+                        startKeys[region + 1].length, cell.getRowArray(), cell.getRowOffset(), cell.getRowLength()) <= 0) {
+                    region++;
+                }
+                if (region != previous) {
+                    close(writers);
+                }
+                String family = Bytes.toString(CellUtil.cloneFamily(cell));
+                HFile.Writer writer = writers.get(family);
+                if (writer == null) {
+                    HColumnDescriptor descriptor = table.getTableDescriptor().getFamily(CellUtil.cloneFamily(cell));
+                    HFileContext context = new HFileContextBuilder()
+                            .withCompression(descriptor.getCompressionType())
+                            .withBlockSize(descriptor.getBlocksize())
+                            .withDataBlockEncoding(descriptor.getDataBlockEncoding())
+                            .build();
+                    writer = HFile.getWriterFactory(conf, new CacheConfig(conf))
+                            .withPath(fs, new Path(new Path(tableDir, family),
+                                    String.format("chunk-%06d-region-%05d", chunk, region)))
+                            .withFileContext(context)
+                            .create();
+                    writer.appendFileInfo(StoreFile.BULKLOAD_TIME_KEY, now);
+                    writer.appendFileInfo(StoreFile.MAJOR_COMPACTION_KEY, Bytes.toBytes(false));
+                    writers.put(family, writer);
+                }
+                writer.append(cell);
+            }
+        } finally {
+            close(writers);
+        }
+    }
+
+    private void bulkLoad(Configuration conf, FileSystem fs, org.apache.hadoop.hbase.client.Connection hbase,
+            TableName tableName) throws IOException {
+        Path tableDir = getTableDir(tableName);
+        try (Admin admin = hbase.getAdmin(); Table table = hbase.getTable(tableName);
+                RegionLocator locator = hbase.getRegionLocator(tableName)) {
+            new LoadIncrementalHFiles(conf).doBulkLoad(tableDir, admin, table, locator);
+        } catch (IOException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new IOException("Could not bulk load the HFiles of " + tableName, e);
+        }
+        fs.delete(tableDir, true);
+    }
+
+    private Path getTableDir(TableName tableName) {
+        return new Path(workDir, tableName.getNameAsString().replace(TableName.NAMESPACE_DELIM, '.'));
+    }
+
+    private static void close(Map<String, HFile.Writer> writers) throws IOException {
+        IOException failure = null;
+        for (HFile.Writer writer : writers.values()) {
+            try {
+                writer.close();
+            } catch (IOException e) {
+                failure = e;
+            }
+        }
+        writers.clear();
+        if (failure != null) {
+            throw failure;
+        }
+    }
+}
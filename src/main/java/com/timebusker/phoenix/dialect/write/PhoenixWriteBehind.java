@@ -0,0 +1,516 @@
+package com.timebusker.phoenix.dialect.write;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+import javax.persistence.EntityManagerFactory;
+
+import org.hibernate.SessionFactory;
+import org.hibernate.StatelessSession;
+
+/**
+ * Persists fire-and-forget entities asynchronously, for telemetry-like data that does not need
+ * to be written before the caller goes on:
+ * <pre>
+ *     PhoenixWriteBehind writeBehind = new PhoenixWriteBehind(emf, 100000, 1000, 2, 100,
+ *             PhoenixWriteBehind.OverflowPolicy.DROP_OLDEST);
+ *     ...
+ *     writeBehind.write(event);
+ *     ...
+ *     writeBehind.close();
+ * </pre>
+ * The entities are queued in a bounded lock-free queue and written in batches by background
+ * threads, each batch in a transaction of its own stateless session, so they become the same
+ * UPSERTs as any other insert, without dirty checking nor first-level cache. A batch is written
+ * once it is full or the flush interval elapsed since the last one. An entity whose row already
+ * exists overwrites it.
+ * <p>
+ * There is no delivery guarantee: the entities still queued are lost if the JVM stops before
+ * {@link #close()} returns, and the entities of a failed batch are reported to the
+ * {@link FailureListener} and discarded.
+ * <p>
+ * Unless a {@link WriteSpool} is set: the batches that fail, and with the
+ * {@link OverflowPolicy#SPOOL} policy the entities that do not fit in the queue, are then
+ * serialized to the spool, which a background thread replays in order once batches can be
+ * written again. The spool is only used when writes fail or fall behind. Spooled entities are
+ * written after the entities queued meanwhile, and must be {@link java.io.Serializable}.
+ * <p>
+ * A spooled batch whose replay fails without a database error, such as an entity that is not
+ * mapped, is reported to the {@link FailureListener} and removed from the spool right away. A
+ * database error is retried while the cluster seems unavailable, and the batch is given up the
+ * same way once it failed the {@linkplain #setMaxReplayAttempts(int) maximum attempts}, not
+ * counting the attempts after which no other batch could be written either.
+ * <p>
+ * With an {@link AdaptiveBatchController} instead of a fixed batch size, the batches take the
+ * size of the controller, which follows the latency and the failures of their commits.
+ */
+public class PhoenixWriteBehind implements AutoCloseable {
+
+    /**
+     * What {@link PhoenixWriteBehind#write(Object)} does when the queue is full.
+     */
+    public enum OverflowPolicy {
+        /** Waits until there is room in the queue. */
+        BLOCK,
+        /** Discards the entity written. */
+        DROP_NEWEST,
+        /** Discards the oldest queued entity to make room for the entity written. */
+        DROP_OLDEST,
+        /** Throws a {@link RejectedExecutionException}. */
+        FAIL,
+        /** Appends the entity to the spool, and waits until there is room if there is no spool. */
+        SPOOL
+    }
+
+    /**
+     * Notified of the batches that could not be written. Exceptions thrown by the listener are
+     * ignored.
+     */
+    public interface FailureListener {
+        void writeFailed(List<Object> entities, RuntimeException cause);
+    }
+
+    // Waiting for room in the queue, which the workers do not signal
+    private static final long MAX_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+    private static final long REPLAY_RETRY_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+    public static final int DEFAULT_MAX_REPLAY_ATTEMPTS = 3;
+
+    private final SessionFactory factory;
+    private final int capacity;
+    private final int batchSize;
+    private final AdaptiveBatchController controller;
+    private final long flushIntervalNanos;
+    private final OverflowPolicy policy;
+    private volatile FailureListener failureListener;
+    private volatile WriteSpool spool;
+    private volatile int maxReplayAttempts = DEFAULT_MAX_REPLAY_ATTEMPTS;
+    private Thread replayer;
+
+    private final ConcurrentLinkedQueue<Object> queue = new ConcurrentLinkedQueue<>();
+    // Reserved before queuing, so the queue never holds more than its capacity
+    private final AtomicInteger depth = new AtomicInteger();
+    private final Thread[] workers;
+    private final AtomicInteger nextWorker = new AtomicInteger();
+    private volatile boolean closed;
+
+    private final LongAdder accepted = new LongAdder();
+    private final LongAdder dropped = new LongAdder();
+    private final LongAdder written = new LongAdder();
+    private final LongAdder failed = new LongAdder();
+    private final LongAdder flushes = new LongAdder();
+    private final LongAdder flushNanos = new LongAdder();
+    private volatile long lastFlushNanos;
+    private final LongAdder spooled = new LongAdder();
+    private final LongAdder replayed = new LongAdder();
+
+    /**
+     * @param factory the factory of the persistence unit of the entities
+     * @param capacity the entities to queue at most
+     * @param batchSize the entities to write at most per transaction
+     * @param threads the background threads writing the batches
+     * @param flushIntervalMillis the time to wait at most before writing a batch that is not full
+     * @param policy what to do when the queue is full
+     */
+    public PhoenixWriteBehind(EntityManagerFactory factory, int capacity, int batchSize, int threads,
+            long flushIntervalMillis, OverflowPolicy policy) {
+        this(factory, capacity, batchSize, null, threads, flushIntervalMillis, policy);
+    }
+
+    /**
+     * @param factory the factory of the persistence unit of the entities
+     * @param capacity the entities to queue at most
+     * @param controller the controller sizing the batches after the latency of their commits
+     * @param threads the background threads writing the batches
+     * @param flushIntervalMillis the time to wait at most before writing a batch that is not full
+     * @param policy what to do when the queue is full
+     */
+    public PhoenixWriteBehind(EntityManagerFactory factory, int capacity, AdaptiveBatchController controller,
+            int threads, long flushIntervalMillis, OverflowPolicy policy) {
+        this(factory, capacity, controller.getMinSize(), controller, threads, flushIntervalMillis, policy);
+    }
+
+    private PhoenixWriteBehind(EntityManagerFactory factory, int capacity, int batchSize,
+            AdaptiveBatchController controller, int threads, long flushIntervalMillis, OverflowPolicy policy) {
+        if (capacity <= 0 || batchSize <= 0 || threads <= 0) {
+            throw new IllegalArgumentException("capacity, batchSize and threads must be greater than 0");
+        }
+        if (flushIntervalMillis <= 0) {
+            throw new IllegalArgumentException("flushIntervalMillis must be greater than 0: " + flushIntervalMillis);
+        }
+        this.factory = factory.unwrap(SessionFactory.class);
+        this.capacity = capacity;
+        this.batchSize = batchSize;
+        this.controller = controller;
+        this.flushIntervalNanos = TimeUnit.MILLISECONDS.toNanos(flushIntervalMillis);
+        this.policy = policy;
+
+        workers = new Thread[threads];
+        for (int i = 0; i < threads; i++) {
+            workers[i] = new Thread(this::run, "phoenix-write-behind-" + i);
+            workers[i].setDaemon(true);
+            workers[i].start();
+        }
+    }
+
+    public void setFailureListener(FailureListener failureListener) {
+        this.failureListener = failureListener;
+    }
+
+    /**
+     * Sets the attempts to replay a spooled batch failing with a database error before giving it
+     * up, {@value #DEFAULT_MAX_REPLAY_ATTEMPTS} by default. Only the attempts after which other
+     * batches were written count, so the batches are kept while the cluster is unavailable.
+     */
+    public void setMaxReplayAttempts(int maxReplayAttempts) {
+        if (maxReplayAttempts <= 0) {
+            throw new IllegalArgumentException("maxReplayAttempts must be greater than 0: " + maxReplayAttempts);
+        }
+        this.maxReplayAttempts = maxReplayAttempts;
+    }
+
+    /**
+     * Sets the spool of the entities that could not be written, and starts replaying it.
+     */
+    public synchronized void setSpool(WriteSpool spool) {
+        if (this.spool != null) {
+            throw new IllegalStateException("The spool is already set");
+        }
+        this.spool = spool;
+        replayer = new Thread(this::replay, "phoenix-write-behind-replayer");
+        replayer.setDaemon(true);
+        replayer.start();
+    }
+
+    /**
+     * Queues an entity to be persisted.
+     *
+     * @return false if the entity was dropped because the queue is full
+     * @throws RejectedExecutionException if the queue is full and the policy is to fail, or if
+     *         the write-behind is closed
+     */
+    public boolean write(Object entity) {
+        if (entity == null) {
+            throw new IllegalArgumentException("entity must not be null");
+        }
+        int reserved;
+        while ((reserved = reserve()) == 0) {
+            if (closed) {
+                throw new RejectedExecutionException("The write-behind queue is closed");
+            }
+            switch (policy) {
+                case DROP_NEWEST:
+                    dropped.increment();
+                    return false;
+                case DROP_OLDEST:
+                    if (queue.poll() != null) {
+                        depth.decrementAndGet();
+                        dropped.increment();
+                    }
+                    break;
+                case FAIL:
+                    throw new RejectedExecutionException("The write-behind queue is full: " + capacity);
+                case SPOOL:
+                    WriteSpool s = spool;
+                    if (s != null) {
+                        try {
+                            s.append(serialize(Collections.singletonList(entity)));
+                            spooled.increment();
+                            accepted.increment();
+                            return true;
+                        } catch (IOException e) {
+                            throw new RejectedExecutionException("The write-behind queue and its spool are full", e);
+                        }
+                    }
+                    // Fall through
+                default:
+                    if (Thread.currentThread().isInterrupted()) {
+                        throw new RejectedExecutionException("Interrupted while waiting for room in the queue");
+                    }
+                    LockSupport.parkNanos(this, MAX_PARK_NANOS);
+            }
+        }
+        // Checked after reserving, so the workers do not stop before the entity is queued
+        if (closed) {
+            depth.decrementAndGet();
+            throw new RejectedExecutionException("The write-behind queue is closed");
+        }
+        queue.offer(entity);
+        accepted.increment();
+        if (reserved % batchSize() == 0) {
+            // A batch is full, do not leave it to the flush interval
+            LockSupport.unpark(workers[(nextWorker.getAndIncrement() & Integer.MAX_VALUE) % workers.length]);
+        }
+        return true;
+    }
+
+    /**
+     * Reserves room for an entity, and returns the queue depth with it, or 0 if the queue is full.
+     */
+    private int reserve() {
+        int d;
+        do {
+            d = depth.get();
+            if (d >= capacity) {
+                return 0;
+            }
+        } while (!depth.compareAndSet(d, d + 1));
+        return d + 1;
+    }
+
+    private int batchSize() {
+        return controller != null ? controller.getSize() : batchSize;
+    }
+
+    private void run() {
+        List<Object> batch = new ArrayList<>();
+        long lastFlush = System.nanoTime();
+        while (true) {
+            boolean stopping = closed;
+            long elapsed = System.nanoTime() - lastFlush;
+            int size = batchSize();
+            if (stopping || depth.get() >= size || elapsed >= flushIntervalNanos) {
+                Object entity;
+                while (batch.size() < size && (entity = queue.poll()) != null) {
+                    depth.decrementAndGet();
+                    batch.add(entity);
+                }
+                if (!batch.isEmpty()) {
+                    flush(batch);
+                    batch.clear();
+                    lastFlush = System.nanoTime();
+                    continue;
+                }
+                if (stopping && depth.get() == 0) {
+                    // No write can reserve room anymore, and none is about to queue its entity
+                    return;
+                }
+                lastFlush = System.nanoTime();
+                elapsed = 0;
+            }
+            // Until the flush interval elapses, or a write fills a batch
+            LockSupport.parkNanos(this, flushIntervalNanos - elapsed);
+        }
+    }
+
+    private void flush(List<Object> batch) {
+        RuntimeException failure = write(batch);
+        if (failure == null) {
+            return;
+        }
+        WriteSpool s = spool;
+        if (s != null) {
+            try {
+                s.append(serialize(batch));
+                spooled.add(batch.size());
+                return;
+            } catch (IOException e) {
+                failure.addSuppressed(e);
+            }
+        }
+        failed.add(batch.size());
+        notifyFailure(batch, failure);
+    }
+
+    private void notifyFailure(List<Object> batch, RuntimeException failure) {
+        FailureListener listener = failureListener;
+        if (listener != null) {
+            try {
+                listener.writeFailed(new ArrayList<>(batch), failure);
+            } catch (RuntimeException e) {
+                // A failing listener must not stop the thread writing the batches
+            }
+        }
+    }
+
+    private void replay() {
+        int attempts = 0;
+        long writtenBefore = 0;
+        while (!closed) {
+            byte[] record = spool.peek();
+            if (record == null) {
+                LockSupport.parkNanos(this, flushIntervalNanos);
+                continue;
+            }
+            List<Object> batch;
+            try {
+                batch = deserialize(record);
+            } catch (IOException | ClassNotFoundException e) {
+                // Cannot be replayed by this instance, do not stall the ones after it
+                spool.remove();
+                failed.increment();
+                continue;
+            }
+            RuntimeException failure = write(batch);
+            if (failure == null) {
+                spool.remove();
+                replayed.add(batch.size());
+                attempts = 0;
+                continue;
+            }
+            // An attempt only counts if it failed while the cluster could be written
+            long writtenNow = written.sum();
+            if (attempts == 0 || writtenNow > writtenBefore) {
+                attempts++;
+            }
+            writtenBefore = writtenNow;
+            if (!isDatabaseError(failure) || attempts >= maxReplayAttempts) {
+                // Would fail again, do not stall the ones after it
+                spool.remove();
+                attempts = 0;
+                failed.add(batch.size());
+                notifyFailure(batch, failure);
+            } else {
+                // The cluster is still down
+                LockSupport.parkNanos(this, REPLAY_RETRY_NANOS);
+            }
+        }
+    }
+
+    private static boolean isDatabaseError(Throwable failure) {
+        for (Throwable cause = failure; cause != null; cause = cause.getCause()) {
+            if (cause instanceof SQLException) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Writes a batch in a transaction of its own, and returns the failure if it could not.
+     */
+    private RuntimeException write(List<Object> batch) {
+        long start = System.nanoTime();
+        try {
+            StatelessSession session = factory.openStatelessSession();
+            try {
+                StatelessWrites.insert(session, batch);
+            } finally {
+                session.close();
+            }
+            written.add(batch.size());
+            if (controller != null) {
+                controller.onCommit(batch.size(), System.nanoTime() - start);
+            }
+            return null;
+        } catch (RuntimeException e) {
+            if (controller != null) {
+                controller.onFailure();
+            }
+            return e;
+        } finally {
+            long nanos = System.nanoTime() - start;
+            flushes.increment();
+            flushNanos.add(nanos);
+            lastFlushNanos = nanos;
+        }
+    }
+
+    private static byte[] serialize(List<Object> batch) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+            out.writeObject(new ArrayList<>(batch));
+        }
+        return bytes.toByteArray();
+    }
+
+    @SuppressWarnings("unchecked")
+    private static List<Object> deserialize(byte[] record) throws IOException, ClassNotFoundException {
+        try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(record))) {
+            return (List<Object>) in.readObject();
+        }
+    }
+
+    /**
+     * Stops accepting entities and waits until the queued ones are written. The entities left in
+     * the spool are replayed by the next instance using it.
+     */
+    @Override
+    public void close() throws InterruptedException {
+        closed = true;
+        for (Thread worker : workers) {
+            LockSupport.unpark(worker);
+        }
+        for (Thread worker : workers) {
+            worker.join();
+        }
+        Thread r;
+        synchronized (this) {
+            r = replayer;
+        }
+        if (r != null) {
+            LockSupport.unpark(r);
+            r.join();
+        }
+    }
+
+    /**
+     * Returns the number of entities queued.
+     */
+    public int getQueueDepth() {
+        return depth.get();
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    public long getAcceptedCount() {
+        return accepted.sum();
+    }
+
+    public long getDroppedCount() {
+        return dropped.sum();
+    }
+
+    public long getWrittenCount() {
+        return written.sum();
+    }
+
+    public long getFailedCount() {
+        return failed.sum();
+    }
+
+    /**
+     * Returns the number of entities written to the spool.
+     */
+    public long getSpooledCount() {
+        return spooled.sum();
+    }
+
+    /**
+     * Returns the number of spooled entities written since.
+     */
+    public long getReplayedCount() {
+        return replayed.sum();
+    }
+
+    public long getFlushCount() {
+        return flushes.sum();
+    }
+
+    public double getLastFlushLatencyMillis() {
+        return lastFlushNanos / 1_000_000d;
+    }
+
+    /**
+     * Returns the average time to write a batch, or 0 if none was written yet.
+     */
+    public double getAverageFlushLatencyMillis() {
+        long n = flushes.sum();
+        return n == 0 ? 0d : flushNanos.sum() / 1_000_000d / n;
+    }
+}
@@ -0,0 +1,215 @@
+package com.timebusker.phoenix.dialect.write;
+
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.StringTokenizer;
+
+import org.hibernate.HibernateException;
+import org.hibernate.collection.spi.PersistentCollection;
+import org.hibernate.engine.jdbc.batch.internal.BasicBatchKey;
+import org.hibernate.engine.jdbc.batch.spi.Batch;
+import org.hibernate.engine.jdbc.batch.spi.BatchKey;
+import org.hibernate.engine.spi.CascadeStyle;
+import org.hibernate.engine.spi.CascadeStyles;
+import org.hibernate.engine.spi.CascadingAction;
+import org.hibernate.engine.spi.CascadingActions;
+import org.hibernate.engine.spi.EntityEntry;
+import org.hibernate.engine.spi.Status;
+import org.hibernate.event.spi.DeleteEvent;
+import org.hibernate.event.spi.DeleteEventListener;
+import org.hibernate.event.spi.EventSource;
+import org.hibernate.event.spi.PostDeleteEvent;
+import org.hibernate.event.spi.PostDeleteEventListener;
+import org.hibernate.jdbc.Expectations;
+import org.hibernate.persister.collection.CollectionPersister;
+import org.hibernate.persister.collection.QueryableCollection;
+import org.hibernate.persister.entity.EntityPersister;
+import org.hibernate.proxy.HibernateProxy;
+
+/**
+ * Deletes the elements of the one-to-many collections whose foreign key leads the primary key of
+ * the element table with a single range delete per owner, {@code delete from T where FK=?},
+ * instead of loading the collection and deleting its elements one by one.
+ * <p>
+ * The delete cascade of those collections is taken over by this listener: their cascade style
+ * is rewritten with {@link #withoutDeleteCascade(String)} before the persisters are built, and
+ * the range delete is batched when the owner is deleted. Elements already loaded are deleted as
+ * usual, so they are not left in the session.
+ * <p>
+ * Only the elements that nothing else depends on are deleted by range: elements without
+ * collections of their own to delete, without remove callbacks or entity listeners, and that are
+ * not cached. The cached collection of the deleted owner is evicted.
+ */
+public class RangeDeleteEventListener implements DeleteEventListener, PostDeleteEventListener {
+
+    private static final long serialVersionUID = 1L;
+
+    private static final String PREFIX = "phoenix-range-";
+
+    static {
+        register("all", CascadeStyles.ALL);
+        register("all-delete-orphan", CascadeStyles.ALL_DELETE_ORPHAN);
+        register("delete-orphan", CascadeStyles.DELETE_ORPHAN);
+    }
+
+    private static final class RangeDelete {
+        final String role;
+        final String property;
+        final String sql;
+        final BatchKey batchKey;
+
+        RangeDelete(String role, String property, String sql) {
+            this.role = role;
+            this.property = property;
+            this.sql = sql;
+            this.batchKey = new BasicBatchKey(role + "#RANGE_DELETE", Expectations.NONE);
+        }
+    }
+
+    private final Map<String, List<RangeDelete>> deletes = new HashMap<>();
+
+    /**
+     * Registers the range delete of a collection.
+     *
+     * @param entityName the owner entity, or any of its subclasses
+     * @param role the collection role
+     * @param property the collection property of the owner
+     * @param sql the {@code delete from T where FK=?} of the collection elements
+     */
+    public void addRangeDelete(String entityName, String role, String property, String sql) {
+        deletes.computeIfAbsent(entityName, k -> new ArrayList<>()).add(new RangeDelete(role, property, sql));
+    }
+
+    public boolean isEmpty() {
+        return deletes.isEmpty();
+    }
+
+    /**
+     * Returns the given cascade without the delete cascade, keeping the deletion of the orphans
+     * removed from the collection.
+     */
+    public static String withoutDeleteCascade(String cascade) {
+        StringBuilder sb = new StringBuilder();
+        StringTokenizer tokens = new StringTokenizer(cascade, ", ");
+        while (tokens.hasMoreTokens()) {
+            String token = tokens.nextToken();
+            if (token.equals("delete") || token.equals("remove")) {
+                continue;
+            }
+            if (token.equals("all") || token.equals("all-delete-orphan") || token.equals("delete-orphan")) {
+                token = PREFIX + token;
+            }
+            sb.append(sb.length() == 0 ? "" : ",").append(token);
+        }
+        return sb.length() == 0 ? "none" : sb.toString();
+    }
+
+    /**
+     * Returns whether the given cascade deletes the elements of the collection with its owner.
+     */
+    public static boolean isDeleteCascade(CascadeStyle style) {
+        return style.doCascade(CascadingActions.DELETE);
+    }
+
+    private static void register(String name, CascadeStyle style) {
+        CascadeStyles.registerCascadeStyle(PREFIX + name, new CascadeStyles.BaseCascadeStyle() {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            public boolean doCascade(CascadingAction action) {
+                return action != CascadingActions.DELETE && style.doCascade(action);
+            }
+
+            @Override
+            public boolean reallyDoCascade(CascadingAction action) {
+                return action != CascadingActions.DELETE && style.reallyDoCascade(action);
+            }
+
+            @Override
+            public boolean hasOrphanDelete() {
+                return style.hasOrphanDelete();
+            }
+
+            @Override
+            public String toString() {
+                return "STYLE_" + (PREFIX + name).toUpperCase().replace('-', '_');
+            }
+        });
+    }
+
+    @Override
+    public void onDelete(DeleteEvent event) throws HibernateException {
+        onDelete(event, new HashSet<>());
+    }
+
+    @Override
+    @SuppressWarnings("rawtypes")
+    public void onDelete(DeleteEvent event, Set transientEntities) throws HibernateException {
+        // Runs before the owner is deleted, so the loaded elements are deleted before the range
+        EventSource session = event.getSession();
+        Object entity = event.getObject();
+        if (entity instanceof HibernateProxy) {
+            if (((HibernateProxy) entity).getHibernateLazyInitializer().isUninitialized()) {
+                return;
+            }
+            entity = ((HibernateProxy) entity).getHibernateLazyInitializer().getImplementation();
+        }
+        EntityEntry entry = session.getPersistenceContext().getEntry(entity);
+        if (entry == null || entry.getStatus() != Status.MANAGED) {
+            return;
+        }
+        List<RangeDelete> ranges = deletes.get(entry.getPersister().getEntityName());
+        if (ranges == null) {
+            return;
+        }
+        for (RangeDelete range : ranges) {
+            Object value = entry.getPersister().getPropertyValue(entity, range.property);
+            if (value == null || (value instanceof PersistentCollection && !((PersistentCollection) value).wasInitialized())) {
+                continue;
+            }
+            String elementName = ((QueryableCollection) session.getFactory().getMetamodel()
+                    .collectionPersister(range.role)).getElementPersister().getEntityName();
+            for (Object element : new ArrayList<>((Collection<?>) value)) {
+                session.delete(elementName, element, false, transientEntities);
+            }
+        }
+    }
+
+    @Override
+    public void onPostDelete(PostDeleteEvent event) {
+        List<RangeDelete> ranges = deletes.get(event.getPersister().getEntityName());
+        if (ranges == null) {
+            return;
+        }
+        EventSource session = event.getSession();
+        for (RangeDelete range : ranges) {
+            CollectionPersister collection = session.getFactory().getMetamodel().collectionPersister(range.role);
+            Batch batch = session.getJdbcCoordinator().getBatch(range.batchKey);
+            PreparedStatement statement = batch.getBatchStatement(range.sql, false);
+            try {
+                collection.getKeyType().nullSafeSet(statement, event.getId(), 1, session);
+            } catch (SQLException e) {
+                session.getJdbcCoordinator().abortBatch();
+                throw session.getJdbcServices().getSqlExceptionHelper()
+                        .convert(e, "could not delete collection rows: " + range.role, range.sql);
+            }
+            batch.addToBatch();
+            if (collection.hasCache()) {
+                // The cached elements of the collection are gone with the range
+                session.getFactory().getCache().evictCollection(range.role, event.getId());
+            }
+        }
+    }
+
+    @Override
+    public boolean requiresPostCommitHanding(EntityPersister persister) {
+        return false;
+    }
+}
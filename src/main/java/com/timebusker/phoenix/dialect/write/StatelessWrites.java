@@ -0,0 +1,36 @@
+package com.timebusker.phoenix.dialect.write;
+
+import java.util.Collection;
+
+import org.hibernate.StatelessSession;
+import org.hibernate.Transaction;
+import org.hibernate.engine.spi.SharedSessionContractImplementor;
+
+/**
+ * Inserts batches of entities through stateless sessions, so they become the same UPSERTs as
+ * the inserts of any other session, without dirty checking nor first-level cache.
+ */
+final class StatelessWrites {
+
+    private StatelessWrites() {
+    }
+
+    /**
+     * Inserts the entities and commits them in a transaction of their own.
+     */
+    static void insert(StatelessSession session, Collection<?> entities) {
+        Transaction transaction = session.beginTransaction();
+        try {
+            for (Object entity : entities) {
+                session.insert(entity);
+            }
+            ((SharedSessionContractImplementor) session).getJdbcCoordinator().executeBatch();
+            transaction.commit();
+        } catch (RuntimeException e) {
+            if (transaction.getStatus().canRollback()) {
+                transaction.rollback();
+            }
+            throw e;
+        }
+    }
+}
@@ -0,0 +1,286 @@
+package com.timebusker.phoenix.dialect.write;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.zip.CRC32;
+
+/**
+ * A durable FIFO journal of records, appended to memory-mapped segment files of a directory.
+ * <p>
+ * Each segment starts with a header holding the offset of its first unread record, followed by
+ * the records, each one as its length, the CRC32 of its sequence number and payload, its
+ * sequence number and its payload. The length is written last and every append is forced to
+ * disk, so a record is either complete or, after a crash, detected as torn by its checksum and
+ * discarded with any record after it, whose bytes are cleared before appending again. A new
+ * segment is started when a record does not fit in the current one, and segments are deleted
+ * once all their records were read.
+ * <p>
+ * A record is only removed after it was processed, so a crash in between delivers it again.
+ */
+public class WriteSpool implements Closeable {
+
+    private static final int MAGIC = 0x50535031; // PSP1
+    // Magic and read offset
+    private static final int HEADER_SIZE = 8;
+    // Length, checksum and sequence number
+    private static final int RECORD_HEADER_SIZE = 16;
+    private static final String PREFIX = "spool-";
+    private static final String SUFFIX = ".log";
+
+    private static final class Segment {
+        final long id;
+        final Path path;
+        final FileChannel channel;
+        final MappedByteBuffer buffer;
+        int read = HEADER_SIZE;
+        int write = HEADER_SIZE;
+
+        Segment(long id, Path path, FileChannel channel, MappedByteBuffer buffer) {
+            this.id = id;
+            this.path = path;
+            this.channel = channel;
+            this.buffer = buffer;
+        }
+    }
+
+    private final Path directory;
+    private final int segmentSize;
+    private final int maxSegments;
+    private final ArrayDeque<Segment> segments = new ArrayDeque<>();
+    private final CRC32 crc = new CRC32();
+    private long nextSequence;
+    private long records;
+
+    /**
+     * Opens the spool of a directory, recovering the records left unread by a previous instance.
+     *
+     * @param directory the directory of the segment files, created if missing
+     * @param segmentSize the size in bytes of each segment file
+     * @param maxSegments the segments to keep at most; appending fails once they are full
+     */
+    public WriteSpool(Path directory, int segmentSize, int maxSegments) throws IOException {
+        if (segmentSize <= HEADER_SIZE + RECORD_HEADER_SIZE) {
+            throw new IllegalArgumentException("segmentSize is too small: " + segmentSize);
+        }
+        if (maxSegments <= 0) {
+            throw new IllegalArgumentException("maxSegments must be greater than 0: " + maxSegments);
+        }
+        this.directory = Files.createDirectories(directory);
+        this.segmentSize = segmentSize;
+        this.maxSegments = maxSegments;
+        recover();
+    }
+
+    private void recover() throws IOException {
+        List<Path> paths = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, PREFIX + "*" + SUFFIX)) {
+            for (Path path : stream) {
+                paths.add(path);
+            }
+        }
+        // Zero padded ids, so the names sort in append order
+        Collections.sort(paths);
+        for (Path path : paths) {
+            String name = path.getFileName().toString();
+            long id = Long.parseLong(name.substring(PREFIX.length(), name.length() - SUFFIX.length()));
+            FileChannel channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            if (channel.size() != segmentSize) {
+                channel.close();
+                throw new IOException("The segment " + path + " is not " + segmentSize + " bytes long");
+            }
+            Segment segment = new Segment(id, path, channel, channel.map(FileChannel.MapMode.READ_WRITE, 0, segmentSize));
+            if (segment.buffer.getInt(0) != MAGIC) {
+                channel.close();
+                throw new IOException("The file " + path + " is not a spool segment");
+            }
+            segment.read = segment.buffer.getInt(4);
+            if (segment.read < HEADER_SIZE || segment.read > segmentSize) {
+                channel.close();
+                throw new IOException("The segment " + path + " is corrupt");
+            }
+
+            int position = segment.read;
+            long expected = -1;
+            int length;
+            while ((length = validRecordLength(segment, position, expected)) != -1) {
+                expected = segment.buffer.getLong(position + 8) + 1;
+                nextSequence = Math.max(nextSequence, expected);
+                position += RECORD_HEADER_SIZE + length;
+                records++;
+            }
+            segment.write = position;
+            clearTail(segment);
+            segments.add(segment);
+        }
+        discardReadSegments();
+    }
+
+    // A complete record left after a torn one must not pass for the one appended next in its place
+    private static void clearTail(Segment segment) {
+        ByteBuffer tail = segment.buffer.duplicate();
+        tail.position(segment.write);
+        while (tail.remaining() >= 8) {
+            tail.putLong(0L);
+        }
+        while (tail.hasRemaining()) {
+            tail.put((byte) 0);
+        }
+        segment.buffer.force();
+    }
+
+    private int validRecordLength(Segment segment, int position, long expectedSequence) {
+        if (position + RECORD_HEADER_SIZE > segmentSize) {
+            return -1;
+        }
+        int length = segment.buffer.getInt(position);
+        if (length <= 0 || length > segmentSize - position - RECORD_HEADER_SIZE) {
+            return -1;
+        }
+        if (expectedSequence != -1 && segment.buffer.getLong(position + 8) != expectedSequence) {
+            return -1;
+        }
+        return checksum(segment, position, length) == segment.buffer.getInt(position + 4) ? length : -1;
+    }
+
+    private int checksum(Segment segment, int position, int length) {
+        ByteBuffer bytes = segment.buffer.duplicate();
+        bytes.limit(position + RECORD_HEADER_SIZE + length).position(position + 8);
+        crc.reset();
+        crc.update(bytes);
+        return (int) crc.getValue();
+    }
+
+    /**
+     * Appends a record and forces it to disk.
+     *
+     * @throws IOException if the record does not fit in a segment or every segment is full
+     */
+    public synchronized void append(byte[] record) throws IOException {
+        int size = RECORD_HEADER_SIZE + record.length;
+        if (record.length == 0 || size > segmentSize - HEADER_SIZE) {
+            throw new IOException("Cannot spool a record of " + record.length + " bytes");
+        }
+        Segment segment = segments.peekLast();
+        if (segment == null || segment.write + size > segmentSize) {
+            discardReadSegments();
+            if (segments.size() >= maxSegments) {
+                throw new IOException("The spool is full: " + maxSegments + " segments of " + segmentSize + " bytes");
+            }
+            segment = createSegment(segment == null ? 0 : segment.id + 1);
+        }
+
+        // The length goes last: a record is not valid until it is complete
+        MappedByteBuffer buffer = segment.buffer;
+        int position = segment.write;
+        buffer.putLong(position + 8, nextSequence);
+        ByteBuffer payload = buffer.duplicate();
+        payload.position(position + RECORD_HEADER_SIZE);
+        payload.put(record);
+        buffer.putInt(position + 4, checksum(segment, position, record.length));
+        buffer.putInt(position, record.length);
+        buffer.force();
+
+        segment.write += size;
+        nextSequence++;
+        records++;
+    }
+
+    private Segment createSegment(long id) throws IOException {
+        Path path = directory.resolve(String.format("%s%020d%s", PREFIX, id, SUFFIX));
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE_NEW,
+                StandardOpenOption.READ, StandardOpenOption.WRITE);
+        Segment segment = new Segment(id, path, channel, channel.map(FileChannel.MapMode.READ_WRITE, 0, segmentSize));
+        segment.buffer.putInt(0, MAGIC);
+        segment.buffer.putInt(4, HEADER_SIZE);
+        segment.buffer.force();
+        segments.add(segment);
+        return segment;
+    }
+
+    /**
+     * Returns the oldest record, without removing it, or null if there is none.
+     */
+    public synchronized byte[] peek() {
+        Segment segment = firstUnread();
+        if (segment == null) {
+            return null;
+        }
+        int length = segment.buffer.getInt(segment.read);
+        byte[] record = new byte[length];
+        ByteBuffer payload = segment.buffer.duplicate();
+        payload.position(segment.read + RECORD_HEADER_SIZE);
+        payload.get(record);
+        return record;
+    }
+
+    /**
+     * Removes the oldest record, once processed.
+     */
+    public synchronized void remove() {
+        Segment segment = firstUnread();
+        if (segment == null) {
+            throw new IllegalStateException("The spool is empty");
+        }
+        segment.read += RECORD_HEADER_SIZE + segment.buffer.getInt(segment.read);
+        segment.buffer.putInt(4, segment.read);
+        records--;
+        discardReadSegments();
+    }
+
+    private Segment firstUnread() {
+        for (Segment segment : segments) {
+            if (segment.read < segment.write) {
+                return segment;
+            }
+        }
+        return null;
+    }
+
+    // The last segment is kept for the next appends
+    private void discardReadSegments() {
+        while (segments.size() > 1 && segments.peekFirst().read >= segments.peekFirst().write) {
+            Segment segment = segments.pollFirst();
+            try {
+                segment.channel.close();
+                Files.deleteIfExists(segment.path);
+            } catch (IOException e) {
+                // Recovered as an empty segment and deleted the next time
+            }
+        }
+    }
+
+    public synchronized boolean isEmpty() {
+        return records == 0;
+    }
+
+    /**
+     * Returns the number of records not removed yet.
+     */
+    public synchronized long getRecordCount() {
+        return records;
+    }
+
+    public synchronized int getSegmentCount() {
+        return segments.size();
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        for (Segment segment : segments) {
+            segment.buffer.force();
+            segment.channel.close();
+        }
+        segments.clear();
+    }
+}
@@ -1,37 +0,0 @@
-/*
- * Copyright (C) 2017 Jorge Ruesga
- *
- * Licensed under the Apache License, Version 2.0 (the "License");
- * you may not use this file except in compliance with the License.
- * You may obtain a copy of the License at
- *
- *      http://www.apache.org/licenses/LICENSE-2.0
- *
- * Unless required by applicable law or agreed to in writing, software
- * distributed under the License is distributed on an "AS IS" BASIS,
- * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
- * See the License for the specific language governing permissions and
- * limitations under the License.
- */
-package org.hibernate.mapping;
-
-import org.aspectj.lang.ProceedingJoinPoint;
-import org.aspectj.lang.annotation.Around;
-import org.aspectj.lang.annotation.Aspect;
-import org.hibernate.dialect.Dialect;
-
-import com.timebusker.phoenix.dialect.PhoenixDialect;
-
-@Aspect
-public class MappingInterceptor {
-
-    @Around("execution(java.lang.String org.hibernate.mapping.PrimaryKey.sqlConstraintString(..))")
-    public String sqlConstraintStringAround(ProceedingJoinPoint joinPoint) throws Throwable {
-        Dialect dialect = (Dialect) joinPoint.getArgs()[0];
-        if (!(dialect instanceof PhoenixDialect)) {
-            return (String) joinPoint.proceed();
-        }
-        String statement = (String) joinPoint.proceed();
-        return "CONSTRAINT pk " + statement;
-    }
-}
@@ -15,149 +15,142 @@
  */
 package org.hibernate.sql;
 
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
 import java.lang.reflect.Field;
-import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 
 import org.aspectj.lang.ProceedingJoinPoint;
 import org.aspectj.lang.annotation.Around;
 import org.aspectj.lang.annotation.Aspect;
-import org.hibernate.dialect.Dialect;
 
 import com.timebusker.phoenix.dialect.PhoenixDialect;
+import com.timebusker.phoenix.dialect.StatementCache;
+import com.timebusker.phoenix.dialect.StatementShape;
+import com.timebusker.phoenix.dialect.UpsertStatementBuilder;
 
 @Aspect
 public class SqlInterceptor {
 
-    private Field updateDialectField = null;
-    private Field updateColumnsField = null;
-    private Field updatePkColumnsField = null;
-    private Field updateCommentField = null;
-    private Field updateWhereColumnsField = null;
-    private Field updateVersionColumnNameField = null;
+    private static final StatementCache<StatementShape, String> REWRITE_CACHE = new StatementCache<>(
+            Integer.getInteger(PhoenixDialect.REWRITE_CACHE_SIZE, PhoenixDialect.DEFAULT_REWRITE_CACHE_SIZE));
 
-    public SqlInterceptor() {
+    // Getters of the private state of the Hibernate builders, typed (Object)Object
+    private static final MethodHandle INSERT_DIALECT = getter(Insert.class, "dialect");
+    private static final MethodHandle INSERT_TABLE_NAME = getter(Insert.class, "tableName");
+    private static final MethodHandle INSERT_COMMENT = getter(Insert.class, "comment");
+    private static final MethodHandle INSERT_COLUMNS = getter(Insert.class, "columns");
+    private static final MethodHandle INSERT_SELECT_DIALECT = getter(InsertSelect.class, "dialect");
+    private static final MethodHandle INSERT_SELECT_TABLE_NAME = getter(InsertSelect.class, "tableName");
+    private static final MethodHandle INSERT_SELECT_COMMENT = getter(InsertSelect.class, "comment");
+    private static final MethodHandle INSERT_SELECT_COLUMN_NAMES = getter(InsertSelect.class, "columnNames");
+    private static final MethodHandle INSERT_SELECT_SELECT = getter(InsertSelect.class, "select");
+    private static final MethodHandle UPDATE_DIALECT = getter(Update.class, "dialect");
+    private static final MethodHandle UPDATE_TABLE_NAME = getter(Update.class, "tableName");
+    private static final MethodHandle UPDATE_COMMENT = getter(Update.class, "comment");
+    private static final MethodHandle UPDATE_COLUMNS = getter(Update.class, "columns");
+    private static final MethodHandle UPDATE_PK_COLUMNS = getter(Update.class, "primaryKeyColumns");
+    private static final MethodHandle UPDATE_WHERE_COLUMNS = getter(Update.class, "whereColumns");
+    private static final MethodHandle UPDATE_VERSION_COLUMN_NAME = getter(Update.class, "versionColumnName");
+
+    private static MethodHandle getter(Class<?> type, String name) {
         try {
-            updateColumnsField = Update.class.getDeclaredField("columns");
-            updateColumnsField.setAccessible(true);
-            updatePkColumnsField = Update.class.getDeclaredField("primaryKeyColumns");
-            updatePkColumnsField.setAccessible(true);
-            updateWhereColumnsField = Update.class.getDeclaredField("whereColumns");
-            updateWhereColumnsField.setAccessible(true);
-            updateCommentField = Update.class.getDeclaredField("comment");
-            updateCommentField.setAccessible(true);
-            updateDialectField = Update.class.getDeclaredField("dialect");
-            updateDialectField.setAccessible(true);
-            updateVersionColumnNameField = Update.class.getDeclaredField("versionColumnName");
-            updateVersionColumnNameField.setAccessible(true);
+            Field field = type.getDeclaredField(name);
+            field.setAccessible(true);
+            return MethodHandles.lookup().unreflectGetter(field)
+                    .asType(MethodType.methodType(Object.class, Object.class));
         } catch (Exception e) {
             e.printStackTrace();
+            return null;
         }
     }
 
-    @Around("execution(java.lang.String org.hibernate.sql.*.toStatementString(..))")
+    private static Object get(MethodHandle getter, Object target) throws Throwable {
+        return getter.invokeExact(target);
+    }
+
+    // Only the builders that are rewritten are advised, so every other statement runs unwoven
+    @Around("execution(java.lang.String org.hibernate.sql.Insert.toStatementString()) || "
+            + "execution(java.lang.String org.hibernate.sql.InsertSelect.toStatementString()) || "
+            + "execution(java.lang.String org.hibernate.sql.Update.toStatementString())")
     public String toStatementStringAround(ProceedingJoinPoint joinPoint) throws Throwable {
-        Dialect dialect = getDialect(joinPoint.getTarget());
-        if (!(dialect instanceof PhoenixDialect)) {
+        String statement = toUpsertStatement(joinPoint.getTarget());
+        if (statement == null) {
             // Nothing to deal with
             return (String) joinPoint.proceed();
         }
-        String statement = (String) joinPoint.proceed();
-        if (joinPoint.getTarget() instanceof Insert || joinPoint.getTarget() instanceof InsertSelect) {
-            return statement.replaceFirst("insert into", "upsert into");
-        } else if (joinPoint.getTarget() instanceof Update) {
-            return createUpsertValues((Update) joinPoint.getTarget());
-        }
         return statement;
     }
 
-    private Dialect getDialect(Object target) throws Throwable {
-        if (target instanceof Insert) {
-            return ((Insert) target).getDialect();
-        }
-        if (target instanceof InsertSelect) {
-            return ((Insert) target).getDialect();
-        }
-        if (target instanceof Update && updateDialectField != null) {
-            return (Dialect) updateDialectField.get(target);
-        }
-        return null;
+    /**
+     * Returns the cache of rewritten statements, mainly to monitor its hit/miss ratio.
+     */
+    public static StatementCache<StatementShape, String> getRewriteCache() {
+        return REWRITE_CACHE;
     }
 
-    @SuppressWarnings("rawtypes")
-    private String createUpsertValues(Update target) throws Throwable {
-        StringBuilder sb = new StringBuilder();
-        String comment = (String) updateCommentField.get(target);
-        if (comment != null) {
-            sb.append("/* ").append(comment).append(" */ ");
+    /**
+     * Returns the UPSERT equivalent of a Hibernate statement builder, or null if the builder
+     * does not belong to a Phoenix dialect.
+     */
+    static String toUpsertStatement(Object target) throws Throwable {
+        StatementShape shape = createShape(target);
+        if (shape == null) {
+            return null;
         }
-        sb.append("upsert into ").append(target.getTableName()).append(" (");
-        Map columns = (Map) updateColumnsField.get(target);
-        Map pkColumns = (Map) updatePkColumnsField.get(target);
-        Map whereColumns = (Map) updateWhereColumnsField.get(target);
-        String versionColumn = (String) updateVersionColumnNameField.get(target);
-        if (versionColumn == null) {
-            // Set columns before pkcolumns and where columns to match parameter binding
-            StringBuilder names = new StringBuilder();
-            StringBuilder values = new StringBuilder();
-            updateUpsertBuffers(names, values, columns, false);
-            // TODO handle assignments
-            updateUpsertBuffers(names, values, pkColumns, true);
-            updateUpsertBuffers(names, values, whereColumns, true);
-            sb.append(names).append(") values (").append(values).append(")");
-        } else {
-            // Set columns before pkcolumns and where columns to match parameter binding
-            StringBuilder names = new StringBuilder();
-            StringBuilder values = new StringBuilder();
-            updateUpsertBuffers(names, values, columns, false);
-            updateUpsertBuffers(names, values, whereColumns, true);
-            // TODO handle assignments
-            StringBuilder primaryKeys = new StringBuilder();
-            updateUpsertBuffers(primaryKeys, new StringBuilder(), pkColumns, true);
 
-            sb.append(names).append(primaryKeys).append(") select ").append(values).append(primaryKeys).append(" from ").append(target.getTableName()).append(" where ");
-            boolean conditionsAppended = false;
-            Map.Entry e;
-            for (Iterator iter = pkColumns.entrySet().iterator(); iter.hasNext(); conditionsAppended = true) {
-                e = (Map.Entry) iter.next();
-                sb.append(e.getKey()).append('=').append(e.getValue());
-                if (iter.hasNext()) {
-                    sb.append(" and ");
-                }
-            }
-            for (Iterator iter = whereColumns.entrySet().iterator(); iter.hasNext(); conditionsAppended = true) {
-                e = (Map.Entry) iter.next();
-                if (conditionsAppended) {
-                    sb.append(" and ");
-                }
-                sb.append(e.getKey()).append(e.getValue());
-            }
-            if (conditionsAppended) {
-                sb.append(" and ");
-            }
-            sb.append(versionColumn).append("=?");
+        // Rendering the select is most of the cost of an insert-select rewrite, and Hibernate
+        // already caches the bulk inserts it translates, so those are not cached here
+        if (shape.getKind() == StatementShape.Kind.INSERT_SELECT) {
+            return UpsertStatementBuilder.build(shape);
+        }
+
+        // Dynamic insert/update entities build their statements on every flush, so reuse
+        // the rewrite of any statement with the same shape
+        String statement = REWRITE_CACHE.get(shape);
+        if (statement == null) {
+            statement = UpsertStatementBuilder.build(shape);
+            REWRITE_CACHE.put(shape, statement);
         }
-        return sb.toString();
+        return statement;
     }
 
     @SuppressWarnings("rawtypes")
-    private void updateUpsertBuffers(StringBuilder names, StringBuilder values, Map columns, boolean hasPrevColumns) {
-        if (columns != null) {
-            Iterator it = columns.entrySet().iterator();
-            if (hasPrevColumns && it.hasNext()) {
-                names.append(",");
-                values.append(",");
+    static StatementShape createShape(Object target) throws Throwable {
+        if (target instanceof Insert) {
+            if (INSERT_COLUMNS == null || !(get(INSERT_DIALECT, target) instanceof PhoenixDialect)) {
+                return null;
             }
-            while (it.hasNext()) {
-                Map.Entry e = (Map.Entry) it.next();
-                boolean hasNext = it.hasNext();
-                names.append(e.getKey()).append(hasNext ? "," : "");
-                String value = String.valueOf(e.getValue());
-                if (value.startsWith("=")) {
-                    value = value.substring(1);
-                }
-                values.append(value).append(hasNext ? "," : "");
+            return StatementShape.forInsert(
+                    (String) get(INSERT_TABLE_NAME, target),
+                    (String) get(INSERT_COMMENT, target),
+                    (Map) get(INSERT_COLUMNS, target));
+        }
+        if (target instanceof Update) {
+            if (UPDATE_COLUMNS == null || !(get(UPDATE_DIALECT, target) instanceof PhoenixDialect)) {
+                return null;
             }
+            return StatementShape.forUpdate(
+                    (String) get(UPDATE_TABLE_NAME, target),
+                    (String) get(UPDATE_COMMENT, target),
+                    (Map) get(UPDATE_COLUMNS, target),
+                    (Map) get(UPDATE_PK_COLUMNS, target),
+                    (Map) get(UPDATE_WHERE_COLUMNS, target),
+                    (String) get(UPDATE_VERSION_COLUMN_NAME, target));
         }
+        if (target instanceof InsertSelect) {
+            if (INSERT_SELECT_SELECT == null || !(get(INSERT_SELECT_DIALECT, target) instanceof PhoenixDialect)) {
+                return null;
+            }
+            Select select = (Select) get(INSERT_SELECT_SELECT, target);
+            return StatementShape.forInsertSelect(
+                    (String) get(INSERT_SELECT_TABLE_NAME, target),
+                    (String) get(INSERT_SELECT_COMMENT, target),
+                    (List) get(INSERT_SELECT_COLUMN_NAMES, target),
+                    select != null ? select.toStatementString() : null);
+        }
+        return null;
     }
 }
@@ -15,22 +15,33 @@
  */
 package com.ruesga.phoenix.jpa;
 
+import java.util.HashMap;
+import java.util.Map;
+
 import javax.persistence.EntityManager;
 import javax.persistence.EntityManagerFactory;
 import javax.persistence.Persistence;
 
 public class JpaEntityManager {
 
-    private static JpaEntityManager instance;
+    private static final Map<String, JpaEntityManager> instances = new HashMap<>();
+    private final String persistenceUnit;
     private final EntityManagerFactory factory;
 
-    private JpaEntityManager() {
-        factory = Persistence.createEntityManagerFactory("jpa");
+    private JpaEntityManager(String persistenceUnit) {
+        this.persistenceUnit = persistenceUnit;
+        factory = Persistence.createEntityManagerFactory(persistenceUnit);
+    }
+
+    public static final JpaEntityManager getInstance() {
+        return getInstance("jpa");
     }
 
-    public static final synchronized JpaEntityManager getInstance() {
+    public static final synchronized JpaEntityManager getInstance(String persistenceUnit) {
+        JpaEntityManager instance = instances.get(persistenceUnit);
         if (instance == null) {
-            instance = new JpaEntityManager();
+            instance = new JpaEntityManager(persistenceUnit);
+            instances.put(persistenceUnit, instance);
         }
         return instance;
     }
@@ -40,6 +51,9 @@ public class JpaEntityManager {
     }
 
     public void close() {
+        synchronized (JpaEntityManager.class) {
+            instances.remove(persistenceUnit);
+        }
         factory.close();
     }
 }
@@ -0,0 +1,93 @@
+/*
+ * Copyright (C) 2017 Jorge Ruesga
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ruesga.phoenix.jpa.entities;
+
+import java.io.Serializable;
+import java.util.Set;
+
+import javax.persistence.CascadeType;
+import javax.persistence.Column;
+import javax.persistence.Entity;
+import javax.persistence.FetchType;
+import javax.persistence.Id;
+import javax.persistence.OneToMany;
+import javax.persistence.Table;
+
+@Entity(name="invoice")
+@Table(name="INV", schema="T")
+public class Invoice implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    @Id
+    @Column(name="INV_NO", nullable=false)
+    private int invNo;
+
+    @Column(name="CUSTOMER", length=40)
+    private String customer;
+
+    @OneToMany(mappedBy = "invoice", fetch = FetchType.LAZY, cascade = CascadeType.REMOVE, orphanRemoval = true)
+    private Set<InvoiceLine> lines;
+
+    public Invoice() {
+    }
+
+    public int getInvNo() {
+        return invNo;
+    }
+
+    public void setInvNo(int invNo) {
+        this.invNo = invNo;
+    }
+
+    public String getCustomer() {
+        return customer;
+    }
+
+    public void setCustomer(String customer) {
+        this.customer = customer;
+    }
+
+    public Set<InvoiceLine> getLines() {
+        return lines;
+    }
+
+    public void setLines(Set<InvoiceLine> lines) {
+        this.lines = lines;
+    }
+
+    @Override
+    public int hashCode() {
+        return invNo;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj)
+            return true;
+        if (obj == null)
+            return false;
+        if (getClass() != obj.getClass())
+            return false;
+        Invoice other = (Invoice) obj;
+        return invNo == other.invNo;
+    }
+
+    @Override
+    public String toString() {
+        return "Invoice [invNo=" + invNo + ", customer=" + customer + "]";
+    }
+}
@@ -0,0 +1,121 @@
+/*
+ * Copyright (C) 2017 Jorge Ruesga
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ruesga.phoenix.jpa.entities;
+
+import java.io.Serializable;
+
+import javax.persistence.Column;
+import javax.persistence.Entity;
+import javax.persistence.FetchType;
+import javax.persistence.Id;
+import javax.persistence.IdClass;
+import javax.persistence.JoinColumn;
+import javax.persistence.ManyToOne;
+import javax.persistence.Table;
+
+@Entity(name="invoiceLine")
+@Table(name="INVL", schema="T")
+@IdClass(InvoiceLineId.class)
+public class InvoiceLine implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    @Id
+    @Column(name="INV_NO", nullable=false)
+    private Integer invNo;
+
+    @ManyToOne(fetch = FetchType.LAZY)
+    @JoinColumn(name = "INV_NO", insertable=false, updatable=false)
+    private Invoice invoice;
+
+    @Id
+    @Column(name="LINE_NO", nullable=false)
+    private Integer lineNo;
+
+    @Column(name="AMOUNT")
+    private Double amount;
+
+    public InvoiceLine() {
+    }
+
+    public Integer getInvNo() {
+        return invNo;
+    }
+
+    public void setInvNo(Integer invNo) {
+        this.invNo = invNo;
+    }
+
+    public Invoice getInvoice() {
+        return invoice;
+    }
+
+    public void setInvoice(Invoice invoice) {
+        this.invoice = invoice;
+    }
+
+    public Integer getLineNo() {
+        return lineNo;
+    }
+
+    public void setLineNo(Integer lineNo) {
+        this.lineNo = lineNo;
+    }
+
+    public Double getAmount() {
+        return amount;
+    }
+
+    public void setAmount(Double amount) {
+        this.amount = amount;
+    }
+
+    @Override
+    public int hashCode() {
+        final int prime = 31;
+        int result = 1;
+        result = prime * result + ((invNo == null) ? 0 : invNo.hashCode());
+        result = prime * result + ((lineNo == null) ? 0 : lineNo.hashCode());
+        return result;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj)
+            return true;
+        if (obj == null)
+            return false;
+        if (getClass() != obj.getClass())
+            return false;
+        InvoiceLine other = (InvoiceLine) obj;
+        if (invNo == null) {
+            if (other.invNo != null)
+                return false;
+        } else if (!invNo.equals(other.invNo))
+            return false;
+        if (lineNo == null) {
+            if (other.lineNo != null)
+                return false;
+        } else if (!lineNo.equals(other.lineNo))
+            return false;
+        return true;
+    }
+
+    @Override
+    public String toString() {
+        return "InvoiceLine [invNo=" + invNo + ", lineNo=" + lineNo + ", amount=" + amount + "]";
+    }
+}
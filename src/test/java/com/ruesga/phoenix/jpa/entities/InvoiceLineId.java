@@ -0,0 +1,74 @@
+/*
+ * Copyright (C) 2017 Jorge Ruesga
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ruesga.phoenix.jpa.entities;
+
+import java.io.Serializable;
+
+public class InvoiceLineId implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private Integer invNo;
+
+    private Integer lineNo;
+
+    public InvoiceLineId() {
+    }
+
+    public InvoiceLineId(Integer invNo, Integer lineNo) {
+        this.invNo = invNo;
+        this.lineNo = lineNo;
+    }
+
+    public Integer getInvNo() {
+        return invNo;
+    }
+
+    public Integer getLineNo() {
+        return lineNo;
+    }
+
+    @Override
+    public int hashCode() {
+        final int prime = 31;
+        int result = 1;
+        result = prime * result + ((invNo == null) ? 0 : invNo.hashCode());
+        result = prime * result + ((lineNo == null) ? 0 : lineNo.hashCode());
+        return result;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj)
+            return true;
+        if (obj == null)
+            return false;
+        if (getClass() != obj.getClass())
+            return false;
+        InvoiceLineId other = (InvoiceLineId) obj;
+        if (invNo == null) {
+            if (other.invNo != null)
+                return false;
+        } else if (!invNo.equals(other.invNo))
+            return false;
+        if (lineNo == null) {
+            if (other.lineNo != null)
+                return false;
+        } else if (!lineNo.equals(other.lineNo))
+            return false;
+        return true;
+    }
+}
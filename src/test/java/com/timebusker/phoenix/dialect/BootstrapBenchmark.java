@@ -0,0 +1,81 @@
+/*
+ * Copyright (C) 2017 Jorge Ruesga
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.timebusker.phoenix.dialect;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import javax.persistence.EntityManagerFactory;
+import javax.persistence.Persistence;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compares the cold start of a persistence unit with load-time weaving against the
+ * agent-less Phoenix persisters. Every measurement runs in a fresh JVM against its own mini
+ * cluster; schema generation is disabled so only the bootstrap itself is timed.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 0)
+@Measurement(iterations = 1)
+public class BootstrapBenchmark {
+
+    private final HBaseClusterTestRule cluster = new HBaseClusterTestRule("hbase-site.xml");
+
+    @Setup(Level.Trial)
+    public void startCluster() throws Throwable {
+        cluster.before();
+    }
+
+    @TearDown(Level.Trial)
+    public void stopCluster() {
+        cluster.after();
+    }
+
+    @Benchmark
+    @Fork(value = 5, jvmArgsAppend = "-Dphoenix.dialect.weaving=true")
+    public void loadTimeWeaving() {
+        PhoenixDialect.register();
+        bootstrap("jpa");
+    }
+
+    @Benchmark
+    @Fork(value = 5, jvmArgsAppend = "-Dphoenix.dialect.weaving=false")
+    public void persisters() {
+        bootstrap("jpa-persister");
+    }
+
+    private static void bootstrap(String persistenceUnit) {
+        Map<String, String> overrides = new HashMap<>();
+        overrides.put("hibernate.hbm2ddl.auto", "none");
+        EntityManagerFactory factory = Persistence.createEntityManagerFactory(persistenceUnit, overrides);
+        factory.close();
+    }
+}
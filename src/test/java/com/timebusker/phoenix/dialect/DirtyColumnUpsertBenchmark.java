@@ -0,0 +1,165 @@
+/*
+ * Copyright (C) 2017 Jorge Ruesga
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.timebusker.phoenix.dialect;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import javax.persistence.Persistence;
+
+import org.apache.hadoop.hbase.Cell;
+import org.apache.hadoop.hbase.CellUtil;
+import org.apache.hadoop.hbase.TableName;
+import org.apache.hadoop.hbase.client.Connection;
+import org.apache.hadoop.hbase.client.ConnectionFactory;
+import org.apache.hadoop.hbase.client.Result;
+import org.apache.hadoop.hbase.client.ResultScanner;
+import org.apache.hadoop.hbase.client.Scan;
+import org.apache.hadoop.hbase.client.Table;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.ruesga.phoenix.jpa.entities.Employee;
+import com.ruesga.phoenix.jpa.entities.Salary;
+
+/**
+ * Compares updates of a single attribute of the {@code employee} and {@code salary} entities
+ * with all columns listed in the UPSERT against the dirty columns only
+ * ({@link PhoenixDialect#DYNAMIC_UPDATE}).
+ * <p>
+ * Besides the update time, every trial prints the bytes of the cells written to the data tables
+ * and the cells written to the {@code E_I0} secondary index per update, counted with raw scans of
+ * the HBase tables.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DirtyColumnUpsertBenchmark {
+
+    private static final String[] DATA_TABLES = {"T.E", "T.S"};
+    private static final String INDEX_TABLE = "T.E_I0";
+
+    @Param({"false", "true"})
+    public boolean dynamicUpdate;
+
+    private final HBaseClusterTestRule cluster = new HBaseClusterTestRule("hbase-site.xml");
+    private EntityManagerFactory factory;
+    private EntityManager em;
+    private Connection hbase;
+
+    private Employee employee;
+    private Salary salary;
+    private long updates;
+    private long dataBytes;
+    private long indexCells;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Throwable {
+        cluster.before();
+        PhoenixDialect.register();
+        factory = Persistence.createEntityManagerFactory("jpa",
+                Collections.singletonMap(PhoenixDialect.DYNAMIC_UPDATE, String.valueOf(dynamicUpdate)));
+        em = factory.createEntityManager();
+        employee = em.find(Employee.class, 10001);
+        salary = em.createQuery("select s from salary s where s.employee.empNo = :empNo", Salary.class)
+                .setParameter("empNo", 10001)
+                .setMaxResults(1)
+                .getSingleResult();
+
+        hbase = ConnectionFactory.createConnection(cluster.getHBaseConfiguration());
+        updates = 0;
+        dataBytes = -bytes(DATA_TABLES);
+        indexCells = -cells(INDEX_TABLE);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        try {
+            dataBytes += bytes(DATA_TABLES);
+            indexCells += cells(INDEX_TABLE);
+            System.out.printf("%ndynamicUpdate=%s: %d updates, %.1f data bytes/update, %.2f index cells/update%n",
+                    dynamicUpdate, updates, (double) dataBytes / updates, (double) indexCells / updates);
+        } finally {
+            hbase.close();
+            em.close();
+            factory.close();
+            cluster.after();
+        }
+    }
+
+    @Benchmark
+    public void updateEmployee() {
+        em.getTransaction().begin();
+        employee.setFirstName("Name " + updates++);
+        em.getTransaction().commit();
+    }
+
+    @Benchmark
+    public void updateSalary() {
+        em.getTransaction().begin();
+        salary.setToDate(new Date(updates++));
+        em.getTransaction().commit();
+    }
+
+    private long bytes(String... tables) throws IOException {
+        long bytes = 0;
+        for (String table : tables) {
+            for (Cell cell : scan(table)) {
+                bytes += CellUtil.estimatedSerializedSizeOf(cell);
+            }
+        }
+        return bytes;
+    }
+
+    private long cells(String table) throws IOException {
+        return scan(table).size();
+    }
+
+    // Every version and delete marker still in the tables, not only the visible cells
+    private List<Cell> scan(String table) throws IOException {
+        Scan scan = new Scan();
+        scan.setRaw(true);
+        scan.setMaxVersions();
+        List<Cell> cells = new ArrayList<>();
+        try (Table t = hbase.getTable(TableName.valueOf(table));
+                ResultScanner scanner = t.getScanner(scan)) {
+            for (Result result : scanner) {
+                Collections.addAll(cells, result.rawCells());
+            }
+        }
+        return cells;
+    }
+}
@@ -0,0 +1,123 @@
+/*
+ * Copyright (C) 2017 Jorge Ruesga
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.timebusker.phoenix.dialect;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import javax.persistence.Persistence;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.ruesga.phoenix.jpa.entities.Department;
+
+/**
+ * Measures the rows per second written by flushes of {@value #ROWS} inserts or updates against
+ * the mini cluster, without JDBC batching and with batches of several sizes ({@code 100} is the
+ * default Phoenix mutate batch size).
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class FlushBatchingBenchmark {
+
+    private static final int ROWS = 1000;
+
+    @Param({"0", "100", "1000"})
+    public int batchSize;
+
+    private final HBaseClusterTestRule cluster = new HBaseClusterTestRule("hbase-site.xml");
+    private EntityManagerFactory factory;
+    private EntityManager em;
+    private final List<Department> departments = new ArrayList<>(ROWS);
+    private int nextDeptNo = 100000;
+    private int round;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Throwable {
+        cluster.before();
+        PhoenixDialect.register();
+        factory = Persistence.createEntityManagerFactory("jpa",
+                Collections.singletonMap("hibernate.jdbc.batch_size", String.valueOf(batchSize)));
+        em = factory.createEntityManager();
+
+        // The rows updated by the update benchmark, kept managed
+        em.getTransaction().begin();
+        for (int i = 0; i < ROWS; i++) {
+            Department d = new Department();
+            d.setDeptNo(-1 - i);
+            em.persist(d);
+            departments.add(d);
+        }
+        em.getTransaction().commit();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        em.close();
+        factory.close();
+        cluster.after();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(ROWS)
+    public void insert() {
+        em.getTransaction().begin();
+        List<Department> inserted = new ArrayList<>(ROWS);
+        for (int i = 0; i < ROWS; i++) {
+            Department d = new Department();
+            d.setDeptNo(nextDeptNo++);
+            d.setDeptName("Department " + d.getDeptNo());
+            em.persist(d);
+            inserted.add(d);
+        }
+        em.getTransaction().commit();
+        for (Department d : inserted) {
+            em.detach(d);
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(ROWS)
+    public void update() {
+        em.getTransaction().begin();
+        round++;
+        for (Department d : departments) {
+            d.setDeptName("Round " + round);
+        }
+        em.getTransaction().commit();
+    }
+}
@@ -18,15 +18,42 @@ package com.timebusker.phoenix.dialect;
 import com.ruesga.phoenix.jpa.JpaEntityManager;
 import com.ruesga.phoenix.jpa.entities.*;
 import com.ruesga.phoenix.jpa.entities.Parameter;
+import com.timebusker.phoenix.dialect.write.FlushChunk;
+import com.timebusker.phoenix.dialect.write.FlushChunkListener;
+import com.timebusker.phoenix.dialect.write.GroupCommitter;
+import com.timebusker.phoenix.dialect.write.PhoenixBulkWriter;
+import com.timebusker.phoenix.dialect.write.PhoenixHFileLoader;
+import com.timebusker.phoenix.dialect.write.PhoenixWriteBehind;
 import org.apache.commons.math3.util.Pair;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.hbase.TableName;
+import org.apache.hadoop.hbase.client.Admin;
+import org.apache.hadoop.hbase.client.RegionLocator;
+import org.apache.phoenix.jdbc.PhoenixConnection;
+import org.apache.phoenix.query.QueryServices;
+import org.apache.phoenix.util.PhoenixRuntime;
+import org.hibernate.Hibernate;
+import org.hibernate.Session;
+import org.hibernate.cfg.AvailableSettings;
 import org.junit.*;
 import org.junit.rules.ExpectedException;
 import org.junit.runners.MethodSorters;
 
 import javax.persistence.*;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
 import java.security.MessageDigest;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
 import java.text.SimpleDateFormat;
 import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.IntStream;
 
 @FixMethodOrder(MethodSorters.NAME_ASCENDING)
 public class PhoenixDialectTest {
@@ -37,7 +64,8 @@ public class PhoenixDialectTest {
     @Rule
     public ExpectedException thrown = ExpectedException.none();
 
-    private static EntityManager em;
+    protected static String persistenceUnit;
+    protected static EntityManager em;
     private static SimpleDateFormat DATE_FORMATTER = new SimpleDateFormat("yyyy-MM-dd");
 
     @BeforeClass
@@ -57,7 +85,8 @@ public class PhoenixDialectTest {
         }
 
         PhoenixDialect.register();
-        em = JpaEntityManager.getInstance().createEntityManager();
+        persistenceUnit = "jpa";
+        em = JpaEntityManager.getInstance(persistenceUnit).createEntityManager();
     }
 
     @AfterClass
@@ -582,6 +611,598 @@ public class PhoenixDialectTest {
         Assert.assertEquals(e, inserted);
     }
 
+    @Test
+    public void test202_InsertIfAbsent() {
+        em.getTransaction().begin();
+        em.persist(reservation(1, "First"));
+        em.getTransaction().commit();
+        em.clear();
+
+        // Reported as written, but the existing row is kept
+        em.getTransaction().begin();
+        em.persist(reservation(1, "Second"));
+        em.getTransaction().commit();
+        em.clear();
+        Assert.assertEquals("First", em.find(Reservation.class, 1).getHolder());
+
+        // Absent rows are still inserted
+        em.getTransaction().begin();
+        em.persist(reservation(2, "Third"));
+        em.getTransaction().commit();
+        em.clear();
+        Assert.assertEquals("Third", em.find(Reservation.class, 2).getHolder());
+
+        em.getTransaction().begin();
+        em.remove(em.getReference(Reservation.class, 1));
+        em.remove(em.getReference(Reservation.class, 2));
+        em.getTransaction().commit();
+    }
+
+    @Test
+    public void test203_BatchedInsertAndUpdate() {
+        // More rows than a JDBC batch, so the flush executes full and partial batches
+        final int ROWS = 250;
+        List<Department> departments = new ArrayList<>();
+        em.getTransaction().begin();
+        for (int i = 0; i < ROWS; i++) {
+            Department d = new Department();
+            d.setDeptNo(1000 + i);
+            d.setDeptName("Batch " + i);
+            em.persist(d);
+            departments.add(d);
+        }
+        em.getTransaction().commit();
+
+        em.getTransaction().begin();
+        for (Department d : departments) {
+            d.setDeptName(d.getDeptName() + " updated");
+        }
+        em.getTransaction().commit();
+        em.clear();
+
+        TypedQuery<Long> q = em.createQuery("select count(d) from department d "
+                + "where d.deptNo >= 1000 and d.deptName like '% updated'", Long.class);
+        Assert.assertEquals(Long.valueOf(ROWS), q.getSingleResult());
+
+        em.getTransaction().begin();
+        for (Department d : departments) {
+            em.remove(em.getReference(Department.class, d.getDeptNo()));
+        }
+        em.getTransaction().commit();
+    }
+
+    @Test
+    public void test204_ChunkedFlush() {
+        final int ROWS = 250;
+        final List<FlushChunk> chunks = new ArrayList<>();
+        Map<String, Object> properties = new HashMap<>();
+        properties.put(PhoenixDialect.FLUSH_CHUNKED, "true");
+        properties.put(PhoenixDialect.FLUSH_CHUNK_ROWS, "100");
+        properties.put(PhoenixDialect.FLUSH_CHUNK_LISTENER, (FlushChunkListener) chunks::add);
+        EntityManagerFactory factory = createEntityManagerFactory(properties);
+        try {
+            EntityManager chunked = factory.createEntityManager();
+            chunked.getTransaction().begin();
+            for (int i = 0; i < ROWS; i++) {
+                Department d = new Department();
+                d.setDeptNo(2000 + i);
+                d.setDeptName("Chunk " + i);
+                chunked.persist(d);
+            }
+            chunked.getTransaction().commit();
+            chunked.close();
+        } finally {
+            factory.close();
+        }
+
+        // The rows left after the last chunk are committed with the transaction
+        Assert.assertEquals(2, chunks.size());
+        for (FlushChunk chunk : chunks) {
+            Assert.assertTrue(chunk.toString(), chunk.getRows() >= 100 && chunk.getBytes() > 0);
+        }
+        TypedQuery<Long> q = em.createQuery("select count(d) from department d "
+                + "where d.deptNo >= 2000 and d.deptName like 'Chunk %'", Long.class);
+        Assert.assertEquals(Long.valueOf(ROWS), q.getSingleResult());
+
+        em.getTransaction().begin();
+        for (int i = 0; i < ROWS; i++) {
+            em.remove(em.getReference(Department.class, 2000 + i));
+        }
+        em.getTransaction().commit();
+    }
+
+    @Test
+    public void test205_GroupCommit() throws Exception {
+        final int THREADS = 8;
+        GroupCommitter committer = new GroupCommitter(200, THREADS);
+        EntityManagerFactory factory = createEntityManagerFactory(
+                Collections.singletonMap(PhoenixDialect.GROUP_COMMIT, committer));
+        ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+        try {
+            List<Future<?>> commits = new ArrayList<>();
+            for (int i = 0; i < THREADS; i++) {
+                final int deptNo = 3000 + i;
+                commits.add(executor.submit(() -> {
+                    EntityManager session = factory.createEntityManager();
+                    try {
+                        session.getTransaction().begin();
+                        Department d = new Department();
+                        d.setDeptNo(deptNo);
+                        d.setDeptName("Group " + deptNo);
+                        session.persist(d);
+                        session.getTransaction().commit();
+                    } finally {
+                        session.close();
+                    }
+                }));
+            }
+            for (Future<?> commit : commits) {
+                commit.get();
+            }
+        } finally {
+            executor.shutdown();
+            factory.close();
+        }
+
+        Assert.assertEquals(THREADS, committer.getCommitCount());
+        Assert.assertTrue("No commit was grouped", committer.getGroupCount() < THREADS);
+        TypedQuery<Long> q = em.createQuery("select count(d) from department d "
+                + "where d.deptNo >= 3000 and d.deptName like 'Group %'", Long.class);
+        Assert.assertEquals(Long.valueOf(THREADS), q.getSingleResult());
+
+        em.getTransaction().begin();
+        for (int i = 0; i < THREADS; i++) {
+            em.remove(em.getReference(Department.class, 3000 + i));
+        }
+        em.getTransaction().commit();
+    }
+
+    @Test
+    public void test206_WriteBehind() throws Exception {
+        final int ROWS = 500;
+        PhoenixWriteBehind writeBehind = new PhoenixWriteBehind(em.getEntityManagerFactory(), 100, 50, 2, 10,
+                PhoenixWriteBehind.OverflowPolicy.BLOCK);
+        for (int i = 0; i < ROWS; i++) {
+            Department d = new Department();
+            d.setDeptNo(4000 + i);
+            d.setDeptName("Behind " + i);
+            Assert.assertTrue(writeBehind.write(d));
+        }
+        writeBehind.close();
+
+        Assert.assertEquals(ROWS, writeBehind.getAcceptedCount());
+        Assert.assertEquals(ROWS, writeBehind.getWrittenCount());
+        Assert.assertEquals(0, writeBehind.getQueueDepth());
+        Assert.assertTrue(writeBehind.getFlushCount() >= ROWS / 50);
+        TypedQuery<Long> q = em.createQuery("select count(d) from department d "
+                + "where d.deptNo >= 4000 and d.deptName like 'Behind %'", Long.class);
+        Assert.assertEquals(Long.valueOf(ROWS), q.getSingleResult());
+
+        em.getTransaction().begin();
+        for (int i = 0; i < ROWS; i++) {
+            em.remove(em.getReference(Department.class, 4000 + i));
+        }
+        em.getTransaction().commit();
+    }
+
+    @Test
+    public void test207_BulkWriter() {
+        final int ROWS = 2000;
+        PhoenixBulkWriter writer = new PhoenixBulkWriter(em.getEntityManagerFactory(), 4, 250);
+        final List<Long> progress = Collections.synchronizedList(new ArrayList<>());
+        writer.setProgressListener((rows, rowsPerSecond) -> progress.add(rows));
+        PhoenixBulkWriter.Result result = writer.write(IntStream.range(0, ROWS).mapToObj(i -> {
+            Department d = new Department();
+            d.setDeptNo(5000 + i);
+            d.setDeptName("Bulk " + i);
+            return d;
+        }));
+
+        Assert.assertEquals(ROWS, result.getRows());
+        Assert.assertTrue(result.getRowsPerSecond() > 0);
+        Assert.assertEquals(ROWS / 250, progress.size());
+        TypedQuery<Long> q = em.createQuery("select count(d) from department d "
+                + "where d.deptNo >= 5000 and d.deptName like 'Bulk %'", Long.class);
+        Assert.assertEquals(Long.valueOf(ROWS), q.getSingleResult());
+
+        em.getTransaction().begin();
+        for (int i = 0; i < ROWS; i++) {
+            em.remove(em.getReference(Department.class, 5000 + i));
+        }
+        em.getTransaction().commit();
+    }
+
+    @Test
+    public void test208_BulkUpdateAndInsertSelect() {
+        final int ROWS = 10;
+        em.getTransaction().begin();
+        for (int i = 0; i < ROWS; i++) {
+            Department d = new Department();
+            d.setDeptNo(6000 + i);
+            d.setDeptName("bulk " + i);
+            em.persist(d);
+        }
+        em.getTransaction().commit();
+        em.clear();
+
+        em.getTransaction().begin();
+        int updated = em.createQuery("update department d set d.deptName = upper(d.deptName) "
+                + "where d.deptNo >= 6000 and d.deptNo < 6005").executeUpdate();
+        int inserted = em.createQuery("insert into department (deptNo, deptName) "
+                + "select d.deptNo + 1000, concat('COPY ', d.deptName) from department d "
+                + "where d.deptNo >= 6000 and d.deptNo < 6000 + :rows")
+                .setParameter("rows", ROWS).executeUpdate();
+        em.getTransaction().commit();
+        Assert.assertEquals(5, updated);
+        Assert.assertEquals(ROWS, inserted);
+
+        TypedQuery<Long> q = em.createQuery("select count(d) from department d "
+                + "where d.deptNo >= 6000 and d.deptNo < 6005 and d.deptName like 'BULK %'", Long.class);
+        Assert.assertEquals(Long.valueOf(5), q.getSingleResult());
+        q = em.createQuery("select count(d) from department d "
+                + "where d.deptNo >= 7000 and d.deptName like 'COPY %'", Long.class);
+        Assert.assertEquals(Long.valueOf(ROWS), q.getSingleResult());
+
+        em.getTransaction().begin();
+        for (int i = 0; i < ROWS; i++) {
+            em.remove(em.getReference(Department.class, 6000 + i));
+            em.remove(em.getReference(Department.class, 7000 + i));
+        }
+        em.getTransaction().commit();
+    }
+
+    @Test
+    public void test209_ChunkedBulkDelete() {
+        final int ROWS = 250;
+        final List<Long> progress = new ArrayList<>();
+        StatementLog log = new StatementLog();
+        Map<String, Object> props = new HashMap<>();
+        props.put(AvailableSettings.STATEMENT_INSPECTOR, log);
+        props.put(PhoenixDialect.DELETE_CHUNK_ROWS, 100);
+        props.put(PhoenixDialect.DELETE_CHUNK_LISTENER,
+                (BulkDeleteListener) (entityName, rows, totalRows) -> progress.add(totalRows));
+        EntityManagerFactory factory = createEntityManagerFactory(props);
+        try {
+            EntityManager chunked = factory.createEntityManager();
+            chunked.getTransaction().begin();
+            for (int i = 0; i < ROWS; i++) {
+                Department d = new Department();
+                d.setDeptNo(8000 + i);
+                d.setDeptName("Purge " + i);
+                chunked.persist(d);
+            }
+            chunked.getTransaction().commit();
+
+            chunked.getTransaction().begin();
+            int deleted = chunked.createQuery("delete from department d where d.deptNo >= 8000 "
+                    + "and d.deptName like 'Purge %'").executeUpdate();
+            chunked.getTransaction().commit();
+            chunked.close();
+            Assert.assertEquals(ROWS, deleted);
+        } finally {
+            factory.close();
+        }
+
+        Assert.assertEquals(Arrays.asList(100L, 200L, 250L), progress);
+        // Only the chunks were deleted, each one with the limit
+        List<String> deletes = log.getStatements("delete ");
+        Assert.assertEquals(deletes.toString(), 3, deletes.size());
+        for (String delete : deletes) {
+            Assert.assertTrue(delete, delete.endsWith(" limit 100"));
+        }
+        TypedQuery<Long> q = em.createQuery("select count(d) from department d "
+                + "where d.deptNo >= 8000 and d.deptName like 'Purge %'", Long.class);
+        Assert.assertEquals(Long.valueOf(0), q.getSingleResult());
+    }
+
+    @Test
+    public void test210_CoalescedDeletes() {
+        final int ROWS = 250;
+        em.getTransaction().begin();
+        for (int i = 0; i < ROWS; i++) {
+            Department d = new Department();
+            d.setDeptNo(9000 + i);
+            d.setDeptName("Removed " + i);
+            em.persist(d);
+        }
+        em.getTransaction().commit();
+        em.clear();
+
+        // Removed in IN list deletes of up to the batch size rows
+        em.getTransaction().begin();
+        TypedQuery<Department> departments = em.createQuery("select d from department d "
+                + "where d.deptNo >= 9000 and d.deptName like 'Removed %'", Department.class);
+        for (Department d : departments.getResultList()) {
+            em.remove(d);
+        }
+        em.getTransaction().commit();
+
+        TypedQuery<Long> q = em.createQuery("select count(d) from department d "
+                + "where d.deptNo >= 9000 and d.deptName like 'Removed %'", Long.class);
+        Assert.assertEquals(Long.valueOf(0), q.getSingleResult());
+    }
+
+    @Test
+    public void test211_RangeDeleteOfCollections() {
+        StatementLog log = new StatementLog();
+        Map<String, Object> properties = new HashMap<>();
+        properties.put(AvailableSettings.STATEMENT_INSPECTOR, log);
+        properties.put(PhoenixDialect.DELETE_RANGE, "true");
+        EntityManagerFactory factory = createEntityManagerFactory(properties);
+        Invoice invoice;
+        try {
+            EntityManager session = factory.createEntityManager();
+            session.getTransaction().begin();
+            invoice = new Invoice();
+            invoice.setInvNo(1);
+            invoice.setCustomer("Jane Doe");
+            session.persist(invoice);
+            for (int i = 0; i < 3; i++) {
+                InvoiceLine line = new InvoiceLine();
+                line.setInvNo(invoice.getInvNo());
+                line.setInvoice(invoice);
+                line.setLineNo(i);
+                line.setAmount(10d * (i + 1));
+                session.persist(line);
+            }
+            session.getTransaction().commit();
+            session.clear();
+            log.clear();
+
+            // The lines are deleted without being loaded
+            session.getTransaction().begin();
+            invoice = session.find(Invoice.class, 1);
+            session.remove(invoice);
+            session.getTransaction().commit();
+            session.close();
+        } finally {
+            factory.close();
+        }
+        Assert.assertFalse(Hibernate.isInitialized(invoice.getLines()));
+        Assert.assertEquals(Collections.singletonList("delete from \"T\".\"INVL\" where \"INV_NO\"=?"),
+                log.getStatements("delete from \"T\".\"INVL\""));
+        Assert.assertTrue(log.getStatements("select").stream().noneMatch(sql -> sql.contains("\"T\".\"INVL\"")));
+
+        TypedQuery<Long> q = em.createQuery("select count(l) from invoiceLine l where l.invNo = 1", Long.class);
+        Assert.assertEquals(Long.valueOf(0), q.getSingleResult());
+        Assert.assertNull(em.find(Invoice.class, 1));
+    }
+
+    @Test
+    public void test212_HFileLoad() throws Exception {
+        final int ROWS = 1000;
+        // Salted and column encoded, with a global index, so the loader writes the cells of both
+        createReadingTable();
+
+        File workDir = Files.createTempDirectory("hfiles").toFile();
+        try {
+            PhoenixHFileLoader loader = new PhoenixHFileLoader(em.getEntityManagerFactory(),
+                    new Path(workDir.toURI()), 300);
+            PhoenixBulkWriter.Result result = loader.load(IntStream.range(0, ROWS).mapToObj(i -> {
+                Reading r = new Reading();
+                r.setId(i);
+                r.setSensor("Sensor " + i);
+                r.setValue(i / 10d);
+                return r;
+            }));
+            Assert.assertEquals(ROWS, result.getRows());
+        } finally {
+            delete(workDir);
+        }
+
+        TypedQuery<Long> q = em.createQuery("select count(r) from reading r", Long.class);
+        Assert.assertEquals(Long.valueOf(ROWS), q.getSingleResult());
+        Reading loaded = em.find(Reading.class, 123);
+        Assert.assertEquals("Sensor 123", loaded.getSensor());
+        Assert.assertEquals(Double.valueOf(12.3d), loaded.getValue());
+
+        // The index rows were loaded too, and point back to their rows
+        Assert.assertEquals(ROWS, ((Number) em.createNativeQuery("select count(*) from T.RD_I0")
+                .getSingleResult()).intValue());
+        Assert.assertEquals(456, ((Number) em.createNativeQuery("select /*+ INDEX(T.RD RD_I0) */ ID from T.RD "
+                + "where SENSOR = 'Sensor 456'").getSingleResult()).intValue());
+
+        em.getTransaction().begin();
+        em.createQuery("delete from reading").executeUpdate();
+        em.getTransaction().commit();
+    }
+
+    @Test
+    public void test213_Truncate() throws Exception {
+        // Salted, so its table is split in regions, and with a global index
+        createReadingTable();
+        em.getTransaction().begin();
+        for (int i = 0; i < 100; i++) {
+            Reading r = new Reading();
+            r.setId(i);
+            r.setSensor("Sensor " + i);
+            em.persist(r);
+        }
+        em.getTransaction().commit();
+
+        byte[][] tableSplits = getStartKeys("T.RD");
+        byte[][] indexSplits = getStartKeys("T.RD_I0");
+        Assert.assertEquals(4, tableSplits.length);
+
+        PhoenixTruncate.truncate(em, Reading.class);
+        em.clear();
+
+        // The rows of the table and of its index are gone, but not their regions
+        TypedQuery<Long> q = em.createQuery("select count(r) from reading r", Long.class);
+        Assert.assertEquals(Long.valueOf(0), q.getSingleResult());
+        Assert.assertEquals(0, ((Number) em.createNativeQuery("select count(*) from T.RD_I0")
+                .getSingleResult()).intValue());
+        Assert.assertArrayEquals(tableSplits, getStartKeys("T.RD"));
+        Assert.assertArrayEquals(indexSplits, getStartKeys("T.RD_I0"));
+
+        // The index is still maintained and used
+        em.getTransaction().begin();
+        Reading r = new Reading();
+        r.setId(7);
+        r.setSensor("Sensor 7");
+        em.persist(r);
+        em.getTransaction().commit();
+        Assert.assertEquals(7, ((Number) em.createNativeQuery("select /*+ INDEX(T.RD RD_I0) */ ID from T.RD "
+                + "where SENSOR = 'Sensor 7'").getSingleResult()).intValue());
+
+        PhoenixTruncate.truncate(em, Reading.class);
+        em.clear();
+    }
+
+    @Test
+    public void test214_InsertWithoutNullColumns() {
+        StatementLog log = new StatementLog();
+        Map<String, Object> props = new HashMap<>();
+        props.put(PhoenixDialect.DYNAMIC_INSERT, "true");
+        props.put(AvailableSettings.STATEMENT_INSPECTOR, log);
+        EntityManagerFactory factory = createEntityManagerFactory(props);
+        try {
+            EntityManager dynamic = factory.createEntityManager();
+            dynamic.getTransaction().begin();
+            dynamic.persist(note(1, "First", null));
+            dynamic.persist(note(2, "Second", null));
+            dynamic.persist(note(3, "Third", "Body"));
+            dynamic.getTransaction().commit();
+            dynamic.close();
+        } finally {
+            factory.close();
+        }
+
+        // One statement per null pattern, without the null columns
+        Assert.assertEquals(new HashSet<>(Arrays.asList(
+                "upsert into \"T\".\"N\" (\"TITLE\", \"ID\") values (?, ?)",
+                "upsert into \"T\".\"N\" (\"BODY\", \"TITLE\", \"ID\") values (?, ?, ?)")),
+                new HashSet<>(log.getStatements("upsert into \"T\".\"N\"")));
+        em.clear();
+        Assert.assertNull(em.find(Note.class, 1).getBody());
+        Assert.assertEquals("Body", em.find(Note.class, 3).getBody());
+
+        em.getTransaction().begin();
+        for (int i = 1; i <= 3; i++) {
+            em.remove(em.getReference(Note.class, i));
+        }
+        em.getTransaction().commit();
+    }
+
+    @Test
+    public void test215_GroupCommitFailure() throws Exception {
+        em.getTransaction().begin();
+        em.createNativeQuery("create table T.GC (ID integer not null primary key, V varchar)").executeUpdate();
+        em.getTransaction().commit();
+
+        // Each member fits in a commit on its own, but not the two of them together
+        GroupCommitter committer = new GroupCommitter(10000, 2);
+        Map<String, Object> properties = new HashMap<>();
+        properties.put(PhoenixDialect.GROUP_COMMIT, committer);
+        properties.put("hibernate.connection." + QueryServices.MAX_MUTATION_SIZE_ATTRIB, "1");
+        EntityManagerFactory factory = createEntityManagerFactory(properties);
+        EntityManager first = factory.createEntityManager();
+        EntityManager second = factory.createEntityManager();
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            first.getTransaction().begin();
+            first.createNativeQuery("upsert into T.GC (ID, V) values (1, 'First')").executeUpdate();
+            second.getTransaction().begin();
+            second.createNativeQuery("upsert into T.GC (ID, V) values (2, 'Second')").executeUpdate();
+
+            // Both members fail with the group, none commits its row again on its own
+            List<Future<?>> commits = Arrays.asList(
+                    executor.submit(() -> first.getTransaction().commit()),
+                    executor.submit(() -> second.getTransaction().commit()));
+            for (Future<?> commit : commits) {
+                try {
+                    commit.get();
+                    Assert.fail("A member of a failed group was committed");
+                } catch (ExecutionException e) {
+                    Assert.assertTrue(e.getCause().toString(), e.getCause() instanceof RollbackException);
+                }
+            }
+        } finally {
+            executor.shutdown();
+            first.close();
+            second.close();
+            factory.close();
+        }
+
+        Assert.assertEquals(2, committer.getCommitCount());
+        Assert.assertEquals(1, committer.getGroupCount());
+        Assert.assertEquals(1, committer.getFailedGroupCount());
+        Assert.assertEquals(0, ((Number) em.createNativeQuery("select count(*) from T.GC").getSingleResult()).intValue());
+
+        em.getTransaction().begin();
+        em.createNativeQuery("drop table T.GC").executeUpdate();
+        em.getTransaction().commit();
+    }
+
+    @Test
+    public void test216_CoalescedVersionedDeletes() {
+        final int ROWS = 20;
+        StatementLog log = new StatementLog();
+        EntityManagerFactory factory = createEntityManagerFactory(
+                Collections.singletonMap(AvailableSettings.STATEMENT_INSPECTOR, log));
+        try {
+            EntityManager session = factory.createEntityManager();
+            session.getTransaction().begin();
+            for (int i = 0; i < ROWS; i++) {
+                VersionedEntity v = new VersionedEntity();
+                v.setId(9500 + i);
+                v.setField("Removed " + i);
+                session.persist(v);
+            }
+            session.getTransaction().commit();
+            session.clear();
+
+            session.getTransaction().begin();
+            TypedQuery<VersionedEntity> q = session.createQuery("select v from versioned v "
+                    + "where v.id >= 9500 and v.id < " + (9500 + ROWS), VersionedEntity.class);
+            List<VersionedEntity> entities = q.getResultList();
+            Assert.assertEquals(ROWS, entities.size());
+            log.clear();
+            for (VersionedEntity v : entities) {
+                session.remove(v);
+            }
+            session.getTransaction().commit();
+            session.close();
+        } finally {
+            factory.close();
+        }
+
+        // The key and the version of every row in a single IN list
+        List<String> deletes = log.getStatements("delete ");
+        Assert.assertEquals(deletes.toString(), 1, deletes.size());
+        Assert.assertTrue(deletes.get(0), deletes.get(0).contains(") in (("));
+
+        // Phoenix looks the rows up by their key and only filters them by their version
+        StringBuilder delete = new StringBuilder(deletes.get(0));
+        for (int i = 0, p = delete.indexOf("?"); p != -1; i++, p = delete.indexOf("?", p)) {
+            delete.replace(p, p + 1, i % 2 == 0 ? String.valueOf(9500 + i / 2) : "0");
+        }
+        String plan = explain(delete.toString());
+        Assert.assertTrue(plan, plan.contains("POINT LOOKUP ON " + ROWS + " KEYS")
+                || plan.contains("SKIP SCAN ON " + ROWS + " KEYS"));
+        Assert.assertFalse(plan, plan.contains("FULL SCAN"));
+        TypedQuery<Long> q = em.createQuery("select count(v) from versioned v "
+                + "where v.id >= 9500 and v.id < " + (9500 + ROWS), Long.class);
+        Assert.assertEquals(Long.valueOf(0), q.getSingleResult());
+    }
+
+    @Test
+    public void test217_TruncateImportScript() {
+        // The script of the unit upserts two rows, truncates the table and upserts a third one
+        EntityManagerFactory factory = Persistence.createEntityManagerFactory("jpa-truncate");
+        try {
+            EntityManager truncated = factory.createEntityManager();
+            List<Snapshot> snapshots = truncated.createQuery("select s from snapshot s", Snapshot.class)
+                    .getResultList();
+            Assert.assertEquals(1, snapshots.size());
+            Assert.assertEquals(3, snapshots.get(0).getId());
+            Assert.assertEquals("Fresh", snapshots.get(0).getLabel());
+            truncated.close();
+        } finally {
+            factory.close();
+        }
+    }
+
     @Test(expected=NoResultException.class)
     public void test301_Delete() {
         TypedQuery<Employee> q = em.createQuery("select e from employee e where e.empNo = :empNo", Employee.class);
@@ -669,6 +1290,61 @@ public class PhoenixDialectTest {
         }
     }
 
+    @Test
+    public void test404_BlindMerge() {
+        StatementLog log = new StatementLog();
+        EntityManagerFactory factory = createEntityManagerFactory(
+                Collections.singletonMap(AvailableSettings.STATEMENT_INSPECTOR, log));
+        try {
+            EntityManager session = factory.createEntityManager();
+            Preference p = new Preference();
+            p.setName("theme");
+            p.setValue("light");
+            session.getTransaction().begin();
+            Preference merged = session.merge(p);
+            Assert.assertTrue(session.contains(merged));
+            Assert.assertFalse(session.contains(p));
+            session.getTransaction().commit();
+
+            // Merge again a detached copy over the existing row
+            session.clear();
+            log.clear();
+            p = new Preference();
+            p.setName("theme");
+            p.setValue("dark");
+            session.getTransaction().begin();
+            session.merge(p);
+            session.getTransaction().commit();
+            session.close();
+        } finally {
+            factory.close();
+        }
+        // The row was written without being read first
+        Assert.assertEquals(Collections.emptyList(), log.getStatements("select"));
+        Assert.assertEquals(1, log.getStatements("upsert into \"T\".\"PF\"").size());
+
+        TypedQuery<Preference> q = em.createQuery("select p from preference p where p.name = :name", Preference.class);
+        q.setParameter("name", "theme");
+        Assert.assertEquals("dark", q.getSingleResult().getValue());
+    }
+
+    @Test
+    public void test405_IncrementCounters() {
+        em.getTransaction().begin();
+        PhoenixCounters.increment(em, Counter.class, "views", "hits", 5);
+        try (PhoenixCounters.Batch batch = PhoenixCounters.batch(em)) {
+            for (int i = 0; i < 10; i++) {
+                batch.increment(Counter.class, "views", "hits", 1);
+                batch.increment(Counter.class, "clicks", "hits", 2);
+            }
+        }
+        em.getTransaction().commit();
+        em.clear();
+
+        Assert.assertEquals(15, em.find(Counter.class, "views").getHits());
+        Assert.assertEquals(20, em.find(Counter.class, "clicks").getHits());
+    }
+
     @Test
     public void test501_Sequence() {
         Parameter p = new Parameter();
@@ -700,4 +1376,75 @@ public class PhoenixDialectTest {
         }
         return null;
     }
+
+    // A factory over the tables of the shared one, which must not create or drop them again
+    private static EntityManagerFactory createEntityManagerFactory(Map<String, ?> properties) {
+        Map<String, Object> overrides = new HashMap<>(properties);
+        overrides.put(AvailableSettings.HBM2DDL_AUTO, "none");
+        return Persistence.createEntityManagerFactory(persistenceUnit, overrides);
+    }
+
+    private static Reservation reservation(int seat, String holder) {
+        Reservation reservation = new Reservation();
+        reservation.setSeat(seat);
+        reservation.setHolder(holder);
+        return reservation;
+    }
+
+    // A salted and column encoded T.RD, with a global index, instead of the one of the schema
+    private static void createReadingTable() {
+        em.getTransaction().begin();
+        em.createNativeQuery("drop table if exists T.RD").executeUpdate();
+        em.createNativeQuery("create table T.RD (ID integer not null primary key, SENSOR varchar(40), VAL double) "
+                + "SALT_BUCKETS=4, COLUMN_ENCODED_BYTES=2").executeUpdate();
+        em.createNativeQuery("create index RD_I0 on T.RD (SENSOR)").executeUpdate();
+        em.getTransaction().commit();
+    }
+
+    // The query plan of a statement, one step per line
+    private static String explain(String sql) {
+        return em.unwrap(Session.class).doReturningWork(connection -> {
+            StringBuilder plan = new StringBuilder();
+            try (Statement statement = connection.createStatement();
+                    ResultSet rs = statement.executeQuery("explain " + sql)) {
+                while (rs.next()) {
+                    plan.append(rs.getString(1)).append('\n');
+                }
+            }
+            return plan.toString();
+        });
+    }
+
+    // The regions of the physical table, as listed in the meta table of the cluster
+    private static byte[][] getStartKeys(String tableName) {
+        return em.unwrap(Session.class).doReturningWork(connection -> {
+            PhoenixConnection phoenix = connection.unwrap(PhoenixConnection.class);
+            TableName physicalName = TableName.valueOf(
+                    PhoenixRuntime.getTable(phoenix, tableName).getPhysicalName().getBytes());
+            try (Admin admin = phoenix.getQueryServices().getAdmin();
+                    RegionLocator locator = admin.getConnection().getRegionLocator(physicalName)) {
+                return locator.getStartKeys();
+            } catch (IOException e) {
+                throw new SQLException(e);
+            }
+        });
+    }
+
+    private static void delete(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                delete(child);
+            }
+        }
+        file.delete();
+    }
+
+    private static Note note(int id, String title, String body) {
+        Note note = new Note();
+        note.setId(id);
+        note.setTitle(title);
+        note.setBody(body);
+        return note;
+    }
 }
@@ -0,0 +1,198 @@
+/*
+ * Copyright (C) 2017 Jorge Ruesga
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.timebusker.phoenix.dialect;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.hibernate.boot.Metadata;
+import org.hibernate.boot.MetadataSources;
+import org.hibernate.boot.registry.BootstrapServiceRegistry;
+import org.hibernate.boot.registry.BootstrapServiceRegistryBuilder;
+import org.hibernate.boot.registry.StandardServiceRegistry;
+import org.hibernate.boot.registry.StandardServiceRegistryBuilder;
+import org.hibernate.cfg.AvailableSettings;
+import org.hibernate.engine.spi.SessionFactoryImplementor;
+import org.hibernate.event.internal.DefaultMergeEventListener;
+import org.hibernate.event.service.spi.EventListenerRegistry;
+import org.hibernate.event.spi.DeleteEventListener;
+import org.hibernate.event.spi.EventType;
+import org.hibernate.event.spi.MergeEvent;
+import org.hibernate.event.spi.MergeEventListener;
+import org.hibernate.integrator.spi.Integrator;
+import org.hibernate.service.spi.SessionFactoryServiceRegistry;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import com.ruesga.phoenix.jpa.entities.Invoice;
+import com.ruesga.phoenix.jpa.entities.InvoiceLine;
+import com.ruesga.phoenix.jpa.entities.Note;
+import com.ruesga.phoenix.jpa.entities.Preference;
+import com.timebusker.phoenix.dialect.write.AdaptiveBatchController;
+import com.timebusker.phoenix.dialect.write.RangeDeleteEventListener;
+
+/**
+ * Checks the listeners registered by the {@link PhoenixIntegrator}, on session factories that
+ * never connect to the database.
+ */
+public class PhoenixIntegratorTest {
+
+    private static class AuditMergeListener implements MergeEventListener {
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        public void onMerge(MergeEvent event) {
+        }
+
+        @Override
+        @SuppressWarnings("rawtypes")
+        public void onMerge(MergeEvent event, Map copiedAlready) {
+        }
+    }
+
+    @BeforeClass
+    public static void setUpBeforeClass() {
+        System.setProperty(PhoenixDialect.WEAVING, "false");
+    }
+
+    @Test
+    public void testBlindMergesKeepTheOtherMergeListeners() {
+        MergeEventListener audit = new AuditMergeListener();
+        SessionFactoryImplementor factory = buildSessionFactory(audit, Preference.class);
+        try {
+            List<MergeEventListener> merges = getMergeListeners(factory);
+            Assert.assertEquals(2, merges.size());
+            Assert.assertEquals(PhoenixMergeEventListener.class, merges.get(0).getClass());
+            Assert.assertSame(audit, merges.get(1));
+        } finally {
+            factory.close();
+        }
+    }
+
+    @Test
+    public void testStandardMergeWithoutBlindMerges() {
+        MergeEventListener audit = new AuditMergeListener();
+        SessionFactoryImplementor factory = buildSessionFactory(audit, Note.class);
+        try {
+            List<MergeEventListener> merges = getMergeListeners(factory);
+            Assert.assertEquals(2, merges.size());
+            Assert.assertEquals(DefaultMergeEventListener.class, merges.get(0).getClass());
+            Assert.assertSame(audit, merges.get(1));
+        } finally {
+            factory.close();
+        }
+    }
+
+    @Test
+    public void testRangeDeletesAreOptIn() {
+        MergeEventListener audit = new AuditMergeListener();
+        SessionFactoryImplementor factory = buildSessionFactory(audit, Invoice.class, InvoiceLine.class);
+        try {
+            Assert.assertFalse(hasRangeDeletes(factory));
+        } finally {
+            factory.close();
+        }
+
+        factory = buildSessionFactory(Collections.singletonMap(PhoenixDialect.DELETE_RANGE, "true"), audit,
+                Invoice.class, InvoiceLine.class);
+        try {
+            Assert.assertTrue(hasRangeDeletes(factory));
+        } finally {
+            factory.close();
+        }
+    }
+
+    @Test
+    public void testFlushChunkControllerIsPublished() throws Exception {
+        AdaptiveBatchController controller = new AdaptiveBatchController();
+        Map<String, Object> settings = new HashMap<>();
+        settings.put(PhoenixDialect.FLUSH_CHUNKED, "true");
+        settings.put(PhoenixDialect.FLUSH_CHUNK_CONTROLLER, controller);
+        SessionFactoryImplementor factory = buildSessionFactory(settings, new AuditMergeListener(), Note.class);
+        ObjectName name = new ObjectName(PhoenixIntegrator.MBEAN_DOMAIN + ":type=AdaptiveBatchController,name="
+                + ObjectName.quote(factory.getUuid()));
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        try {
+            controller.onCommit(controller.getSize(), 1000L);
+            Assert.assertEquals(controller.getSize(), server.getAttribute(name, "Size"));
+            Assert.assertEquals(1L, server.getAttribute(name, "CommitCount"));
+        } finally {
+            factory.close();
+        }
+        Assert.assertFalse(server.isRegistered(name));
+    }
+
+    private static SessionFactoryImplementor buildSessionFactory(MergeEventListener listener, Class<?>... entities) {
+        return buildSessionFactory(Collections.emptyMap(), listener, entities);
+    }
+
+    // The listener is registered by an integrator that runs before the Phoenix one
+    private static SessionFactoryImplementor buildSessionFactory(Map<String, ?> settings,
+            MergeEventListener listener, Class<?>... entities) {
+        BootstrapServiceRegistry bootstrap = new BootstrapServiceRegistryBuilder()
+                .applyIntegrator(new Integrator() {
+                    @Override
+                    public void integrate(Metadata metadata, SessionFactoryImplementor sessionFactory,
+                            SessionFactoryServiceRegistry serviceRegistry) {
+                        serviceRegistry.getService(EventListenerRegistry.class)
+                                .appendListeners(EventType.MERGE, listener);
+                    }
+
+                    @Override
+                    public void disintegrate(SessionFactoryImplementor sessionFactory,
+                            SessionFactoryServiceRegistry serviceRegistry) {
+                    }
+                })
+                .build();
+        StandardServiceRegistry registry = new StandardServiceRegistryBuilder(bootstrap)
+                .applySetting(AvailableSettings.DIALECT, PhoenixDialect.class.getName())
+                .applySetting("hibernate.temp.use_jdbc_metadata_defaults", "false")
+                .applySettings(settings)
+                .build();
+        MetadataSources sources = new MetadataSources(registry);
+        for (Class<?> entity : entities) {
+            sources.addAnnotatedClass(entity);
+        }
+        return sources.buildMetadata().buildSessionFactory().unwrap(SessionFactoryImplementor.class);
+    }
+
+    private static boolean hasRangeDeletes(SessionFactoryImplementor factory) {
+        for (DeleteEventListener listener : factory.getServiceRegistry().getService(EventListenerRegistry.class)
+                .getEventListenerGroup(EventType.DELETE).listeners()) {
+            if (listener instanceof RangeDeleteEventListener) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static List<MergeEventListener> getMergeListeners(SessionFactoryImplementor factory) {
+        List<MergeEventListener> merges = new ArrayList<>();
+        for (MergeEventListener listener : factory.getServiceRegistry().getService(EventListenerRegistry.class)
+                .getEventListenerGroup(EventType.MERGE).listeners()) {
+            merges.add(listener);
+        }
+        return merges;
+    }
+}
@@ -0,0 +1,48 @@
+/*
+ * Copyright (C) 2017 Jorge Ruesga
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.timebusker.phoenix.dialect;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.FixMethodOrder;
+import org.junit.runners.MethodSorters;
+
+import com.ruesga.phoenix.jpa.JpaEntityManager;
+
+/**
+ * Runs the {@link PhoenixDialectTest} suite without load-time weaving, with the UPSERT statements
+ * generated by the Phoenix persisters.
+ */
+@FixMethodOrder(MethodSorters.NAME_ASCENDING)
+public class PhoenixPersisterDialectTest extends PhoenixDialectTest {
+
+    private static final String PERSISTENCE_UNIT = "jpa-persister";
+
+    @BeforeClass
+    public static void setUpBeforeClass() throws Exception {
+        System.setProperty(PhoenixDialect.WEAVING, "false");
+        persistenceUnit = PERSISTENCE_UNIT;
+        em = JpaEntityManager.getInstance(PERSISTENCE_UNIT).createEntityManager();
+    }
+
+    @AfterClass
+    public static void tearDownAfterClass() {
+        if (em != null) {
+            em.close();
+        }
+        JpaEntityManager.getInstance(PERSISTENCE_UNIT).close();
+    }
+}
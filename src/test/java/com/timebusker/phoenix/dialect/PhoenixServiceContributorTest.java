@@ -0,0 +1,98 @@
+/*
+ * Copyright (C) 2017 Jorge Ruesga
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.timebusker.phoenix.dialect;
+
+import java.util.Map;
+
+import org.hibernate.boot.registry.StandardServiceRegistry;
+import org.hibernate.boot.registry.StandardServiceRegistryBuilder;
+import org.hibernate.cfg.AvailableSettings;
+import org.hibernate.engine.config.spi.ConfigurationService;
+import org.hibernate.resource.jdbc.spi.StatementInspector;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+public class PhoenixServiceContributorTest {
+
+    private static final String MUTATE_BATCH_SIZE = "hibernate.connection.phoenix.mutate.batchSize";
+
+    @BeforeClass
+    public static void setUpBeforeClass() {
+        System.setProperty(PhoenixDialect.WEAVING, "false");
+    }
+
+    @Test
+    public void testBatchingFollowsTheMutateBatchSize() {
+        Map<?, ?> settings = getSettings(builder().applySetting(MUTATE_BATCH_SIZE, "250"));
+        Assert.assertEquals("250", settings.get(AvailableSettings.STATEMENT_BATCH_SIZE));
+        Assert.assertEquals("true", settings.get(AvailableSettings.ORDER_INSERTS));
+        Assert.assertEquals("true", settings.get(AvailableSettings.ORDER_UPDATES));
+    }
+
+    @Test
+    public void testExplicitSettingsAreKept() {
+        Map<?, ?> settings = getSettings(builder()
+                .applySetting(MUTATE_BATCH_SIZE, "250")
+                .applySetting(AvailableSettings.STATEMENT_BATCH_SIZE, "10")
+                .applySetting(AvailableSettings.ORDER_UPDATES, "false"));
+        Assert.assertEquals("10", settings.get(AvailableSettings.STATEMENT_BATCH_SIZE));
+        Assert.assertEquals("true", settings.get(AvailableSettings.ORDER_INSERTS));
+        Assert.assertEquals("false", settings.get(AvailableSettings.ORDER_UPDATES));
+    }
+
+    @Test
+    public void testBatchingCanBeDisabled() {
+        Map<?, ?> settings = getSettings(builder().applySetting(PhoenixDialect.FLUSH_BATCHING, "false"));
+        Assert.assertNull(settings.get(AvailableSettings.STATEMENT_BATCH_SIZE));
+        Assert.assertNull(settings.get(AvailableSettings.ORDER_INSERTS));
+        Assert.assertNull(settings.get(AvailableSettings.ORDER_UPDATES));
+    }
+
+    @Test
+    public void testOtherDialectsAreNotBatched() {
+        Map<?, ?> settings = getSettings(new StandardServiceRegistryBuilder()
+                .applySetting(AvailableSettings.DIALECT, "org.hibernate.dialect.H2Dialect"));
+        Assert.assertNull(settings.get(AvailableSettings.STATEMENT_BATCH_SIZE));
+    }
+
+    @Test
+    public void testStatementInspectorIsChained() {
+        StatementInspector comments = sql -> "/* app */ " + sql;
+        Map<?, ?> settings = getSettings(builder().applySetting(AvailableSettings.STATEMENT_INSPECTOR, comments));
+        StatementInspector inspector = (StatementInspector) settings.get(AvailableSettings.STATEMENT_INSPECTOR);
+        Assert.assertTrue(inspector instanceof PhoenixStatementInspector);
+        Assert.assertEquals("/* app */ upsert into T.D (DEPT_NO) values (?)", inspector.inspect("insert into T.D (DEPT_NO) values (?)"));
+
+        StatementLog log = new StatementLog();
+        settings = getSettings(builder().applySetting(AvailableSettings.STATEMENT_INSPECTOR, log));
+        Assert.assertSame(log, settings.get(AvailableSettings.STATEMENT_INSPECTOR));
+    }
+
+    private static StandardServiceRegistryBuilder builder() {
+        return new StandardServiceRegistryBuilder()
+                .applySetting(AvailableSettings.DIALECT, PhoenixDialect.class.getName());
+    }
+
+    private static Map<?, ?> getSettings(StandardServiceRegistryBuilder builder) {
+        StandardServiceRegistry registry = builder.build();
+        try {
+            return registry.getService(ConfigurationService.class).getSettings();
+        } finally {
+            StandardServiceRegistryBuilder.destroy(registry);
+        }
+    }
+}
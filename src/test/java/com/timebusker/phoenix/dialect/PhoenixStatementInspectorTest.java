@@ -0,0 +1,77 @@
+/*
+ * Copyright (C) 2017 Jorge Ruesga
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.timebusker.phoenix.dialect;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class PhoenixStatementInspectorTest {
+
+    private final PhoenixStatementInspector inspector = new PhoenixStatementInspector();
+
+    @Before
+    public void setUp() {
+        Map<String, String[]> keyColumns = new HashMap<>();
+        keyColumns.put("T.D", new String[] {"DEPT_NO"});
+        keyColumns.put("\"T\".\"S\"", new String[] {"\"EMP_NO\"", "\"FROM_DATE\""});
+        inspector.setKeyColumns(keyColumns);
+    }
+
+    @Test
+    public void testBulkUpdate() {
+        Assert.assertEquals("upsert into T.D (DEPT_NO,DEPT_NAME) select DEPT_NO,upper(DEPT_NAME) from T.D where DEPT_NO>=?",
+                inspector.inspect("update T.D set DEPT_NAME=upper(DEPT_NAME) where DEPT_NO>=?"));
+        Assert.assertEquals("upsert into T.D (DEPT_NO,DEPT_NAME) select DEPT_NO,? from T.D",
+                inspector.inspect("update T.D set DEPT_NAME=?"));
+    }
+
+    @Test
+    public void testBulkUpdateCompositeKey() {
+        Assert.assertEquals("/* bulk */ upsert into \"T\".\"S\" (\"EMP_NO\",\"FROM_DATE\",\"SALARY\",\"TO_DATE\")"
+                + " select \"EMP_NO\",\"FROM_DATE\",\"SALARY\"*?,coalesce(\"TO_DATE\", ?) from \"T\".\"S\""
+                + " where \"EMP_NO\" in (select \"EMP_NO\" from \"T\".\"E\" where \"GENDER\"=?)",
+                inspector.inspect("/* bulk */ update \"T\".\"S\" set \"SALARY\"=\"SALARY\"*?, \"TO_DATE\"=coalesce(\"TO_DATE\", ?)"
+                        + " where \"EMP_NO\" in (select \"EMP_NO\" from \"T\".\"E\" where \"GENDER\"=?)"));
+    }
+
+    @Test
+    public void testUnknownUpdatesAreKept() {
+        String unknownTable = "update T.X set A=? where B=?";
+        Assert.assertSame(unknownTable, inspector.inspect(unknownTable));
+        String keyUpdate = "update T.D set DEPT_NO=DEPT_NO+1";
+        Assert.assertSame(keyUpdate, inspector.inspect(keyUpdate));
+    }
+
+    @Test
+    public void testInsertSelect() {
+        Assert.assertEquals("upsert into T.D (DEPT_NO, DEPT_NAME) select DEPT_NO+1000, DEPT_NAME from T.D",
+                inspector.inspect("insert into T.D (DEPT_NO, DEPT_NAME) select DEPT_NO+1000, DEPT_NAME from T.D"));
+    }
+
+    @Test
+    public void testOtherStatementsAreKept() {
+        String select = "select DEPT_NO from T.D where DEPT_NAME=?";
+        Assert.assertSame(select, inspector.inspect(select));
+        String upsert = "upsert into T.D (DEPT_NO) values (?)";
+        Assert.assertSame(upsert, inspector.inspect(upsert));
+        String delete = "delete from T.D where DEPT_NO>=?";
+        Assert.assertSame(delete, inspector.inspect(delete));
+    }
+}
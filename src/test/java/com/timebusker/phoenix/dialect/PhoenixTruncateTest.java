@@ -0,0 +1,32 @@
+/*
+ * Copyright (C) 2017 Jorge Ruesga
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.timebusker.phoenix.dialect;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class PhoenixTruncateTest {
+
+    @Test
+    public void testTruncatedTable() {
+        Assert.assertEquals("T.E", PhoenixTruncate.getTruncatedTable("truncate table T.E"));
+        Assert.assertEquals("T.E", PhoenixTruncate.getTruncatedTable("TRUNCATE T.E;"));
+        Assert.assertEquals("\"T\".\"E\"", PhoenixTruncate.getTruncatedTable("  truncate table \"T\".\"E\" ; "));
+        Assert.assertNull(PhoenixTruncate.getTruncatedTable("delete from T.E"));
+        Assert.assertNull(PhoenixTruncate.getTruncatedTable("truncate table"));
+        Assert.assertNull(PhoenixTruncate.getTruncatedTable("UPSERT INTO T.X (DUMMY) VALUES ('X')"));
+    }
+}
@@ -15,6 +15,9 @@
  */
 package com.timebusker.phoenix.dialect;
 
+import java.util.Arrays;
+import java.util.Collections;
+
 import org.junit.Assert;
 import org.junit.Test;
 
@@ -22,7 +25,6 @@ public class QueryUtilsTest {
 
     @Test
     public void testRemoveQueryComments() {
-        // TODO Ignore hints
         final String QUERY = "/*this is a \n" +
                 "multiline comment\n" +
                 "*/ select /*+ INDEX(myTable myIndex) */* \n" +
@@ -33,4 +35,50 @@ public class QueryUtilsTest {
         final String result = QueryUtils.removeQueryComments(QUERY).replaceAll("\n", "").trim();
         Assert.assertEquals(EXPECTED, result);
     }
+
+    @Test
+    public void testRemoveQueryCommentsKeepsLiterals() {
+        final String QUERY = "select '-- not a comment', \"/* neither */\" from dual -- a comment";
+        final String EXPECTED = "select '-- not a comment', \"/* neither */\" from dual ";
+        Assert.assertEquals(EXPECTED, QueryUtils.removeQueryComments(QUERY));
+    }
+
+    @Test
+    public void testAddQueryHints() {
+        final String QUERY = " SELECT d.name /* a comment */ from (select name from dept) d";
+        final String EXPECTED = "SELECT /*+ INDEX(T.D D_I0) */ d.name from (select name from dept) d";
+        Assert.assertEquals(EXPECTED, QueryUtils.addQueryHints(QUERY,
+                Collections.singletonList("/*+ INDEX(T.D D_I0) */")));
+    }
+
+    @Test
+    public void testAddQueryHintsMergesExistingHints() {
+        final String QUERY = "\n /*+ NO_CACHE */ select /*+ INDEX(T.D D_I0) */ d.name from T.D d";
+        final String EXPECTED = "select /*+ NO_CACHE INDEX(T.D D_I0) SMALL */ d.name from T.D d";
+        Assert.assertEquals(EXPECTED, QueryUtils.addQueryHints(QUERY,
+                Arrays.asList("/*+ index(T.D   D_I0) */", "SMALL", "/*+ NO_CACHE */")));
+    }
+
+    @Test
+    public void testAddQueryHintsOnOutermostSelect() {
+        final String QUERY = "Select d.name from (select /*+ SKIP_SCAN */ name from dept) d where 'select' = ?";
+        final String EXPECTED = "Select /*+ NO_INDEX */ d.name from (select /*+ SKIP_SCAN */ name from dept) d where 'select' = ?";
+        Assert.assertEquals(EXPECTED, QueryUtils.addQueryHints(QUERY, Collections.singletonList("NO_INDEX")));
+    }
+
+    @Test
+    public void testAddQueryHintsWithoutTopLevelSelect() {
+        final String UPSERT = "/* insert Dept */ upsert /*+ NO_INDEX */ into T.D (ID) values (?) -- a comment";
+        Assert.assertSame(UPSERT, QueryUtils.addQueryHints(UPSERT, Collections.singletonList("NO_CACHE")));
+        final String NESTED = "upsert into T.D (ID) (select ID from T.X) /* a comment */";
+        Assert.assertSame(NESTED, QueryUtils.addQueryHints(NESTED, Collections.singletonList("NO_CACHE")));
+    }
+
+    @Test
+    public void testReplaceLeadingKeyword() {
+        Assert.assertEquals("/* insert Employee */ upsert into T.E (EMP_NO) values (?)",
+                QueryUtils.replaceLeadingKeyword("/* insert Employee */ insert into T.E (EMP_NO) values (?)", "insert", "upsert"));
+        Assert.assertEquals("select 'insert into' from dual",
+                QueryUtils.replaceLeadingKeyword("select 'insert into' from dual", "insert", "upsert"));
+    }
 }
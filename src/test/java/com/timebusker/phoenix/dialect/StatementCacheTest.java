@@ -0,0 +1,97 @@
+/*
+ * Copyright (C) 2017 Jorge Ruesga
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.timebusker.phoenix.dialect;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class StatementCacheTest {
+
+    @Test
+    public void testHitsAndMisses() {
+        StatementCache<StatementShape, String> cache = new StatementCache<>(16);
+        StatementShape shape = StatementShape.forInsert("T.E", null, columns("EMP_NO", "FIRST_NAME"));
+
+        Assert.assertNull(cache.get(shape));
+        cache.put(shape, "upsert into T.E (EMP_NO, FIRST_NAME) values (?, ?)");
+        Assert.assertEquals("upsert into T.E (EMP_NO, FIRST_NAME) values (?, ?)",
+                cache.get(StatementShape.forInsert("T.E", null, columns("EMP_NO", "FIRST_NAME"))));
+        Assert.assertEquals(1L, cache.getHitCount());
+        Assert.assertEquals(1L, cache.getMissCount());
+    }
+
+    @Test
+    public void testShapesAreStructural() {
+        StatementShape a = StatementShape.forUpdate("T.VE", null, columns("FLD"), columns("ID"), null, "VERSION");
+        StatementShape b = StatementShape.forUpdate("T.VE", null, columns("FLD"), columns("ID"), null, "VERSION");
+        StatementShape c = StatementShape.forUpdate("T.VE", null, columns("FLD"), columns("ID"), null, null);
+        StatementShape d = StatementShape.forInsert("T.VE", null, columns("FLD", "ID"));
+        Assert.assertEquals(a, b);
+        Assert.assertEquals(a.hashCode(), b.hashCode());
+        Assert.assertNotEquals(a, c);
+        Assert.assertNotEquals(a, d);
+    }
+
+    @Test
+    public void testBounded() {
+        StatementCache<StatementShape, String> cache = new StatementCache<>(4);
+        for (int i = 0; i < 32; i++) {
+            cache.put(StatementShape.forInsert("T.E", null, columns("C" + i)), "upsert " + i);
+        }
+        Assert.assertEquals(4, cache.size());
+        Assert.assertEquals(28L, cache.getEvictionCount());
+    }
+
+    @Test
+    public void testEvictsLeastRecentlyUsed() {
+        StatementCache<String, String> cache = new StatementCache<>(4);
+        for (int i = 0; i < 4; i++) {
+            cache.put("select " + i, "hinted " + i);
+        }
+        cache.get("select 0");
+        cache.get("select 1");
+        cache.get("select 3");
+        cache.put("select 4", "hinted 4");
+
+        Assert.assertEquals(4, cache.size());
+        Assert.assertNull(cache.get("select 2"));
+        Assert.assertEquals("hinted 0", cache.get("select 0"));
+        Assert.assertEquals("hinted 4", cache.get("select 4"));
+    }
+
+    @Test
+    public void testHitRatio() {
+        StatementCache<String, String> cache = new StatementCache<>(4);
+        Assert.assertEquals(0d, cache.getHitRatio(), 0d);
+        cache.get("select 0");
+        cache.put("select 0", "hinted 0");
+        cache.get("select 0");
+        cache.get("select 0");
+        cache.get("select 0");
+        Assert.assertEquals(0.75d, cache.getHitRatio(), 0d);
+    }
+
+    private static Map<String, String> columns(String... names) {
+        Map<String, String> columns = new LinkedHashMap<>();
+        for (String name : names) {
+            columns.put(name, "?");
+        }
+        return columns;
+    }
+}
@@ -0,0 +1,58 @@
+/*
+ * Copyright (C) 2017 Jorge Ruesga
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.timebusker.phoenix.dialect;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Records the statements a session factory prepares, as they are sent to Phoenix. Set it as the
+ * {@code hibernate.session_factory.statement_inspector} of the factory.
+ */
+public class StatementLog extends PhoenixStatementInspector {
+
+    private static final long serialVersionUID = 1L;
+
+    private final List<String> statements = Collections.synchronizedList(new ArrayList<>());
+
+    @Override
+    public String inspect(String sql) {
+        String inspected = super.inspect(sql);
+        statements.add(inspected);
+        return inspected;
+    }
+
+    /**
+     * Returns the statements recorded that start with the given text, in the order they were
+     * prepared.
+     */
+    public List<String> getStatements(String prefix) {
+        List<String> matching = new ArrayList<>();
+        synchronized (statements) {
+            for (String statement : statements) {
+                if (statement.startsWith(prefix)) {
+                    matching.add(statement);
+                }
+            }
+        }
+        return matching;
+    }
+
+    public void clear() {
+        statements.clear();
+    }
+}
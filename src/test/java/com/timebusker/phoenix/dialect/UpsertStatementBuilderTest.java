@@ -0,0 +1,56 @@
+/*
+ * Copyright (C) 2017 Jorge Ruesga
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.timebusker.phoenix.dialect;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class UpsertStatementBuilderTest {
+
+    @Test
+    public void testVersionedUpdate() {
+        StatementShape shape = StatementShape.forUpdate("T.VE", null,
+                columns("FIELD", "?", "VERSION", "?"), columns("ID", "?"), null, "VERSION");
+        Assert.assertEquals("upsert into T.VE (FIELD,VERSION,ID) select ?,?,ID from T.VE where ID=? and VERSION=?",
+                UpsertStatementBuilder.build(shape));
+    }
+
+    @Test
+    public void testOptimisticLockConditionsAreNotWritten() {
+        StatementShape shape = StatementShape.forUpdate("T.E", null,
+                columns("FIRST_NAME", "?"), columns("EMP_NO", "?"), columns("FIRST_NAME", "=?", "LAST_NAME", " is null"), null);
+        Assert.assertEquals("upsert into T.E (FIRST_NAME,EMP_NO) select ?,EMP_NO from T.E"
+                + " where EMP_NO=? and FIRST_NAME=? and LAST_NAME is null",
+                UpsertStatementBuilder.build(shape));
+    }
+
+    @Test
+    public void testIncrement() {
+        Assert.assertEquals("upsert into T.C (NAME,DAY,HITS) values (?,?,?) on duplicate key update HITS=coalesce(HITS,0)+?",
+                UpsertStatementBuilder.buildIncrement("T.C", new String[]{"NAME", "DAY"}, "HITS"));
+    }
+
+    private static Map<String, String> columns(String... pairs) {
+        Map<String, String> columns = new LinkedHashMap<>();
+        for (int i = 0; i < pairs.length; i += 2) {
+            columns.put(pairs[i], pairs[i + 1]);
+        }
+        return columns;
+    }
+}
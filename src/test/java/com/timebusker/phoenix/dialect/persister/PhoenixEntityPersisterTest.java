@@ -0,0 +1,140 @@
+/*
+ * Copyright (C) 2017 Jorge Ruesga
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.timebusker.phoenix.dialect.persister;
+
+import org.hibernate.SessionFactory;
+import org.hibernate.boot.MetadataSources;
+import org.hibernate.boot.registry.StandardServiceRegistry;
+import org.hibernate.boot.registry.StandardServiceRegistryBuilder;
+import org.hibernate.cfg.AvailableSettings;
+import org.hibernate.engine.spi.SessionFactoryImplementor;
+import org.hibernate.persister.entity.EntityPersister;
+import org.hibernate.persister.internal.PersisterClassResolverInitiator;
+import org.junit.AfterClass;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import com.ruesga.phoenix.jpa.entities.Document;
+import com.ruesga.phoenix.jpa.entities.Note;
+import com.ruesga.phoenix.jpa.entities.Preference;
+import com.ruesga.phoenix.jpa.entities.Report;
+import com.ruesga.phoenix.jpa.entities.Reservation;
+import com.timebusker.phoenix.dialect.PhoenixDialect;
+
+/**
+ * Checks the inserts generated by the Phoenix persisters, on a session factory that never
+ * connects to the database.
+ */
+public class PhoenixEntityPersisterTest {
+
+    private static SessionFactoryImplementor factory;
+
+    @BeforeClass
+    public static void setUpBeforeClass() {
+        System.setProperty(PhoenixDialect.WEAVING, "false");
+        StandardServiceRegistry registry = new StandardServiceRegistryBuilder()
+                .applySetting(AvailableSettings.DIALECT, PhoenixDialect.class.getName())
+                .applySetting("hibernate.temp.use_jdbc_metadata_defaults", "false")
+                .applySetting(PersisterClassResolverInitiator.IMPL_NAME, PhoenixPersisterClassResolver.class.getName())
+                .applySetting(PhoenixDialect.DYNAMIC_INSERT, "true")
+                .build();
+        SessionFactory sessionFactory = new MetadataSources(registry)
+                .addAnnotatedClass(Note.class)
+                .addAnnotatedClass(Document.class)
+                .addAnnotatedClass(Report.class)
+                .addAnnotatedClass(Preference.class)
+                .addAnnotatedClass(Reservation.class)
+                .buildMetadata()
+                .buildSessionFactory();
+        factory = sessionFactory.unwrap(SessionFactoryImplementor.class);
+    }
+
+    @AfterClass
+    public static void tearDownAfterClass() {
+        if (factory != null) {
+            factory.close();
+        }
+    }
+
+    @Test
+    public void testInsertLeavesNullColumnsOut() {
+        Assert.assertTrue(isDynamicInsert(Note.class));
+        Assert.assertEquals("upsert into T.N (TITLE, ID) values (?, ?)", insert(note(1, "Title", null)));
+        Assert.assertEquals("upsert into T.N (BODY, ID) values (?, ?)", insert(note(2, null, "Body")));
+        Assert.assertEquals("upsert into T.N (BODY, TITLE, ID) values (?, ?, ?)", insert(note(3, "Title", "Body")));
+    }
+
+    @Test
+    public void testKeyIsAlwaysInserted() {
+        Assert.assertEquals("upsert into T.N (ID) values (?)", insert(note(4, null, null)));
+    }
+
+    @Test
+    public void testInsertsOfTheSameNullPatternAreReused() {
+        String insert = insert(note(5, "First", null));
+        Assert.assertSame(insert, insert(note(6, "Second", null)));
+        Assert.assertNotEquals(insert, insert(note(7, null, "Third")));
+    }
+
+    @Test
+    public void testColumnDefaultsKeepStaticInserts() {
+        // A null would not store the default of the column if it was left out
+        Assert.assertFalse(isDynamicInsert(Document.class));
+        // The subclass inherits the column with the default from its root
+        Assert.assertFalse(isDynamicInsert(Report.class));
+    }
+
+    @Test
+    public void testBlindMergesKeepStaticInserts() {
+        Assert.assertFalse(isDynamicInsert(Preference.class));
+    }
+
+    @Test
+    public void testInsertIfAbsent() {
+        Reservation reservation = new Reservation();
+        reservation.setSeat(1);
+        reservation.setHolder("Holder");
+        Assert.assertEquals("upsert into T.R (HOLDER, SEAT) values (?, ?) on duplicate key ignore",
+                insert(reservation));
+    }
+
+    private static boolean isDynamicInsert(Class<?> entityClass) {
+        return factory.getMetamodel().entityPersister(entityClass).getEntityMetamodel().isDynamicInsert();
+    }
+
+    // The insert of the root table generated for a flush of the entity
+    private static String insert(Object entity) {
+        EntityPersister persister = factory.getMetamodel().entityPersister(entity.getClass());
+        Object[] values = persister.getPropertyValues(entity);
+        boolean[] include = persister.getPropertyInsertability().clone();
+        for (int i = 0; i < values.length; i++) {
+            include[i] &= values[i] != null;
+        }
+        if (persister instanceof PhoenixJoinedSubclassEntityPersister) {
+            return ((PhoenixJoinedSubclassEntityPersister) persister).generateInsertString(false, include, 0);
+        }
+        return ((PhoenixSingleTableEntityPersister) persister).generateInsertString(false, include, 0);
+    }
+
+    private static Note note(int id, String title, String body) {
+        Note note = new Note();
+        note.setId(id);
+        note.setTitle(title);
+        note.setBody(body);
+        return note;
+    }
+}
@@ -0,0 +1,95 @@
+/*
+ * Copyright (C) 2017 Jorge Ruesga
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.timebusker.phoenix.dialect.write;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class AdaptiveBatchControllerTest {
+
+    private static final long FAST = TimeUnit.MILLISECONDS.toNanos(10);
+    private static final long SLOW = TimeUnit.MILLISECONDS.toNanos(2000);
+
+    @Test
+    public void testAdditiveIncrease() {
+        AdaptiveBatchController controller = new AdaptiveBatchController(100, 350, 100, 0.5d, 1000);
+        Assert.assertEquals(100, controller.getSize());
+        controller.onCommit(100, FAST);
+        Assert.assertEquals(200, controller.getSize());
+        controller.onCommit(200, FAST);
+        controller.onCommit(300, FAST);
+        Assert.assertEquals(350, controller.getSize());
+        controller.onCommit(350, FAST);
+        Assert.assertEquals(350, controller.getSize());
+        Assert.assertEquals(3L, controller.getIncreaseCount());
+    }
+
+    @Test
+    public void testNoIncreaseWhenNotLimited() {
+        AdaptiveBatchController controller = new AdaptiveBatchController(100, 1000, 100, 0.5d, 1000);
+        controller.onCommit(40, FAST);
+        Assert.assertEquals(100, controller.getSize());
+    }
+
+    @Test
+    public void testMultiplicativeDecrease() {
+        AdaptiveBatchController controller = new AdaptiveBatchController(100, 1000, 300, 0.5d, 1000);
+        controller.onCommit(100, FAST);
+        controller.onCommit(400, FAST);
+        Assert.assertEquals(700, controller.getSize());
+        controller.onCommit(700, SLOW);
+        Assert.assertEquals(350, controller.getSize());
+        controller.onFailure();
+        Assert.assertEquals(175, controller.getSize());
+        controller.onFailure();
+        Assert.assertEquals(100, controller.getSize());
+        Assert.assertEquals(3L, controller.getDecreaseCount());
+        Assert.assertEquals(2L, controller.getFailureCount());
+    }
+
+    @Test
+    public void testMetrics() {
+        AdaptiveBatchController controller = new AdaptiveBatchController();
+        Assert.assertEquals(0d, controller.getAverageLatencyMillis(), 0d);
+        controller.onCommit(100, TimeUnit.MILLISECONDS.toNanos(10));
+        controller.onCommit(50, TimeUnit.MILLISECONDS.toNanos(30));
+        Assert.assertEquals(2L, controller.getCommitCount());
+        Assert.assertEquals(150L, controller.getCommittedRows());
+        Assert.assertEquals(30d, controller.getLastLatencyMillis(), 0.001d);
+        Assert.assertEquals(20d, controller.getAverageLatencyMillis(), 0.001d);
+    }
+
+    @Test
+    public void testInitialSize() {
+        Assert.assertEquals(AdaptiveBatchController.DEFAULT_INITIAL_SIZE, new AdaptiveBatchController().getSize());
+        AdaptiveBatchController controller = new AdaptiveBatchController(100, 500, 1000, 100, 0.5d, 1000);
+        Assert.assertEquals(500, controller.getSize());
+        controller.onFailure();
+        Assert.assertEquals(250, controller.getSize());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInitialSizeOutOfBounds() {
+        new AdaptiveBatchController(100, 50, 1000, 100, 0.5d, 1000);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidFactor() {
+        new AdaptiveBatchController(100, 1000, 100, 1d, 1000);
+    }
+}
@@ -0,0 +1,45 @@
+/*
+ * Copyright (C) 2017 Jorge Ruesga
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.timebusker.phoenix.dialect.write;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class InListDeleteBatchTest {
+
+    @Test
+    public void testSingleKey() {
+        String[] shape = InListDeleteBatch.parse("delete from T.D where DEPT_NO=?");
+        Assert.assertArrayEquals(new String[] {"", "T.D", "DEPT_NO"}, shape);
+        Assert.assertEquals("delete from T.D where DEPT_NO in (?,?,?)", InListDeleteBatch.build(shape, 3));
+    }
+
+    @Test
+    public void testCompositeKey() {
+        String[] shape = InListDeleteBatch.parse(
+                "/* delete Salary */ delete from \"T\".\"S\" where \"EMP_NO\"=? and \"FROM_DATE\"=?");
+        Assert.assertEquals("/* delete Salary */ delete from \"T\".\"S\" where (\"EMP_NO\",\"FROM_DATE\") in ((?,?),(?,?))",
+                InListDeleteBatch.build(shape, 2));
+    }
+
+    @Test
+    public void testOtherDeletesAreNotCoalesced() {
+        Assert.assertNull(InListDeleteBatch.parse("delete from T.D"));
+        Assert.assertNull(InListDeleteBatch.parse("delete from T.D where DEPT_NO>=?"));
+        Assert.assertNull(InListDeleteBatch.parse("delete from T.D where DEPT_NO=? and DEPT_NAME is null"));
+        Assert.assertNull(InListDeleteBatch.parse("upsert into T.D (DEPT_NO) values (?)"));
+    }
+}
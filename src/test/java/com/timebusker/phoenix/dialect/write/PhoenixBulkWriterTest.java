@@ -0,0 +1,71 @@
+/*
+ * Copyright (C) 2017 Jorge Ruesga
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.timebusker.phoenix.dialect.write;
+
+import java.lang.reflect.Proxy;
+import java.util.stream.IntStream;
+
+import javax.persistence.EntityManagerFactory;
+
+import org.hibernate.SessionFactory;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class PhoenixBulkWriterTest {
+
+    @Test
+    public void testWorkerErrorsAreRethrown() {
+        Error error = new AssertionError("Worker failure");
+        PhoenixBulkWriter writer = new PhoenixBulkWriter(failingFactory(error), 2, 10);
+        try {
+            writer.write(IntStream.range(0, 15).boxed());
+            Assert.fail("The load succeeded without its workers");
+        } catch (AssertionError e) {
+            Assert.assertSame(error, e);
+        }
+    }
+
+    @Test
+    public void testSessionFailuresAreRethrown() {
+        IllegalStateException failure = new IllegalStateException("No session");
+        PhoenixBulkWriter writer = new PhoenixBulkWriter(failingFactory(failure), 2, 10);
+        try {
+            writer.write(IntStream.range(0, 15).boxed());
+            Assert.fail("The load succeeded without its workers");
+        } catch (IllegalStateException e) {
+            Assert.assertSame(failure, e);
+        }
+    }
+
+    // A factory whose sessions cannot be opened
+    private static EntityManagerFactory failingFactory(Throwable failure) {
+        SessionFactory factory = (SessionFactory) Proxy.newProxyInstance(getClassLoader(),
+                new Class<?>[] {SessionFactory.class}, (proxy, method, args) -> {
+                    if (method.getName().equals("unwrap")) {
+                        return proxy;
+                    }
+                    if (method.getName().equals("openStatelessSession")) {
+                        throw failure;
+                    }
+                    throw new UnsupportedOperationException(method.getName());
+                });
+        return factory;
+    }
+
+    private static ClassLoader getClassLoader() {
+        return PhoenixBulkWriterTest.class.getClassLoader();
+    }
+}
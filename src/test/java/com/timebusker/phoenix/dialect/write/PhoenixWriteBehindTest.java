@@ -0,0 +1,207 @@
+/*
+ * Copyright (C) 2017 Jorge Ruesga
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.timebusker.phoenix.dialect.write;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.hibernate.SessionFactory;
+import org.hibernate.boot.MetadataSources;
+import org.hibernate.boot.registry.StandardServiceRegistry;
+import org.hibernate.boot.registry.StandardServiceRegistryBuilder;
+import org.hibernate.cfg.AvailableSettings;
+import org.junit.AfterClass;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.ruesga.phoenix.jpa.entities.Department;
+import com.timebusker.phoenix.dialect.PhoenixDialect;
+
+/**
+ * Checks the write-behind on a session factory without connections, so every batch fails.
+ */
+public class PhoenixWriteBehindTest {
+
+    private static SessionFactory factory;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @BeforeClass
+    public static void setUpBeforeClass() {
+        System.setProperty(PhoenixDialect.WEAVING, "false");
+        StandardServiceRegistry registry = new StandardServiceRegistryBuilder()
+                .applySetting(AvailableSettings.DIALECT, PhoenixDialect.class.getName())
+                .applySetting("hibernate.temp.use_jdbc_metadata_defaults", "false")
+                .build();
+        factory = new MetadataSources(registry)
+                .addAnnotatedClass(Department.class)
+                .buildMetadata()
+                .buildSessionFactory();
+    }
+
+    @AfterClass
+    public static void tearDownAfterClass() {
+        if (factory != null) {
+            factory.close();
+        }
+    }
+
+    @Test
+    public void testFailingListenerDoesNotStopTheWorkers() throws Exception {
+        final int ROWS = 20;
+        AtomicInteger notified = new AtomicInteger();
+        PhoenixWriteBehind writeBehind = new PhoenixWriteBehind(factory, 100, 1, 1, 10,
+                PhoenixWriteBehind.OverflowPolicy.BLOCK);
+        writeBehind.setFailureListener((entities, cause) -> {
+            notified.addAndGet(entities.size());
+            throw new IllegalStateException("Listener failure");
+        });
+        for (int i = 0; i < ROWS; i++) {
+            Assert.assertTrue(writeBehind.write(department(i)));
+        }
+        writeBehind.close();
+
+        Assert.assertEquals(ROWS, notified.get());
+        Assert.assertEquals(ROWS, writeBehind.getFailedCount());
+        Assert.assertEquals(0, writeBehind.getWrittenCount());
+    }
+
+    @Test
+    public void testCloseProcessesEveryAcceptedEntity() throws Exception {
+        final int THREADS = 4;
+        PhoenixWriteBehind writeBehind = new PhoenixWriteBehind(factory, 1000, 10, 2, 10,
+                PhoenixWriteBehind.OverflowPolicy.BLOCK);
+        List<Thread> writers = new ArrayList<>();
+        for (int t = 0; t < THREADS; t++) {
+            Thread writer = new Thread(() -> {
+                try {
+                    for (int i = 0; ; i++) {
+                        writeBehind.write(department(i));
+                    }
+                } catch (RejectedExecutionException e) {
+                    // Closed
+                }
+            });
+            writer.start();
+            writers.add(writer);
+        }
+        Thread.sleep(200);
+        writeBehind.close();
+        for (Thread writer : writers) {
+            writer.join();
+        }
+
+        // Every entity accepted while closing was still taken by a worker
+        Assert.assertTrue(writeBehind.getAcceptedCount() > 0);
+        Assert.assertEquals(writeBehind.getAcceptedCount(), writeBehind.getFailedCount());
+        Assert.assertEquals(0, writeBehind.getQueueDepth());
+    }
+
+    @Test
+    public void testFullBatchIsWrittenBeforeTheFlushInterval() throws Exception {
+        final int ROWS = 5;
+        PhoenixWriteBehind writeBehind = new PhoenixWriteBehind(factory, 100, ROWS, 2, 60000,
+                PhoenixWriteBehind.OverflowPolicy.BLOCK);
+        try {
+            // Let the workers park for the whole flush interval
+            Thread.sleep(100);
+            for (int i = 0; i < ROWS; i++) {
+                Assert.assertTrue(writeBehind.write(department(i)));
+            }
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+            while (writeBehind.getFailedCount() < ROWS && System.nanoTime() < deadline) {
+                Thread.sleep(10);
+            }
+            Assert.assertEquals(1, writeBehind.getFlushCount());
+            Assert.assertEquals(ROWS, writeBehind.getFailedCount());
+        } finally {
+            writeBehind.close();
+        }
+    }
+
+    @Test
+    public void testBatchesFollowTheController() throws Exception {
+        final int ROWS = 8;
+        AdaptiveBatchController controller = new AdaptiveBatchController(2, ROWS, 16, 2, 0.5d, 1000);
+        PhoenixWriteBehind writeBehind = new PhoenixWriteBehind(factory, 100, controller, 1, 60000,
+                PhoenixWriteBehind.OverflowPolicy.BLOCK);
+        try {
+            for (int i = 0; i < ROWS; i++) {
+                Assert.assertTrue(writeBehind.write(department(i)));
+            }
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+            while (writeBehind.getFailedCount() < ROWS && System.nanoTime() < deadline) {
+                Thread.sleep(10);
+            }
+        } finally {
+            writeBehind.close();
+        }
+
+        // The first batch took the initial size, and every failed batch cut it
+        Assert.assertEquals(writeBehind.getFlushCount(), controller.getFailureCount());
+        Assert.assertTrue(controller.getSize() < ROWS);
+    }
+
+    @Test
+    public void testReplayGivesUpBatchesFailingWithoutDatabaseError() throws Exception {
+        final int ROWS = 5;
+        AtomicInteger notified = new AtomicInteger();
+        PhoenixWriteBehind writeBehind = new PhoenixWriteBehind(factory, 100, ROWS, 1, 10,
+                PhoenixWriteBehind.OverflowPolicy.BLOCK);
+        writeBehind.setFailureListener((entities, cause) -> notified.addAndGet(entities.size()));
+        try (WriteSpool spool = new WriteSpool(folder.newFolder("spool").toPath(), 1 << 16, 4)) {
+            writeBehind.setSpool(spool);
+            for (int i = 0; i < ROWS; i++) {
+                Assert.assertTrue(writeBehind.write(department(i)));
+            }
+
+            // No connection can ever be acquired, so the spooled batch would stall the spool
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+            while (writeBehind.getFailedCount() < ROWS && System.nanoTime() < deadline) {
+                Thread.sleep(10);
+            }
+            writeBehind.close();
+
+            Assert.assertTrue(spool.isEmpty());
+        }
+        Assert.assertEquals(ROWS, writeBehind.getSpooledCount());
+        Assert.assertEquals(ROWS, writeBehind.getFailedCount());
+        Assert.assertEquals(ROWS, notified.get());
+        Assert.assertEquals(0, writeBehind.getReplayedCount());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testMaxReplayAttemptsMustBePositive() throws Exception {
+        try (PhoenixWriteBehind writeBehind = new PhoenixWriteBehind(factory, 1, 1, 1, 10,
+                PhoenixWriteBehind.OverflowPolicy.BLOCK)) {
+            writeBehind.setMaxReplayAttempts(0);
+        }
+    }
+
+    private static Department department(int deptNo) {
+        Department d = new Department();
+        d.setDeptNo(deptNo);
+        d.setDeptName("Behind " + deptNo);
+        return d;
+    }
+}
@@ -0,0 +1,246 @@
+/*
+ * Copyright (C) 2017 Jorge Ruesga
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.timebusker.phoenix.dialect.write;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class WriteSpoolTest {
+
+    private static final int HEADER_SIZE = 8;
+    private static final int RECORD_HEADER_SIZE = 16;
+    private static final int RECORD_LENGTH = 16;
+    private static final int RECORD_SIZE = RECORD_HEADER_SIZE + RECORD_LENGTH;
+    // Two records per segment
+    private static final int SMALL_SEGMENT_SIZE = HEADER_SIZE + 2 * RECORD_SIZE;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private Path directory;
+
+    @Before
+    public void setUp() throws IOException {
+        directory = folder.newFolder("spool").toPath();
+    }
+
+    @Test
+    public void testFifo() throws IOException {
+        try (WriteSpool spool = new WriteSpool(directory, 1024, 1)) {
+            Assert.assertTrue(spool.isEmpty());
+            Assert.assertNull(spool.peek());
+            spool.append(record(1, 10));
+            spool.append(record(2, 20));
+            spool.append(record(3, 5));
+            Assert.assertEquals(3, spool.getRecordCount());
+
+            Assert.assertArrayEquals(record(1, 10), spool.peek());
+            // Peeking does not remove
+            Assert.assertArrayEquals(record(1, 10), spool.peek());
+            spool.remove();
+            Assert.assertArrayEquals(record(2, 20), spool.peek());
+            spool.remove();
+            Assert.assertArrayEquals(record(3, 5), spool.peek());
+            spool.remove();
+            Assert.assertTrue(spool.isEmpty());
+            Assert.assertNull(spool.peek());
+        }
+    }
+
+    @Test
+    public void testRecoveryResumesAtTheReadOffset() throws IOException {
+        try (WriteSpool spool = new WriteSpool(directory, 1024, 1)) {
+            for (int i = 0; i < 5; i++) {
+                spool.append(record(i));
+            }
+            spool.remove();
+            spool.remove();
+        }
+
+        try (WriteSpool spool = new WriteSpool(directory, 1024, 1)) {
+            Assert.assertEquals(3, spool.getRecordCount());
+            Assert.assertArrayEquals(record(2), spool.peek());
+            // Appended with the next sequence number, or the next recovery would discard it
+            spool.append(record(9));
+        }
+
+        try (WriteSpool spool = new WriteSpool(directory, 1024, 1)) {
+            assertRecords(spool, 2, 3, 4, 9);
+        }
+    }
+
+    @Test
+    public void testRecoveryAcrossSegments() throws IOException {
+        try (WriteSpool spool = new WriteSpool(directory, SMALL_SEGMENT_SIZE, 2)) {
+            for (int i = 0; i < 4; i++) {
+                spool.append(record(i));
+            }
+            for (int i = 0; i < 3; i++) {
+                spool.remove();
+            }
+        }
+        Assert.assertEquals(1, segments().size());
+
+        try (WriteSpool spool = new WriteSpool(directory, SMALL_SEGMENT_SIZE, 2)) {
+            Assert.assertEquals(1, spool.getSegmentCount());
+            Assert.assertEquals(1, spool.getRecordCount());
+            Assert.assertArrayEquals(record(3), spool.peek());
+            spool.append(record(9));
+        }
+
+        try (WriteSpool spool = new WriteSpool(directory, SMALL_SEGMENT_SIZE, 2)) {
+            assertRecords(spool, 3, 9);
+        }
+    }
+
+    @Test
+    public void testTornTailIsDiscarded() throws IOException {
+        try (WriteSpool spool = new WriteSpool(directory, 1024, 1)) {
+            for (int i = 0; i < 3; i++) {
+                spool.append(record(i));
+            }
+        }
+
+        // The crash lost the end of the payload of the last record
+        Path segment = segments().get(0);
+        try (FileChannel channel = FileChannel.open(segment, StandardOpenOption.WRITE)) {
+            channel.truncate(HEADER_SIZE + 2 * RECORD_SIZE + RECORD_HEADER_SIZE + RECORD_LENGTH / 2);
+            channel.write(ByteBuffer.wrap(new byte[1]), 1023);
+        }
+
+        try (WriteSpool spool = new WriteSpool(directory, 1024, 1)) {
+            Assert.assertEquals(2, spool.getRecordCount());
+            spool.append(record(9));
+        }
+
+        try (WriteSpool spool = new WriteSpool(directory, 1024, 1)) {
+            assertRecords(spool, 0, 1, 9);
+        }
+    }
+
+    @Test
+    public void testCorruptedChecksumDiscardsTheRecordsAfterIt() throws IOException {
+        try (WriteSpool spool = new WriteSpool(directory, 1024, 1)) {
+            for (int i = 0; i < 4; i++) {
+                spool.append(record(i));
+            }
+        }
+
+        Path segment = segments().get(0);
+        try (FileChannel channel = FileChannel.open(segment, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            long position = HEADER_SIZE + RECORD_SIZE + RECORD_HEADER_SIZE;
+            ByteBuffer b = ByteBuffer.allocate(1);
+            channel.read(b, position);
+            b.put(0, (byte) ~b.get(0));
+            b.rewind();
+            channel.write(b, position);
+        }
+
+        try (WriteSpool spool = new WriteSpool(directory, 1024, 1)) {
+            Assert.assertEquals(1, spool.getRecordCount());
+            // Takes the place of the corrupted record, right before the complete records 2 and 3
+            spool.append(record(9));
+        }
+
+        try (WriteSpool spool = new WriteSpool(directory, 1024, 1)) {
+            assertRecords(spool, 0, 9);
+        }
+    }
+
+    @Test
+    public void testSegmentsRollOverAndAreDeletedOnceRead() throws IOException {
+        try (WriteSpool spool = new WriteSpool(directory, SMALL_SEGMENT_SIZE, 3)) {
+            for (int i = 0; i < 6; i++) {
+                spool.append(record(i));
+            }
+            Assert.assertEquals(3, spool.getSegmentCount());
+            Assert.assertEquals(3, segments().size());
+            try {
+                spool.append(record(6));
+                Assert.fail("Appended to a full spool");
+            } catch (IOException expected) {
+                // Every segment is full
+            }
+
+            spool.remove();
+            Assert.assertEquals(3, segments().size());
+            spool.remove();
+            Assert.assertEquals(2, segments().size());
+
+            // Room for a new segment again
+            spool.append(record(6));
+            Assert.assertEquals(3, segments().size());
+
+            assertRecords(spool, 2, 3, 4, 5, 6);
+            // The last segment is kept for the next appends
+            Assert.assertEquals(1, spool.getSegmentCount());
+            Assert.assertEquals(1, segments().size());
+        }
+    }
+
+    @Test
+    public void testRejectsRecordsLargerThanASegment() throws IOException {
+        try (WriteSpool spool = new WriteSpool(directory, SMALL_SEGMENT_SIZE, 1)) {
+            try {
+                spool.append(new byte[SMALL_SEGMENT_SIZE]);
+                Assert.fail("Appended a record larger than a segment");
+            } catch (IOException expected) {
+                // Does not fit
+            }
+            Assert.assertTrue(spool.isEmpty());
+        }
+    }
+
+    private static void assertRecords(WriteSpool spool, int... ids) {
+        Assert.assertEquals(ids.length, spool.getRecordCount());
+        for (int id : ids) {
+            Assert.assertArrayEquals(record(id), spool.peek());
+            spool.remove();
+        }
+        Assert.assertTrue(spool.isEmpty());
+    }
+
+    private static byte[] record(int id) {
+        return record(id, RECORD_LENGTH);
+    }
+
+    private static byte[] record(int id, int length) {
+        byte[] record = new byte[length];
+        Arrays.fill(record, (byte) id);
+        return record;
+    }
+
+    private List<Path> segments() throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.filter(p -> p.getFileName().toString().startsWith("spool-")).sorted()
+                    .collect(Collectors.toList());
+        }
+    }
+}
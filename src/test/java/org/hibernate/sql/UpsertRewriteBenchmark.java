@@ -0,0 +1,178 @@
+/*
+ * Copyright (C) 2017 Jorge Ruesga
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hibernate.sql;
+
+import java.lang.reflect.Field;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.timebusker.phoenix.dialect.PhoenixDialect;
+import com.timebusker.phoenix.dialect.UpsertStatementBuilder;
+
+/**
+ * Compares the cost of rewriting an {@link Update} into an UPSERT: the original reflective
+ * rewrite, the uncached shape based rewrite and the cached one.
+ * <p>
+ * Run it after {@code mvn test-compile} with the gc profiler to get the bytes/op figures:
+ * <pre>
+ *     java -cp target/test-classes:target/classes:&lt;test classpath&gt; org.openjdk.jmh.Main UpsertRewriteBenchmark -prof gc
+ * </pre>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+public class UpsertRewriteBenchmark {
+
+    @Param({"false", "true"})
+    public boolean versioned;
+
+    private Update update;
+
+    private Field updateColumnsField;
+    private Field updatePkColumnsField;
+    private Field updateCommentField;
+    private Field updateWhereColumnsField;
+    private Field updateVersionColumnNameField;
+
+    @Setup
+    public void setUp() throws Exception {
+        update = new Update(new PhoenixDialect())
+                .setTableName("\"T\".\"E\"")
+                .addColumns(new String[]{"\"BIRTH_DATE\"", "\"FIRST_NAME\"", "\"LAST_NAME\"", "\"GENDER\"", "\"HIRE_DATE\""})
+                .addPrimaryKeyColumns(new String[]{"\"EMP_NO\""});
+        if (versioned) {
+            update.addColumns(new String[]{"\"VERSION\""}).setVersionColumnName("\"VERSION\"");
+        }
+
+        updateColumnsField = accessible("columns");
+        updatePkColumnsField = accessible("primaryKeyColumns");
+        updateWhereColumnsField = accessible("whereColumns");
+        updateCommentField = accessible("comment");
+        updateVersionColumnNameField = accessible("versionColumnName");
+    }
+
+    @Benchmark
+    public String reflectiveRewrite() throws Throwable {
+        return createUpsertValues(update);
+    }
+
+    @Benchmark
+    public String shapeRewrite() throws Throwable {
+        return UpsertStatementBuilder.build(SqlInterceptor.createShape(update));
+    }
+
+    @Benchmark
+    public String cachedRewrite() throws Throwable {
+        return SqlInterceptor.toUpsertStatement(update);
+    }
+
+    private static Field accessible(String name) throws Exception {
+        Field field = Update.class.getDeclaredField(name);
+        field.setAccessible(true);
+        return field;
+    }
+
+    // The rewrite as it was done before statement shapes, kept here as the baseline
+
+    @SuppressWarnings("rawtypes")
+    private String createUpsertValues(Update target) throws Throwable {
+        StringBuilder sb = new StringBuilder();
+        String comment = (String) updateCommentField.get(target);
+        if (comment != null) {
+            sb.append("/* ").append(comment).append(" */ ");
+        }
+        sb.append("upsert into ").append(target.getTableName()).append(" (");
+        Map columns = (Map) updateColumnsField.get(target);
+        Map pkColumns = (Map) updatePkColumnsField.get(target);
+        Map whereColumns = (Map) updateWhereColumnsField.get(target);
+        String versionColumn = (String) updateVersionColumnNameField.get(target);
+        if (versionColumn == null) {
+            StringBuilder names = new StringBuilder();
+            StringBuilder values = new StringBuilder();
+            updateUpsertBuffers(names, values, columns, false);
+            updateUpsertBuffers(names, values, pkColumns, true);
+            updateUpsertBuffers(names, values, whereColumns, true);
+            sb.append(names).append(") values (").append(values).append(")");
+        } else {
+            StringBuilder names = new StringBuilder();
+            StringBuilder values = new StringBuilder();
+            updateUpsertBuffers(names, values, columns, false);
+            updateUpsertBuffers(names, values, whereColumns, true);
+            StringBuilder primaryKeys = new StringBuilder();
+            updateUpsertBuffers(primaryKeys, new StringBuilder(), pkColumns, true);
+
+            sb.append(names).append(primaryKeys).append(") select ").append(values).append(primaryKeys).append(" from ").append(target.getTableName()).append(" where ");
+            boolean conditionsAppended = false;
+            Map.Entry e;
+            for (Iterator iter = pkColumns.entrySet().iterator(); iter.hasNext(); conditionsAppended = true) {
+                e = (Map.Entry) iter.next();
+                sb.append(e.getKey()).append('=').append(e.getValue());
+                if (iter.hasNext()) {
+                    sb.append(" and ");
+                }
+            }
+            for (Iterator iter = whereColumns.entrySet().iterator(); iter.hasNext(); conditionsAppended = true) {
+                e = (Map.Entry) iter.next();
+                if (conditionsAppended) {
+                    sb.append(" and ");
+                }
+                sb.append(e.getKey()).append(e.getValue());
+            }
+            if (conditionsAppended) {
+                sb.append(" and ");
+            }
+            sb.append(versionColumn).append("=?");
+        }
+        return sb.toString();
+    }
+
+    @SuppressWarnings("rawtypes")
+    private void updateUpsertBuffers(StringBuilder names, StringBuilder values, Map columns, boolean hasPrevColumns) {
+        if (columns != null) {
+            Iterator it = columns.entrySet().iterator();
+            if (hasPrevColumns && it.hasNext()) {
+                names.append(",");
+                values.append(",");
+            }
+            while (it.hasNext()) {
+                Map.Entry e = (Map.Entry) it.next();
+                boolean hasNext = it.hasNext();
+                names.append(e.getKey()).append(hasNext ? "," : "");
+                String value = String.valueOf(e.getValue());
+                if (value.startsWith("=")) {
+                    value = value.substring(1);
+                }
+                values.append(value).append(hasNext ? "," : "");
+            }
+        }
+    }
+}
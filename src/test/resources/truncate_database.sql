@@ -0,0 +1,10 @@
+--
+-- The truncate must remove the rows upserted before it, and only those
+--
+
+UPSERT INTO T.SN (ID, LABEL) VALUES (1,'Stale')
+UPSERT INTO T.SN (ID, LABEL) VALUES (2,'Stale')
+
+truncate table T.SN
+
+UPSERT INTO T.SN (ID, LABEL) VALUES (3,'Fresh')